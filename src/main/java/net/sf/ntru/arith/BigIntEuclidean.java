@@ -35,14 +35,124 @@ public class BigIntEuclidean {
     private BigIntEuclidean() {
     }
 
+    /** Numbers are split into digits of this many bits, so intermediate values in Lehmer's algorithm fit in a <code>long</code> */
+    private static final int DIGIT_BITS = 62;
+    
+    /** Lehmer's algorithm is used if both numbers have at least this many bits */
+    private static final int LEHMER_THRESHOLD = 2 * DIGIT_BITS;
+    
     /**
      * Runs the EEA on two <code>BigInteger</code>s<br/>
-     * Implemented from pseudocode on <a href="http://en.wikipedia.org/wiki/Extended_Euclidean_algorithm">Wikipedia</a>.
+     * Large numbers are processed with Lehmer's algorithm, which does most division steps on
+     * the leading 62 bits of the two numbers in <code>long</code> arithmetic, and only updates the
+     * <code>BigInteger</code>s every few dozen steps (Knuth, <i>The Art of Computer Programming</i>
+     * vol. 2, algorithm 4.5.2L).<br/>
+     * The result is the same as the textbook algorithm's, including the signs of <code>x</code>,
+     * <code>y</code>, and <code>gcd</code> when <code>a</code> or <code>b</code> is negative.
      * @param a
      * @param b
      * @return a <code>BigIntEuclidean</code> object that contains the result in the variables <code>x</code>, <code>y</code>, and <code>gcd</code>
      */
     public static BigIntEuclidean calculate(BigInteger a, BigInteger b) {
+        if (a.bitLength()<LEHMER_THRESHOLD || b.bitLength()<LEHMER_THRESHOLD)
+            return calculateClassical(a, b);
+        
+        // Run Lehmer's algorithm on |a| and |b|. The textbook algorithm on a and b has the same
+        // number of steps k, and its remainders have the signs of a and b, alternating.
+        BigInteger u = a.abs();
+        BigInteger v = b.abs();
+        BigInteger x = BigInteger.ONE;   // u = x*|a| + (...)*|b|
+        BigInteger lastx = BigInteger.ZERO;   // v = lastx*|a| + (...)*|b|
+        int k = 0;
+        if (u.compareTo(v) < 0) {
+            // the first quotient is 0
+            BigInteger temp = u;
+            u = v;
+            v = temp;
+            x = BigInteger.ZERO;
+            lastx = BigInteger.ONE;
+            k++;
+        }
+        
+        while (v.bitLength() > DIGIT_BITS) {
+            int shift = u.bitLength() - DIGIT_BITS;
+            long uh = u.shiftRight(shift).longValue();
+            long vh = v.shiftRight(shift).longValue();
+            long A = 1;
+            long B = 0;
+            long C = 0;
+            long D = 1;
+            int steps = 0;
+            // Simulate division steps while both bounds for the quotient agree
+            while (vh+C!=0 && vh+D!=0) {
+                long q = (uh+A) / (vh+C);
+                if (q != (uh+B)/(vh+D))
+                    break;
+                long temp = A - q*C;
+                A = C;
+                C = temp;
+                temp = B - q*D;
+                B = D;
+                D = temp;
+                temp = uh - q*vh;
+                uh = vh;
+                vh = temp;
+                steps++;
+            }
+            
+            if (B == 0) {
+                // not a single quotient could be determined; do one step in BigIntegers
+                BigInteger[] quotientAndRemainder = u.divideAndRemainder(v);
+                u = v;
+                v = quotientAndRemainder[1];
+                BigInteger temp = x;
+                x = lastx;
+                lastx = temp.subtract(quotientAndRemainder[0].multiply(lastx));
+                k++;
+            }
+            else {
+                BigInteger bigA = BigInteger.valueOf(A);
+                BigInteger bigB = BigInteger.valueOf(B);
+                BigInteger bigC = BigInteger.valueOf(C);
+                BigInteger bigD = BigInteger.valueOf(D);
+                BigInteger temp = u.multiply(bigA).add(v.multiply(bigB));
+                v = u.multiply(bigC).add(v.multiply(bigD));
+                u = temp;
+                temp = x.multiply(bigA).add(lastx.multiply(bigB));
+                lastx = x.multiply(bigC).add(lastx.multiply(bigD));
+                x = temp;
+                k += steps;
+            }
+        }
+        
+        while (v.signum() != 0) {
+            BigInteger[] quotientAndRemainder = u.divideAndRemainder(v);
+            u = v;
+            v = quotientAndRemainder[1];
+            BigInteger temp = x;
+            x = lastx;
+            lastx = temp.subtract(quotientAndRemainder[0].multiply(lastx));
+            k++;
+        }
+        BigInteger y = u.subtract(x.multiply(a.abs())).divide(b.abs());
+        
+        // the last nonzero remainder of the textbook algorithm has the sign of a if k is even, and the sign of b if k is odd
+        int sign = k%2==0 ? a.signum() : b.signum();
+        BigIntEuclidean result = new BigIntEuclidean();
+        result.x = sign==a.signum() ? x : x.negate();
+        result.y = sign==b.signum() ? y : y.negate();
+        result.gcd = sign>0 ? u : u.negate();
+        return result;
+    }
+    
+    /**
+     * Runs the textbook EEA on two <code>BigInteger</code>s<br/>
+     * Implemented from pseudocode on <a href="http://en.wikipedia.org/wiki/Extended_Euclidean_algorithm">Wikipedia</a>.
+     * @param a
+     * @param b
+     * @return a <code>BigIntEuclidean</code> object that contains the result in the variables <code>x</code>, <code>y</code>, and <code>gcd</code>
+     */
+    static BigIntEuclidean calculateClassical(BigInteger a, BigInteger b) {
         BigInteger x = BigInteger.ZERO;
         BigInteger lastx = BigInteger.ONE;
         BigInteger y = BigInteger.ONE;
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.arith;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chinese remaindering for a growing set of distinct odd primes below <code>2^31</code>
+ * using <a href="http://en.wikipedia.org/wiki/Mixed_radix">mixed-radix</a> digits (Garner's algorithm).<br/>
+ * A number <code>x mod P</code>, where <code>P=p<sub>0</sub>*...*p<sub>k-1</sub></code>, is represented by digits
+ * <code>v<sub>0</sub>,...,v<sub>k-1</sub></code> with <code>0&lt;=v<sub>i</sub>&lt;p<sub>i</sub></code> such that
+ * <code>x = v<sub>0</sub> + v<sub>1</sub>*p<sub>0</sub> + v<sub>2</sub>*p<sub>0</sub>*p<sub>1</sub> + ... mod P</code>.<br/>
+ * Digits are computed from residues with <code>int</code> arithmetic only; the inverses of the primes
+ * are precomputed when a prime is added. Conversion to <code>BigInteger</code> happens once, at the end.<br/>
+ * Methods that don't add primes can be called from several threads at once.
+ */
+public class GarnerCrt {
+    private List<MontgomeryReducer> reducers = new ArrayList<MontgomeryReducer>();
+    private List<int[]> inverses = new ArrayList<int[]>();   // Montgomery form of p_j^(-1) mod p_i for all j<i
+    private int[] primes = new int[16];
+    private int numPrimes;
+    
+    /**
+     * Adds a prime to the basis and precomputes the inverses of all previous primes modulo the new prime.
+     * @param p an odd prime less than <code>2^31</code> that is different from all previous primes
+     */
+    public void addPrime(int p) {
+        MontgomeryReducer mont = new MontgomeryReducer(p);
+        int[] inv = new int[numPrimes];
+        for (int j=0; j<numPrimes; j++)
+            inv[j] = mont.toMontgomery(mont.inverse(primes[j]));
+        
+        if (numPrimes == primes.length) {
+            int[] newPrimes = new int[2*numPrimes];
+            System.arraycopy(primes, 0, newPrimes, 0, numPrimes);
+            primes = newPrimes;
+        }
+        primes[numPrimes] = p;
+        numPrimes++;
+        reducers.add(mont);
+        inverses.add(inv);
+    }
+    
+    /**
+     * Returns the number of primes added so far.
+     * @return the number of primes
+     */
+    public int getNumPrimes() {
+        return numPrimes;
+    }
+    
+    /**
+     * Returns a prime.
+     * @param i the index of the prime
+     * @return the <code>i</code>-th prime that was added
+     */
+    public int getPrime(int i) {
+        return primes[i];
+    }
+    
+    /**
+     * Computes the <code>i</code>-th mixed-radix digit of a number from its residue modulo the
+     * <code>i</code>-th prime and the digits for the previous primes.
+     * @param i the index of the digit
+     * @param residue the number modulo <code>p<sub>i</sub></code>; must be between <code>0</code> and <code>p<sub>i</sub>-1</code>
+     * @param digits the digits <code>v<sub>0</sub>...v<sub>i-1</sub></code>
+     * @return <code>v<sub>i</sub></code>
+     */
+    public int digit(int i, int residue, int[] digits) {
+        MontgomeryReducer mont = reducers.get(i);
+        int[] inv = inverses.get(i);
+        int u = residue;
+        // u - digits[j] is less than 2^31 in absolute value because both are nonnegative
+        for (int j=0; j<i; j++)
+            u = mont.reduce((long)(u-digits[j]) * inv[j]);
+        return u;
+    }
+    
+    /**
+     * Tells whether the number represented by the first <code>n</code> digits is greater than
+     * <code>(p<sub>0</sub>*...*p<sub>n-1</sub>)/2</code>, i.e. whether it is negative when taken
+     * as a value between <code>-P/2</code> and <code>P/2</code>.
+     * @param digits mixed-radix digits
+     * @param n the number of digits to use
+     * @return <code>true</code> if the centered value is negative
+     */
+    public boolean isNegative(int[] digits, int n) {
+        // the digits of floor(P/2) are (p_j-1)/2 because the sum of (p_j-1)*p_0*...*p_(j-1) is P-1
+        for (int j=n-1; j>=0; j--) {
+            int half = primes[j] >>> 1;
+            if (digits[j] != half)
+                return digits[j] > half;
+        }
+        return false;
+    }
+    
+    /**
+     * Converts the first <code>n</code> digits to a number between <code>-P/2</code> and <code>P/2</code>,
+     * where <code>P=p<sub>0</sub>*...*p<sub>n-1</sub></code>.
+     * @param digits mixed-radix digits
+     * @param n the number of digits to use
+     * @return the centered value
+     */
+    public BigInteger toCenteredBigInteger(int[] digits, int n) {
+        if (!isNegative(digits, n))
+            return toBigInteger(digits, n);
+        
+        // x-P = -((P-1-x) + 1), and the digits of P-1-x are p_j-1-v_j
+        int[] complement = new int[n];
+        for (int j=0; j<n; j++)
+            complement[j] = primes[j] - 1 - digits[j];
+        return toBigInteger(complement, n).add(BigInteger.ONE).negate();
+    }
+    
+    /**
+     * Converts the first <code>n</code> digits to a number between <code>0</code> and <code>P-1</code>.
+     * @param digits mixed-radix digits
+     * @param n the number of digits to use
+     * @return the value
+     */
+    public BigInteger toBigInteger(int[] digits, int n) {
+        // Horner's scheme on 32-bit words, least significant word first
+        int[] mag = new int[n+1];
+        int len = 0;
+        for (int j=n-1; j>=0; j--) {
+            long m = primes[j];
+            long carry = digits[j];
+            for (int w=0; w<len; w++) {
+                long t = (mag[w]&0xFFFFFFFFL)*m + carry;
+                mag[w] = (int)t;
+                carry = t >>> 32;
+            }
+            if (carry != 0)
+                mag[len++] = (int)carry;
+        }
+        
+        byte[] bytes = new byte[4*len+1];   // the extra byte keeps the sign bit clear
+        for (int w=0; w<len; w++) {
+            int b = bytes.length - 1 - 4*w;
+            bytes[b] = (byte)mag[w];
+            bytes[b-1] = (byte)(mag[w]>>>8);
+            bytes[b-2] = (byte)(mag[w]>>>16);
+            bytes[b-3] = (byte)(mag[w]>>>24);
+        }
+        return new BigInteger(bytes);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.arith;
+
+import net.sf.ntru.exception.NtruException;
+
+/**
+ * Modular multiplication for an odd <code>int</code> modulus using
+ * <a href="http://en.wikipedia.org/wiki/Montgomery_reduction">Montgomery reduction</a>
+ * with <code>R=2^32</code>.<br/>
+ * Products are reduced with two multiplications and a shift instead of a division, and
+ * the modulus can be any odd number up to <code>2^31-1</code> because intermediate results
+ * are <code>long</code>s.<br/>
+ * A number <code>a</code> is in Montgomery form if it is stored as <code>a*R mod modulus</code>.
+ * Multiplying a number in normal form by one in Montgomery form and reducing
+ * the product yields the product in normal form; see {@link #multiply(int, int)}.
+ */
+public class MontgomeryReducer {
+    private int modulus;
+    private int modulusInv;   // modulus^(-1) mod 2^32
+    private int r;   // R mod modulus
+    private int r2;   // R^2 mod modulus
+    
+    /**
+     * Precomputes the constants for a modulus.
+     * @param modulus an odd number greater than 1
+     * @throws NtruException if <code>modulus</code> is even or less than 3
+     */
+    public MontgomeryReducer(int modulus) {
+        if (modulus<3 || modulus%2==0)
+            throw new NtruException("Modulus must be odd and greater than 1: " + modulus);
+        this.modulus = modulus;
+        
+        // Newton iteration; each step doubles the number of correct low bits, starting with 3
+        int inv = modulus;
+        for (int i=0; i<4; i++)
+            inv *= 2 - modulus*inv;
+        modulusInv = inv;
+        
+        r = (int)((1L<<32) % modulus);
+        r2 = (int)((long)r * r % modulus);
+    }
+    
+    /**
+     * Returns the modulus.
+     * @return the modulus
+     */
+    public int getModulus() {
+        return modulus;
+    }
+    
+    /**
+     * Computes <code>a*R^(-1) mod modulus</code>.
+     * @param a a number whose absolute value is less than <code>modulus*2^31</code>
+     * @return a number between <code>0</code> and <code>modulus-1</code>
+     */
+    public int reduce(long a) {
+        int m = (int)a * modulusInv;
+        // the low 32 bits cancel out; the result is greater than -modulus and less than modulus
+        int t = (int)((a - (long)m*modulus) >> 32);
+        return t + ((t>>31) & modulus);
+    }
+    
+    /**
+     * Converts a number to Montgomery form.
+     * @param a any <code>int</code>
+     * @return <code>a*R mod modulus</code>
+     */
+    public int toMontgomery(int a) {
+        return reduce((long)(a%modulus) * r2);
+    }
+    
+    /**
+     * Multiplies a number in normal form by a number in Montgomery form.
+     * @param a a number in normal form whose absolute value is less than <code>modulus</code>
+     * @param bMont a number in Montgomery form between <code>0</code> and <code>modulus-1</code>
+     * @return <code>a*b mod modulus</code> in normal form, between <code>0</code> and <code>modulus-1</code>
+     */
+    public int multiply(int a, int bMont) {
+        return reduce((long)a * bMont);
+    }
+    
+    /**
+     * Computes <code>a^b mod modulus</code> using square-and-multiply.
+     * @param a any <code>int</code>
+     * @param b a non-negative exponent
+     * @return a number between <code>0</code> and <code>modulus-1</code>
+     */
+    public int pow(int a, int b) {
+        int aMont = toMontgomery(a);
+        int p = r;   // 1 in Montgomery form
+        while (b > 0) {
+            if ((b&1) != 0)
+                p = reduce((long)p * aMont);
+            aMont = reduce((long)aMont * aMont);
+            b >>>= 1;
+        }
+        return reduce(p);
+    }
+    
+    /**
+     * Computes the inverse of a number using Kaliski's Montgomery inverse algorithm: a binary
+     * extended GCD that yields <code>a^(-1)*2^k</code>, followed by Montgomery reductions that
+     * remove the factor <code>2^k</code>.
+     * @param a any <code>int</code>
+     * @return <code>a^(-1) mod modulus</code>, between <code>0</code> and <code>modulus-1</code>
+     * @throws NtruException if <code>a</code> is not invertible
+     */
+    public int inverse(int a) {
+        a %= modulus;
+        if (a < 0)
+            a += modulus;
+        if (a == 0)
+            throw new NtruException("0 is not invertible");
+        
+        // Kaliski's algorithm with runs of halving steps done at once.
+        // Invariant: u*s + v*r = modulus; r and s stay below 2*modulus.
+        int u = modulus;
+        int tz = Integer.numberOfTrailingZeros(a);
+        int v = a >>> tz;
+        long r = 0;
+        long s = 1;
+        int k = tz;
+        while (u != v) {
+            if (u > v) {
+                u -= v;
+                tz = Integer.numberOfTrailingZeros(u);
+                u >>>= tz;
+                r += s;
+                s <<= tz;
+            }
+            else {
+                v -= u;
+                tz = Integer.numberOfTrailingZeros(v);
+                v >>>= tz;
+                s += r;
+                r <<= tz;
+            }
+            k += tz;
+        }
+        // final step: v=(v-u)/2=0
+        r <<= 1;
+        k++;
+        
+        if (u != 1)
+            throw new NtruException(a + " is not invertible mod " + modulus);
+        if (r >= modulus)
+            r -= modulus;
+        int x = modulus - (int)r;   // a^(-1)*2^k, where k is at most 62
+        
+        // each reduction divides by 2^32
+        if (k > 32) {
+            x = reduce(x);
+            k -= 32;
+        }
+        return reduce((long)x << (32-k));
+    }
+}
\ No newline at end of file
@@ -34,6 +34,7 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.ECGenParameterSpec;
 import java.text.DecimalFormat;
+import java.util.Random;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
@@ -42,6 +43,9 @@ import net.sf.ntru.encrypt.EncryptionKeyPair;
 import net.sf.ntru.encrypt.EncryptionParameters;
 import net.sf.ntru.encrypt.EncryptionPublicKey;
 import net.sf.ntru.encrypt.NtruEncrypt;
+import net.sf.ntru.encrypt.PreparedEncryptionKeyPair;
+import net.sf.ntru.encrypt.PreparedEncryptionPublicKey;
+import net.sf.ntru.polynomial.IntegerPolynomial;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -73,11 +77,18 @@ public class Benchmark {
         System.out.println("  ecc521enc");
         System.out.println("  ecc521dec");
         System.out.println("  ntru439gen");
+        System.out.println("  ntru439genbatch");
         System.out.println("  ntru439enc");
+        System.out.println("  ntru439encprep");
         System.out.println("  ntru439dec");
+        System.out.println("  ntru439decprep");
         System.out.println("  ntru743gen");
+        System.out.println("  ntru743genbatch");
         System.out.println("  ntru743enc");
+        System.out.println("  ntru743encprep");
         System.out.println("  ntru743dec");
+        System.out.println("  ntru743decprep");
+        System.out.println("  multdense (dense polynomial multiplication mod q, int vs. packed long)");
         System.out.println("If alg is not specified, all algorithms except rsa15360* are benchmarked.");
     }
     
@@ -126,11 +137,18 @@ public class Benchmark {
                 else if ("ecc521enc".equals(arg))   ecc521enc();
                 else if ("ecc521dec".equals(arg))   ecc521dec();
                 else if ("ntru439gen".equals(arg))  ntru439gen();
+                else if ("ntru439genbatch".equals(arg))  ntru439genbatch();
                 else if ("ntru439enc".equals(arg))  ntru439enc();
+                else if ("ntru439encprep".equals(arg))  ntru439encprep();
                 else if ("ntru439dec".equals(arg))  ntru439dec();
+                else if ("ntru439decprep".equals(arg))  ntru439decprep();
                 else if ("ntru743gen".equals(arg))  ntru743gen();
+                else if ("ntru743genbatch".equals(arg))  ntru743genbatch();
                 else if ("ntru743enc".equals(arg))  ntru743enc();
+                else if ("ntru743encprep".equals(arg))  ntru743encprep();
                 else if ("ntru743dec".equals(arg))  ntru743dec();
+                else if ("ntru743decprep".equals(arg))  ntru743decprep();
+                else if ("multdense".equals(arg))   multDense();
                 else
                     argInvalid = true;
                 
@@ -206,26 +224,56 @@ public class Benchmark {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 100, 200).keyGenBench();
     }
     
+    private static void ntru439genbatch() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 96, 192).batchKeyGenBench(16);
+    }
+    
     private static void ntru439enc() throws Exception {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 2000, 4000).encryptBench();
     }
     
+    private static void ntru439encprep() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 2000, 4000).preparedEncryptBench();
+    }
+    
     private static void ntru439dec() throws Exception {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 4000, 8000).decryptBench();
     }
     
+    private static void ntru439decprep() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_439_FAST, 4000, 8000).preparedDecryptBench();
+    }
+    
     private static void ntru743gen() throws Exception {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 40, 80).keyGenBench();
     }
     
+    private static void ntru743genbatch() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 32, 80).batchKeyGenBench(16);
+    }
+    
     private static void ntru743enc() throws Exception {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 750, 1500).encryptBench();
     }
     
+    private static void ntru743encprep() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 750, 1500).preparedEncryptBench();
+    }
+    
     private static void ntru743dec() throws Exception {
         new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 2000, 4000).decryptBench();
     }
     
+    private static void ntru743decprep() throws Exception {
+        new NtruEncryptBenchmark(EncryptionParameters.APR2011_743_FAST, 2000, 4000).preparedDecryptBench();
+    }
+    
+    private static void multDense() {
+        for (int q: new int[] {256, 2048})
+            for (int N: new int[] {439, 743, 1087})
+                new MultDenseBenchmark(N, q, 2000, 4000).multBench();
+    }
+    
     private static void printResults(String alg, long duration, int iterations) {
         DecimalFormat format = new DecimalFormat("0.00");
         System.out.println("-------------------------------------------------------------------------------");
@@ -509,6 +557,17 @@ public class Benchmark {
             printResults("NTRU-" + params.N + " key generation", t2-t1, benchIterations);
         }
         
+        private void batchKeyGenBench(int batchSize) {
+            System.out.println("Warming up NTRU...");
+            ntruBatchKeyGenIterations(warmupIterations, batchSize, ntru);
+            System.out.println("Finished warming up NTRU");
+            System.out.println("Benchmarking NTRU batch key generation...");
+            long t1 = System.nanoTime();
+            ntruBatchKeyGenIterations(benchIterations, batchSize, ntru);
+            long t2 = System.nanoTime();
+            printResults("NTRU-" + params.N + " key generation (batches of " + batchSize + ")", t2-t1, benchIterations);
+        }
+        
         private void encryptBench() {
             byte[] plainText = generatePlainText();
             EncryptionKeyPair kp = ntru.generateKeyPair();
@@ -522,6 +581,20 @@ public class Benchmark {
             printResults("NTRU-" + params.N + " encryption", t2-t1, benchIterations);
         }
         
+        private void preparedEncryptBench() {
+            byte[] plainText = generatePlainText();
+            EncryptionKeyPair kp = ntru.generateKeyPair();
+            PreparedEncryptionPublicKey pub = ntru.prepare(kp.getPublic());
+            System.out.println("Warming up NTRU...");
+            ntruPreparedEncryptIterations(warmupIterations, plainText, ntru, pub);
+            System.out.println("Finished warming up NTRU");
+            System.out.println("Benchmarking NTRU encryption with a prepared key...");
+            long t1 = System.nanoTime();
+            ntruPreparedEncryptIterations(benchIterations, plainText, ntru, pub);
+            long t2 = System.nanoTime();
+            printResults("NTRU-" + params.N + " encryption (prepared key)", t2-t1, benchIterations);
+        }
+        
         private void decryptBench() {
             byte[] plainText = generatePlainText();
             EncryptionKeyPair kp = ntru.generateKeyPair();
@@ -536,19 +609,98 @@ public class Benchmark {
             printResults("NTRU-" + params.N + " decryption", t2-t1, benchIterations);
         }
         
+        private void preparedDecryptBench() {
+            byte[] plainText = generatePlainText();
+            EncryptionKeyPair kp = ntru.generateKeyPair();
+            PreparedEncryptionKeyPair preparedKp = ntru.prepare(kp);
+            byte[] encryptedText = ntru.encrypt(plainText, kp.getPublic());
+            System.out.println("Warming up NTRU...");
+            ntruPreparedDecryptIterations(warmupIterations, encryptedText, ntru, preparedKp);
+            System.out.println("Finished warming up NTRU");
+            System.out.println("Benchmarking NTRU decryption with a prepared key pair...");
+            long t1 = System.nanoTime();
+            ntruPreparedDecryptIterations(benchIterations, encryptedText, ntru, preparedKp);
+            long t2 = System.nanoTime();
+            printResults("NTRU-" + params.N + " decryption (prepared key pair)", t2-t1, benchIterations);
+        }
+        
         private void ntruKeyGenIterations(int iterations, NtruEncrypt ntru) {
             for (int i=0; i<iterations; i++)
                 ntru.generateKeyPair();
         }
         
+        private void ntruBatchKeyGenIterations(int iterations, int batchSize, NtruEncrypt ntru) {
+            for (int i=0; i<iterations; i+=batchSize)
+                ntru.generateKeyPairs(Math.min(batchSize, iterations-i));
+        }
+        
         private void ntruEncryptIterations(int iterations, byte[] plainText, NtruEncrypt ntru, EncryptionPublicKey key) {
             for (int i=0; i<iterations; i++)
                 ntru.encrypt(plainText, key);
         }
         
+        private void ntruPreparedEncryptIterations(int iterations, byte[] plainText, NtruEncrypt ntru, PreparedEncryptionPublicKey key) {
+            for (int i=0; i<iterations; i++)
+                ntru.encrypt(plainText, key);
+        }
+        
         private void ntruDecryptIterations(int iterations, byte[] encryptedText, NtruEncrypt ntru, EncryptionKeyPair kp) {
             for (int i=0; i<iterations; i++)
                 ntru.decrypt(encryptedText, kp);
         }
+        
+        private void ntruPreparedDecryptIterations(int iterations, byte[] encryptedText, NtruEncrypt ntru, PreparedEncryptionKeyPair kp) {
+            for (int i=0; i<iterations; i++)
+                ntru.decrypt(encryptedText, kp);
+        }
+    }
+    
+    private static class MultDenseBenchmark {
+        private int N;
+        private int q;
+        private int warmupIterations;
+        private int benchIterations;
+        private IntegerPolynomial a;
+        private IntegerPolynomial b;
+        
+        private MultDenseBenchmark(int N, int q, int warmupIterations, int benchIterations) {
+            this.N = N;
+            this.q = q;
+            this.warmupIterations = warmupIterations;
+            this.benchIterations = benchIterations;
+            
+            Random rng = new SecureRandom();
+            a = new IntegerPolynomial(N);
+            b = new IntegerPolynomial(N);
+            for (int i=0; i<N; i++) {
+                a.coeffs[i] = rng.nextInt(q);
+                b.coeffs[i] = rng.nextInt(q);
+            }
+        }
+        
+        private void multBench() {
+            System.out.println("Warming up N=" + N + ", q=" + q + "...");
+            intMultIterations(warmupIterations);
+            packedMultIterations(warmupIterations);
+            System.out.println("Finished warming up");
+            long t1 = System.nanoTime();
+            intMultIterations(benchIterations);
+            long t2 = System.nanoTime();
+            printResults("N=" + N + " q=" + q + " int mult", t2-t1, benchIterations);
+            t1 = System.nanoTime();
+            packedMultIterations(benchIterations);
+            t2 = System.nanoTime();
+            printResults("N=" + N + " q=" + q + " packed mult", t2-t1, benchIterations);
+        }
+        
+        private void intMultIterations(int iterations) {
+            for (int i=0; i<iterations; i++)
+                a.mult(b).modPositive(q);
+        }
+        
+        private void packedMultIterations(int iterations) {
+            for (int i=0; i<iterations; i++)
+                a.mult(b, q);
+        }
     }
 }
\ No newline at end of file
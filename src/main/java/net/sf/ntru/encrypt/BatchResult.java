@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.encrypt;
+
+/**
+ * The outcome of a batch encryption or decryption.<br/>
+ * For every input message, holds either the output of the operation or the exception that caused it to fail.
+ * A failed message does not affect the other messages in the batch.
+ */
+public class BatchResult {
+    private byte[][] results;
+    private RuntimeException[] errors;
+    
+    BatchResult(int size) {
+        results = new byte[size][];
+        errors = new RuntimeException[size];
+    }
+    
+    void setResult(int index, byte[] result) {
+        results[index] = result;
+    }
+    
+    void setError(int index, RuntimeException error) {
+        errors[index] = error;
+    }
+    
+    /**
+     * Returns the number of messages in the batch.
+     * @return the batch size
+     */
+    public int size() {
+        return results.length;
+    }
+    
+    /**
+     * Tells whether the operation succeeded for a given message.
+     * @param index the index of the message in the batch
+     * @return <code>true</code> if a result is available, <code>false</code> if the operation failed
+     */
+    public boolean isSuccess(int index) {
+        return errors[index] == null;
+    }
+    
+    /**
+     * Returns the encrypted or decrypted message at a given index.
+     * @param index the index of the message in the batch
+     * @return the result, or <code>null</code> if the operation failed for this message
+     */
+    public byte[] getResult(int index) {
+        return results[index];
+    }
+    
+    /**
+     * Returns the reason the operation failed for a given message.<br/>
+     * This is usually an {@link net.sf.ntru.exception.NtruException}, but malformed or <code>null</code>
+     * inputs can cause other runtime exceptions.
+     * @param index the index of the message in the batch
+     * @return the exception, or <code>null</code> if the operation succeeded for this message
+     */
+    public RuntimeException getError(int index) {
+        return errors[index];
+    }
+    
+    /**
+     * Tells whether the operation succeeded for all messages in the batch.
+     * @return <code>true</code> if there are no errors
+     */
+    public boolean isAllSuccess() {
+        for (RuntimeException error: errors)
+            if (error != null)
+                return false;
+        return true;
+    }
+}
@@ -54,15 +54,23 @@ public class IndexGenerator {
      * @throws NtruException if the JRE doesn't implement the specified hash algorithm
      */
     IndexGenerator(byte[] seed, EncryptionParameters params) {
+        this(seed, params, getHashAlg(params));
+    }
+    
+    /**
+     * Constructs a new index generator that uses an existing <code>MessageDigest</code> instance.
+     * The digest must implement the hash algorithm specified in <code>params</code>, and
+     * must not be used by another thread while the index generator is in use.
+     * @param seed a seed of arbitrary length to initialize the index generator with
+     * @param params NtruEncrypt parameters
+     * @param hashAlg the hash algorithm
+     */
+    IndexGenerator(byte[] seed, EncryptionParameters params, MessageDigest hashAlg) {
         N = params.N;
         c = params.c;
         int minCallsR = params.minCallsR;
         
-        try {
-            hashAlg = MessageDigest.getInstance(params.hashAlg);
-        } catch (NoSuchAlgorithmException e) {
-            throw new NtruException(e);
-        }
+        this.hashAlg = hashAlg;
         hLen = hashAlg.getDigestLength();   // hash length
         
         Z = seed;
@@ -79,6 +87,14 @@ public class IndexGenerator {
         remLen = minCallsR * 8 * hLen;
     }
     
+    private static MessageDigest getHashAlg(EncryptionParameters params) {
+        try {
+            return MessageDigest.getInstance(params.hashAlg);
+        } catch (NoSuchAlgorithmException e) {
+            throw new NtruException(e);
+        }
+    }
+    
     /**
      * Returns a number <code>i</code> such that <code>0 &lt;= i &lt; N</code>.
      * @return the next pseudo-random index
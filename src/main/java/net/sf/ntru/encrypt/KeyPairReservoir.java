@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.encrypt;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ntru.exception.NtruException;
+import net.sf.ntru.util.ConcurrencyUtil;
+
+/**
+ * Keeps a bounded supply of pre-generated key pairs, so that callers who need a fresh
+ * key pair (for example an ephemeral key per session) don't have to wait for key generation.<br/>
+ * Whenever the number of available key pairs drops to the low-water mark, a background task
+ * generates new key pairs until the reservoir is full again. If the reservoir is empty when a
+ * key pair is requested, one is generated in the calling thread. Every key pair is handed out
+ * exactly once.<br/>
+ * This class is thread safe.
+ */
+public class KeyPairReservoir {
+    /** the maximum number of key pairs a refill task generates with one call to {@link NtruEncrypt#generateKeyPairs(int)} */
+    private static final int MAX_BATCH_SIZE = 8;
+    
+    private NtruEncrypt ntru;
+    private ExecutorService executor;
+    private BlockingQueue<EncryptionKeyPair> keyPairs;
+    private int lowWaterMark;
+    private AtomicBoolean refilling;
+    private volatile boolean shutdown;
+    
+    private AtomicLong hits;
+    private AtomicLong misses;
+    private AtomicLong numRefills;
+    private AtomicLong numFailedRefills;
+    private volatile RuntimeException lastRefillFailure;
+    private volatile long lastRefillLag;
+    private volatile long maxRefillLag;
+    
+    /**
+     * Creates a new reservoir that refills itself using the shared thread pool and
+     * starts filling it.
+     * @param ntru the <code>NtruEncrypt</code> instance to generate key pairs with; determines the parameter set
+     * @param capacity the maximum number of key pairs to keep
+     * @param lowWaterMark a refill is started when no more than this many key pairs are left
+     * @see ConcurrencyUtil#getSharedExecutor()
+     */
+    public KeyPairReservoir(NtruEncrypt ntru, int capacity, int lowWaterMark) {
+        this(ntru, capacity, lowWaterMark, ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Creates a new reservoir and starts filling it.
+     * @param ntru the <code>NtruEncrypt</code> instance to generate key pairs with; determines the parameter set
+     * @param capacity the maximum number of key pairs to keep
+     * @param lowWaterMark a refill is started when no more than this many key pairs are left
+     * @param executor the thread pool to run refill tasks on
+     * @throws NtruException if <code>capacity</code> is not positive, or <code>lowWaterMark</code>
+     *                       is negative or not less than <code>capacity</code>
+     */
+    public KeyPairReservoir(NtruEncrypt ntru, int capacity, int lowWaterMark, ExecutorService executor) {
+        if (capacity <= 0)
+            throw new NtruException("Capacity must be positive: " + capacity);
+        if (lowWaterMark<0 || lowWaterMark>=capacity)
+            throw new NtruException("Low-water mark must be between 0 and " + (capacity-1) + ": " + lowWaterMark);
+        this.ntru = ntru;
+        this.executor = executor;
+        this.lowWaterMark = lowWaterMark;
+        keyPairs = new ArrayBlockingQueue<EncryptionKeyPair>(capacity);
+        refilling = new AtomicBoolean();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        numRefills = new AtomicLong();
+        numFailedRefills = new AtomicLong();
+        startRefill();
+    }
+    
+    /**
+     * Removes a key pair from the reservoir, or generates one in the current thread if the
+     * reservoir is empty or has been shut down.
+     * @return a key pair that has not been returned before
+     */
+    public EncryptionKeyPair take() {
+        // after shutdown, a refill task may still be adding key pairs that are about to be discarded
+        EncryptionKeyPair kp = shutdown ? null : keyPairs.poll();
+        if (kp != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        if (keyPairs.size() <= lowWaterMark)
+            startRefill();
+        return kp!=null ? kp : ntru.generateKeyPair();
+    }
+    
+    /**
+     * Submits a refill task unless one is already running or the reservoir has been shut down.
+     * If the executor rejects the task, or the task fails, the failure is recorded and the next
+     * call to {@link #take()} tries again.
+     */
+    private void startRefill() {
+        if (shutdown || !refilling.compareAndSet(false, true))
+            return;
+        final long startTime = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean success = false;
+                    try {
+                        refill();
+                        success = true;
+                        if (!shutdown)
+                            recordRefillLag(System.nanoTime() - startTime);
+                    } catch (RuntimeException e) {
+                        recordRefillFailure(e);
+                    } finally {
+                        refilling.set(false);
+                    }
+                    // take() may have skipped startRefill() while this task was finishing
+                    if (success && keyPairs.size()<=lowWaterMark)
+                        startRefill();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refilling.set(false);
+            recordRefillFailure(e);
+        }
+    }
+    
+    /** Generates key pairs until the reservoir is full or has been shut down. */
+    private void refill() {
+        while (!shutdown) {
+            int count = Math.min(keyPairs.remainingCapacity(), MAX_BATCH_SIZE);
+            if (count <= 0)
+                break;
+            // only this task adds to the queue, so all key pairs in the batch fit
+            List<EncryptionKeyPair> batch = ntru.generateKeyPairs(count);
+            for (EncryptionKeyPair kp: batch)
+                if (!shutdown)
+                    keyPairs.offer(kp);
+        }
+        if (shutdown)
+            keyPairs.clear();
+    }
+    
+    private void recordRefillFailure(RuntimeException e) {
+        numFailedRefills.incrementAndGet();
+        lastRefillFailure = e;
+    }
+    
+    private synchronized void recordRefillLag(long lag) {
+        numRefills.incrementAndGet();
+        lastRefillLag = lag;
+        if (lag > maxRefillLag)
+            maxRefillLag = lag;
+    }
+    
+    /**
+     * Stops refilling the reservoir and discards the key pairs it contains. Subsequent calls
+     * to {@link #take()} generate a key pair in the calling thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        keyPairs.clear();
+    }
+    
+    /**
+     * Returns the number of key pairs that are currently available.
+     * @return the number of key pairs that {@link #take()} can return without generating one
+     */
+    public int size() {
+        return keyPairs.size();
+    }
+    
+    /** @return <code>true</code> if a refill task has been submitted and hasn't finished yet */
+    boolean isRefilling() {
+        return refilling.get();
+    }
+    
+    /**
+     * Returns the number of calls to {@link #take()} that were served from the reservoir.
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Returns the number of calls to {@link #take()} that found the reservoir empty and had to
+     * generate a key pair in the calling thread.
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Returns the number of refills that have completed, including the initial fill.
+     * @return the number of refills
+     */
+    public long getNumRefills() {
+        return numRefills.get();
+    }
+    
+    /**
+     * Returns the number of refills that could not be started because the executor rejected
+     * them, or that threw an exception.
+     * @return the number of failed refills
+     */
+    public long getNumFailedRefills() {
+        return numFailedRefills.get();
+    }
+    
+    /**
+     * Returns the exception the most recent failed refill was rejected with or threw.
+     * @return the exception, or <code>null</code> if no refill has failed
+     */
+    public RuntimeException getLastRefillFailure() {
+        return lastRefillFailure;
+    }
+    
+    /**
+     * Returns the time the most recent refill took, from the moment it was requested until the
+     * reservoir was full again.
+     * @return the refill lag in nanoseconds, or <code>0</code> if no refill has completed yet
+     */
+    public long getLastRefillLag() {
+        return lastRefillLag;
+    }
+    
+    /**
+     * Returns the longest time a refill has taken, from the moment it was requested until the
+     * reservoir was full again.
+     * @return the maximum refill lag in nanoseconds, or <code>0</code> if no refill has completed yet
+     */
+    public long getMaxRefillLag() {
+        return maxRefillLag;
+    }
+}
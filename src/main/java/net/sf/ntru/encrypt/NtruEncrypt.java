@@ -29,13 +29,17 @@ package net.sf.ntru.encrypt;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.sf.ntru.encrypt.EncryptionParameters.TernaryPolynomialType;
 import net.sf.ntru.exception.NtruException;
@@ -45,28 +49,115 @@ import net.sf.ntru.polynomial.Polynomial;
 import net.sf.ntru.polynomial.PolynomialGenerator;
 import net.sf.ntru.polynomial.ProductFormPolynomial;
 import net.sf.ntru.polynomial.SparseTernaryPolynomial;
+import net.sf.ntru.util.ConcurrencyUtil;
+import net.sf.ntru.util.KeyGenerationMonitor;
+import net.sf.ntru.util.RandomSource;
+import net.sf.ntru.util.ThreadLocalRandomSource;
 
 /**
  * Encrypts, decrypts data and generates key pairs.<br/>
  * The parameter p is hardcoded to 3.
  */
 public class NtruEncrypt {
+    /**
+     * The ways a key pair can be derived from a passphrase.
+     * @see NtruEncrypt#generateKeyPair(char[], byte[], PassphraseDerivation)
+     */
+    public enum PassphraseDerivation {
+        /**
+         * The derivation used by earlier versions. <code>f</code> and <code>g</code> are drawn from two
+         * streams, so at most two threads are used, and the multithreaded and single-threaded methods
+         * return different key pairs.
+         */
+        LEGACY,
+        /**
+         * <code>f</code> candidates and <code>g</code> are drawn from a tree of independent streams
+         * (see {@link PassphraseBasedPRNG#createBranch(int)}), so candidates can be tested by any number
+         * of threads. The key pair does not depend on the number of threads.
+         */
+        BRANCH_TREE
+    }
+    
     private EncryptionParameters params;
+    private ThreadLocal<MessageDigest> hashAlg;
+    private RandomSource randomSource;
     
     /**
-     * Constructs a new instance with a set of encryption parameters.
+     * Constructs a new instance with a set of encryption parameters.<br/>
+     * Random numbers are drawn from {@link ThreadLocalRandomSource#getDefault()}.
      * @param params encryption parameters
      */
     public NtruEncrypt(EncryptionParameters params) {
+        this(params, ThreadLocalRandomSource.getDefault());
+    }
+    
+    /**
+     * Constructs a new instance with a set of encryption parameters and a source of
+     * random numbers for key generation, encryption, and salt generation.
+     * @param params encryption parameters
+     * @param randomSource the source of random numbers
+     */
+    public NtruEncrypt(final EncryptionParameters params, RandomSource randomSource) {
         this.params = params;
+        this.randomSource = randomSource;
+        hashAlg = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(params.hashAlg);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new NtruException(e);
+                }
+            }
+        };
     }
     
     /**
-     * Generates a new encryption key pair using two threads if possible.
+     * Generates a new encryption key pair, using the shared thread pool if more than one
+     * processor is available.
      * @return a key pair
+     * @see #generateKeyPair(ExecutorService)
      */
     public EncryptionKeyPair generateKeyPair() {
-        return generateKeyPair(new SecureRandom(), true);
+        return generateKeyPair(ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Generates a new encryption key pair using a thread pool if more than one processor is available.<br/>
+     * The polynomial <code>g</code> is generated in a pool thread while the current thread
+     * searches for an <code>f</code> that is invertible mod <code>q</code>. With more than two
+     * processors, additional pool threads test <code>f</code> candidates speculatively, and the
+     * first invertible one is used. Use {@link #generateKeyPair(ExecutorService, int, KeyGenerationMonitor)}
+     * with <code>numThreads=2</code> to turn speculation off.
+     * @param executor the thread pool to use
+     * @return a key pair
+     */
+    public EncryptionKeyPair generateKeyPair(ExecutorService executor) {
+        return generateKeyPair(executor, new KeyGenerationMonitor());
+    }
+    
+    /**
+     * Generates a new encryption key pair like {@link #generateKeyPair()}, but gives up when the
+     * monitor's deadline passes, the monitor is cancelled, or the current thread is interrupted.
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public EncryptionKeyPair generateKeyPair(KeyGenerationMonitor monitor) {
+        return generateKeyPair(ConcurrencyUtil.getSharedExecutor(), monitor);
+    }
+    
+    /**
+     * Generates a new encryption key pair like {@link #generateKeyPair(ExecutorService)}, but gives up
+     * when the monitor's deadline passes, the monitor is cancelled, or the current thread is interrupted.
+     * Pool threads working on the key pair stop at their next attempt.
+     * @param executor the thread pool to use
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public EncryptionKeyPair generateKeyPair(ExecutorService executor, KeyGenerationMonitor monitor) {
+        return generateKeyPair(executor, ConcurrencyUtil.getNumThreads(), monitor);
     }
     
     /**
@@ -74,33 +165,93 @@ public class NtruEncrypt {
      * @return a key pair
      */
     public EncryptionKeyPair generateKeyPairSingleThread() {
-        return generateKeyPair(new SecureRandom(), false);
+        return generateKeyPairSingleThread(new KeyGenerationMonitor());
+    }
+    
+    /**
+     * Generates a new encryption key pair in a single thread, giving up when the monitor's deadline
+     * passes, the monitor is cancelled, or the current thread is interrupted.
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public EncryptionKeyPair generateKeyPairSingleThread(KeyGenerationMonitor monitor) {
+        return generateKeyPair(null, 1, monitor);
     }
     
     /**
      * Generates an encryption key pair from a passphrase using two threads if possible.<br/>
      * Invoking this method with the same passphrase and salt will always return the
-     * same key pair.
+     * same key pair. The key pair is derived with {@link PassphraseDerivation#LEGACY}, so
+     * it is the same as in earlier versions.
      * @param passphrase
      * @param salt salt for the passphrase; can be <code>null</code> but this is strongly discouraged
      * @return a key pair
+     * @see #generateKeyPair(char[], byte[], PassphraseDerivation)
      */
     public EncryptionKeyPair generateKeyPair(char[] passphrase, byte[] salt) {
+        return generateKeyPair(passphrase, salt, ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Generates an encryption key pair from a passphrase like {@link #generateKeyPair(char[], byte[])},
+     * generating <code>g</code> in a pool thread if more than one processor is available.
+     * @param passphrase
+     * @param salt salt for the passphrase; can be <code>null</code> but this is strongly discouraged
+     * @param executor the thread pool to use
+     * @return a key pair
+     */
+    public EncryptionKeyPair generateKeyPair(char[] passphrase, byte[] salt, ExecutorService executor) {
+        return generateKeyPair(passphrase, salt, PassphraseDerivation.LEGACY, executor);
+    }
+    
+    /**
+     * Generates an encryption key pair from a passphrase using a given derivation, and the shared
+     * thread pool if more than one processor is available.<br/>
+     * Invoking this method with the same passphrase, salt, and derivation will always return
+     * the same key pair.
+     * @param passphrase
+     * @param salt salt for the passphrase; can be <code>null</code> but this is strongly discouraged
+     * @param derivation how the key pair is derived from the passphrase
+     * @return a key pair
+     */
+    public EncryptionKeyPair generateKeyPair(char[] passphrase, byte[] salt, PassphraseDerivation derivation) {
+        return generateKeyPair(passphrase, salt, derivation, ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Generates an encryption key pair from a passphrase using a given derivation and thread pool.<br/>
+     * Invoking this method with the same passphrase, salt, and derivation will always return
+     * the same key pair. With {@link PassphraseDerivation#BRANCH_TREE}, <code>f</code> candidates
+     * are tested by up to one thread per processor.
+     * @param passphrase
+     * @param salt salt for the passphrase; can be <code>null</code> but this is strongly discouraged
+     * @param derivation how the key pair is derived from the passphrase
+     * @param executor the thread pool to use
+     * @return a key pair
+     */
+    public EncryptionKeyPair generateKeyPair(char[] passphrase, byte[] salt, PassphraseDerivation derivation, ExecutorService executor) {
         PassphraseBasedPRNG rng = new PassphraseBasedPRNG(passphrase, salt);
-        return generateKeyPair(rng, rng.createBranch(), true);
+        int numThreads = ConcurrencyUtil.getNumThreads();
+        if (derivation == PassphraseDerivation.BRANCH_TREE)
+            return generateKeyPair(rng, executor, numThreads, new KeyGenerationMonitor());
+        else
+            return generateKeyPair(rng, rng.createBranch(), executor, Math.min(numThreads, 2), new KeyGenerationMonitor());
     }
     
     /**
      * Generates an encryption key pair from a passphrase in a single thread.<br/>
      * Invoking this method with the same passphrase and salt will always return the
-     * same key pair.
+     * same key pair. The key pair is derived with {@link PassphraseDerivation#LEGACY} from a
+     * single stream, so it is the same as in earlier versions but differs from the one
+     * {@link #generateKeyPair(char[], byte[])} returns.
      * @param passphrase
      * @param salt salt for the passphrase; can be <code>null</code> but this is strongly discouraged
      * @return a key pair
      */
     public EncryptionKeyPair generateKeyPairSingleThread(char[] passphrase, byte[] salt) {
-        Random rng = new PassphraseBasedPRNG(passphrase, salt);
-        return generateKeyPair(rng, false);
+        PassphraseBasedPRNG rng = new PassphraseBasedPRNG(passphrase, salt);
+        return generateKeyPair(rng, rng, null, 1, new KeyGenerationMonitor());
     }
     
     /**
@@ -109,95 +260,404 @@ public class NtruEncrypt {
      */
     public byte[] generateSalt() {
         byte[] salt = new byte[16];
-        new SecureRandom().nextBytes(salt);
+        randomSource.getRandom().nextBytes(salt);
         return salt;
     }
     
-    private EncryptionKeyPair generateKeyPair(Random rng, boolean multiThread) {
-        return generateKeyPair(rng, rng, multiThread);
+    /**
+     * Generates a new encryption key pair using a given number of threads.<br/>
+     * With <code>numThreads=1</code>, everything happens in the current thread. With
+     * <code>numThreads=2</code>, <code>g</code> is generated in a pool thread and <code>f</code> in
+     * the current thread, which is how earlier versions worked; no <code>f</code> candidates are
+     * tested speculatively. Each thread beyond the second tests <code>f</code> candidates
+     * speculatively, and the first invertible one is used.<br/>
+     * The other <code>generateKeyPair</code> methods use one thread per processor regardless of
+     * the size of the pool, so this method is the way to turn speculation off or limit it.
+     * @param executor the thread pool to use; can be <code>null</code> if <code>numThreads=1</code>
+     * @param numThreads the number of threads to use, including the current thread
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if <code>numThreads</code> is less than 1, or key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public EncryptionKeyPair generateKeyPair(ExecutorService executor, int numThreads, final KeyGenerationMonitor monitor) {
+        if (numThreads < 1)
+            throw new NtruException("numThreads must be at least 1: " + numThreads);
+        int q = params.q;
+        
+        // Choose a random g that is invertible mod q. If another processor is available, do it in a pool thread.
+        FutureTask<IntegerPolynomial> gTask = new FutureTask<IntegerPolynomial>(new Callable<IntegerPolynomial>() {
+            @Override
+            public IntegerPolynomial call() {
+                return generateG(randomSource.getRandom(), monitor);
+            }
+        });
+        if (numThreads > 1)
+            executor.execute(gTask);
+        else
+            gTask.run();
+        
+        // choose a random f that is invertible mod 3 and q
+        FCandidate f;
+        if (numThreads > 2)
+            f = generateInvertibleF(executor, numThreads-2, monitor);
+        else {
+            Random rng = randomSource.getRandom();
+            do {
+                f = generateF(rng, monitor);
+                f.fq = f.f.invertFq(q);
+            } while (f.fq == null);
+        }
+        
+        return createKeyPair(f, f.fq, awaitG(gTask, monitor));
     }
     
     /**
-     * Generates a new encryption key pair.
-     * @param rngf the random number generator to use for generating the secret polynomial f
-     * @param rngg the random number generator to use for generating the secret polynomial g
-     * @param multiThread whether to use two threads; only has an effect if more than one virtual processor is available
+     * Generates an encryption key pair from one or two deterministic random number generators
+     * the way earlier versions did, i.e. <code>g</code> first and then <code>f</code> candidates
+     * until one is invertible mod <code>q</code>. Candidates earlier versions failed to invert mod 3 are skipped.
+     * @param rngf the random number generator to use for <code>f</code>
+     * @param rngg the random number generator to use for <code>g</code>; if it is the same as <code>rngf</code>, <code>numThreads</code> must be 1
+     * @param executor the thread pool to use; can be <code>null</code> if <code>numThreads=1</code>
+     * @param numThreads 2 to generate <code>g</code> in a pool thread, 1 to use the current thread only
+     * @param monitor checked before each attempt
      * @return a key pair
      */
-    private EncryptionKeyPair generateKeyPair(Random rngf, final Random rngg, boolean multiThread) {
-        int N = params.N;
+    private EncryptionKeyPair generateKeyPair(Random rngf, final Random rngg, ExecutorService executor, int numThreads, final KeyGenerationMonitor monitor) {
+        FutureTask<IntegerPolynomial> gTask = new FutureTask<IntegerPolynomial>(new Callable<IntegerPolynomial>() {
+            @Override
+            public IntegerPolynomial call() {
+                return generateG(rngg, monitor);
+            }
+        });
+        if (numThreads > 1)
+            executor.execute(gTask);
+        else
+            gTask.run();
+        
+        FCandidate f;
+        do {
+            f = generateF(rngf, true, monitor);
+            f.fq = f.f.invertFq(params.q);
+        } while (f.fq == null);
+        
+        return createKeyPair(f, f.fq, awaitG(gTask, monitor));
+    }
+    
+    /**
+     * Generates an encryption key pair deterministically from a passphrase-based random number generator.<br/>
+     * The <code>i</code>-th candidate for <code>f</code> is generated from branch <code>i</code> of branch 0 of
+     * <code>rng</code>, and <code>g</code> is generated from branch 1. The candidates are tested in parallel,
+     * and the invertible one with the lowest index is used, so the result doesn't depend on <code>numThreads</code>.
+     * @param rng a passphrase-based random number generator
+     * @param executor the thread pool to use; can be <code>null</code> if <code>numThreads=1</code>
+     * @param numThreads the number of threads to use, including the current thread
+     * @param monitor checked before each attempt
+     * @return a key pair
+     */
+    private EncryptionKeyPair generateKeyPair(PassphraseBasedPRNG rng, ExecutorService executor, int numThreads, final KeyGenerationMonitor monitor) {
+        final PassphraseBasedPRNG fRoot = rng.createBranch(0);
+        final PassphraseBasedPRNG gRoot = rng.createBranch(1);
+        
+        FutureTask<IntegerPolynomial> gTask = new FutureTask<IntegerPolynomial>(new Callable<IntegerPolynomial>() {
+            @Override
+            public IntegerPolynomial call() {
+                return generateG(new BranchRandom(gRoot), monitor);
+            }
+        });
+        if (numThreads > 1)
+            executor.execute(gTask);
+        else
+            gTask.run();
+        
+        IndexedSearch<FCandidate> fSearch = new IndexedSearch<FCandidate>() {
+            @Override
+            FCandidate tryCandidate(int index) {
+                FCandidate f = generateF(new BranchRandom(fRoot.createBranch(index)), monitor);
+                f.fq = f.f.invertFq(params.q);
+                return f.fq==null ? null : f;
+            }
+        };
+        FCandidate f = fSearch.run(executor, Math.max(1, numThreads-1));
+        
+        return createKeyPair(f, f.fq, awaitG(gTask, monitor));
+    }
+    
+    /**
+     * Returns the result of a task that generates <code>g</code>. If no pool thread has started
+     * the task yet, it is run in the current thread.
+     * @param gTask
+     * @param monitor is told about an interruption so the task stops
+     * @return <code>g</code>
+     */
+    private IntegerPolynomial awaitG(FutureTask<IntegerPolynomial> gTask, KeyGenerationMonitor monitor) {
+        gTask.run();
+        try {
+            return gTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            monitor.checkpoint();   // records the interruption and throws
+            throw new NtruException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+    
+    /**
+     * Returns the exception a task failed with as an <code>NtruException</code>.
+     * @param e
+     * @return the <code>NtruException</code> thrown by the task, or a new one that wraps the cause of <code>e</code>
+     */
+    private static NtruException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof NtruException)
+            return (NtruException)e.getCause();
+        else
+            return new NtruException(e.getCause());
+    }
+    
+    /**
+     * Searches for an <code>f</code> that is invertible mod 3 and mod <code>q</code> in the current
+     * thread and in <code>numHelpers</code> pool threads, and returns the first one found.<br/>
+     * Each thread draws random numbers from the <code>RandomSource</code>. The helpers stop after
+     * the candidate they are currently testing.
+     * @param executor the thread pool to use
+     * @param numHelpers the number of tasks to submit to <code>executor</code>
+     * @param monitor checked before each attempt
+     * @return an <code>f</code> whose inverse mod <code>q</code> is known
+     */
+    private FCandidate generateInvertibleF(ExecutorService executor, int numHelpers, final KeyGenerationMonitor monitor) {
+        final AtomicReference<FCandidate> result = new AtomicReference<FCandidate>();
+        Runnable search = new Runnable() {
+            @Override
+            public void run() {
+                Random rng = randomSource.getRandom();
+                while (result.get() == null) {
+                    FCandidate f = generateF(rng, monitor);
+                    f.fq = f.f.invertFq(params.q);
+                    if (f.fq != null)
+                        result.compareAndSet(null, f);
+                }
+            }
+        };
+        
+        List<Future<?>> helpers = new ArrayList<Future<?>>();
+        for (int i=0; i<numHelpers; i++)
+            helpers.add(executor.submit(search));
+        search.run();
+        
+        // helpers that haven't started yet don't need to run at all
+        for (Future<?> helper: helpers)
+            helper.cancel(false);
+        return result.get();
+    }
+    
+    /**
+     * Generates several encryption key pairs in the current thread.<br/>
+     * This is faster than calling {@link #generateKeyPair()} <code>count</code> times because the
+     * private polynomials are inverted modulo <code>q</code> together, using
+     * {@link IntegerPolynomial#invertFq(IntegerPolynomial[], int)}.
+     * @param count the number of key pairs to generate
+     * @return a list of <code>count</code> key pairs
+     */
+    public List<EncryptionKeyPair> generateKeyPairs(int count) {
         int q = params.q;
+        Random rng = randomSource.getRandom();
+        KeyGenerationMonitor monitor = new KeyGenerationMonitor();
+        
+        // choose random f's that are invertible mod 3 and invert them mod q as a batch
+        FCandidate[] f = new FCandidate[count];
+        IntegerPolynomial[] fInt = new IntegerPolynomial[count];
+        for (int i=0; i<count; i++) {
+            f[i] = generateF(rng, monitor);
+            fInt[i] = f[i].f;
+        }
+        IntegerPolynomial[] fq = IntegerPolynomial.invertFq(fInt, q);
+        
+        List<EncryptionKeyPair> keyPairs = new ArrayList<EncryptionKeyPair>(count);
+        for (int i=0; i<count; i++) {
+            // replace f's that are not invertible mod q
+            while (fq[i] == null) {
+                f[i] = generateF(rng, monitor);
+                fq[i] = f[i].f.invertFq(q);
+            }
+            keyPairs.add(createKeyPair(f[i], fq[i], generateG(rng, monitor)));
+        }
+        return keyPairs;
+    }
+    
+    /**
+     * Tests numbered candidates in parallel and finds the successful candidate with the lowest index.<br/>
+     * Indices are handed out in increasing order and every index below the best one found is tested,
+     * so the result only depends on {@link #tryCandidate(int)}, not on the number of threads or on timing.
+     */
+    private static abstract class IndexedSearch<T> {
+        private AtomicInteger nextIndex = new AtomicInteger();
+        private volatile int bestIndex = Integer.MAX_VALUE;
+        private T best;
+        
+        /**
+         * Tests one candidate. Must be a deterministic function of <code>index</code>.
+         * @param index the candidate number
+         * @return the candidate, or <code>null</code> if it is unsuitable
+         */
+        abstract T tryCandidate(int index);
+        
+        /**
+         * Runs the search in the current thread and <code>numThreads-1</code> pool threads.
+         * @param executor the thread pool to use; can be <code>null</code> if <code>numThreads=1</code>
+         * @param numThreads the number of threads to use, including the current thread
+         * @return the successful candidate with the lowest index
+         */
+        T run(ExecutorService executor, int numThreads) {
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        int index = nextIndex.getAndIncrement();
+                        if (index > bestIndex)
+                            break;
+                        T candidate = tryCandidate(index);
+                        if (candidate != null)
+                            found(index, candidate);
+                    }
+                }
+            };
+            
+            List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>();
+            for (int i=1; i<numThreads; i++) {
+                FutureTask<Void> task = new FutureTask<Void>(worker, null);
+                executor.execute(task);
+                workers.add(task);
+            }
+            worker.run();
+            
+            // wait for candidates with a lower index that are still being tested; workers that haven't started return immediately
+            for (FutureTask<Void> task: workers) {
+                task.run();
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NtruException(e);
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+            return best;
+        }
+        
+        private synchronized void found(int index, T candidate) {
+            if (index < bestIndex) {
+                bestIndex = index;
+                best = candidate;
+            }
+        }
+    }
+    
+    /**
+     * Draws random numbers from a branch of a {@link PassphraseBasedPRNG} that is confined to one thread,
+     * without locking. Because it is not a <code>PassphraseBasedPRNG</code> itself, polynomials are
+     * sampled with the current algorithm rather than the one earlier versions used.
+     */
+    private static class BranchRandom extends Random {
+        private static final long serialVersionUID = 5403711627931532283L;
+        
+        private PassphraseBasedPRNG branch;
+        
+        BranchRandom(PassphraseBasedPRNG branch) {
+            this.branch = branch;
+        }
+        
+        @Override
+        protected int next(int bits) {
+            byte[] bytes = new byte[4];
+            branch.nextBytesUnsynchronized(bytes);
+            int value = ((bytes[0]&0xFF)<<24) | ((bytes[1]&0xFF)<<16) | ((bytes[2]&0xFF)<<8) | (bytes[3]&0xFF);
+            return value >>> (32-bits);
+        }
+        
+        @Override
+        public void nextBytes(byte[] bytes) {
+            branch.nextBytesUnsynchronized(bytes);
+        }
+    }
+    
+    /**
+     * A candidate for the private polynomial <code>f</code> together with the polynomial <code>t</code> it is derived from, <code>fp</code>,
+     * and <code>fq</code> once it has been computed
+     */
+    private static class FCandidate {
+        Polynomial t;
+        IntegerPolynomial f;
+        IntegerPolynomial fp;
+        IntegerPolynomial fq;
+    }
+    
+    /**
+     * Generates a random <code>f</code> that is invertible mod 3 (but not necessarily mod <code>q</code>).
+     * @param rng the random number generator to use
+     * @param monitor checked before each attempt
+     * @return <code>f</code>, <code>t</code>, and the inverse of <code>f</code> mod 3
+     */
+    private FCandidate generateF(Random rng, KeyGenerationMonitor monitor) {
+        return generateF(rng, false, monitor);
+    }
+    
+    /**
+     * Generates a random <code>f</code> that is invertible mod 3 (but not necessarily mod <code>q</code>).
+     * @param rng the random number generator to use
+     * @param legacy whether to skip the same candidates as earlier versions; see {@link IntegerPolynomial#invertF3(boolean)}
+     * @param monitor checked before each attempt
+     * @return <code>f</code>, <code>t</code>, and the inverse of <code>f</code> mod 3
+     */
+    private FCandidate generateF(Random rng, boolean legacy, KeyGenerationMonitor monitor) {
+        int N = params.N;
         int df = params.df;
         int df1 = params.df1;
         int df2 = params.df2;
         int df3 = params.df3;
-        boolean fastFp = params.fastFp;
         boolean sparse = params.sparse;
         TernaryPolynomialType polyType = params.polyType;
         
-        Polynomial t;
-        IntegerPolynomial fq;
-        IntegerPolynomial fp = null;
-        
-        // Choose a random g that is invertible mod q. Start a new thread if multiThread=true and more than one processor is available.
-        Future<IntegerPolynomial> gResult = null;
-        IntegerPolynomial g = null;
-        if (multiThread && Runtime.getRuntime().availableProcessors()>1) {
-            Callable<IntegerPolynomial> gTask = new Callable<IntegerPolynomial>() {
-                @Override
-                public IntegerPolynomial call() {
-                    return generateG(rngg);
-                }
-            };
-            ExecutorService executor = Executors.newSingleThreadExecutor();
-            gResult = executor.submit(gTask);
-            executor.shutdown();
-        }
-        else
-            g = generateG(rngg);
-
-        // choose a random f that is invertible mod 3 and q
+        FCandidate f = new FCandidate();
         while (true) {
-            IntegerPolynomial f;
+            monitor.beginFAttempt();
             
             // choose random t, calculate f and fp
-            if (fastFp) {
-                // if fastFp=true, f is always invertible mod 3
-                t = polyType==TernaryPolynomialType.SIMPLE ?
-                        PolynomialGenerator.generateRandomTernary(N, df, df, sparse, rngf) :
-                        ProductFormPolynomial.generateRandom(N, df1, df2, df3, df3, rngf);
-                f = t.toIntegerPolynomial();
-                f.mult(3);
-                f.coeffs[0] += 1;
+            if (params.fastFp) {
+                // if fastFp=true, f is always invertible mod 3 and fp=1
+                f.t = polyType==TernaryPolynomialType.SIMPLE ?
+                        PolynomialGenerator.generateRandomTernary(N, df, df, sparse, rng) :
+                        ProductFormPolynomial.generateRandom(N, df1, df2, df3, df3, rng);
+                f.f = f.t.toIntegerPolynomial();
+                f.f.mult(3);
+                f.f.coeffs[0] += 1;
+                f.fp = new IntegerPolynomial(N);
+                f.fp.coeffs[0] = 1;
+                return f;
             }
             else {
-                t = polyType==TernaryPolynomialType.SIMPLE ?
-                        PolynomialGenerator.generateRandomTernary(N, df, df-1, sparse, rngf) :
-                        ProductFormPolynomial.generateRandom(N, df1, df2, df3, df3-1, rngf);
-                f = t.toIntegerPolynomial();
-                fp = f.invertF3();
-                if (fp == null)
-                    continue;
+                f.t = polyType==TernaryPolynomialType.SIMPLE ?
+                        PolynomialGenerator.generateRandomTernary(N, df, df-1, sparse, rng) :
+                        ProductFormPolynomial.generateRandom(N, df1, df2, df3, df3-1, rng);
+                f.f = f.t.toIntegerPolynomial();
+                f.fp = f.f.invertF3(legacy);
+                if (f.fp != null)
+                    return f;
             }
-            
-            fq = f.invertFq(q);
-            if (fq != null)
-                break;
         }
-        
-        // if fastFp=true, fp=1
-        if (fastFp) {
-            fp = new IntegerPolynomial(N);
-            fp.coeffs[0] = 1;
-        }
-        
-        // if g is being generated in a separate thread, wait for it to become available
-        if (g == null)
-            try {
-                g = gResult.get();
-            } catch (Exception e) {
-                throw new NtruException(e);
-            }
+    }
+    
+    /**
+     * Computes the public key from <code>f</code>, <code>g</code>, and the inverse of <code>f</code>.
+     * Clears <code>g</code> and <code>fq</code> when done.
+     * @param f the private polynomial
+     * @param fq the inverse of <code>f</code> mod <code>q</code>
+     * @param g a polynomial that is invertible mod <code>q</code>
+     * @return a key pair
+     */
+    private EncryptionKeyPair createKeyPair(FCandidate f, IntegerPolynomial fq, IntegerPolynomial g) {
+        int N = params.N;
+        int q = params.q;
         
         IntegerPolynomial h = g.mult(fq, q);
         h.mult3(q);
@@ -205,26 +665,39 @@ public class NtruEncrypt {
         g.clear();
         fq.clear();
         
-        EncryptionPrivateKey priv = new EncryptionPrivateKey(t, fp, N, q, sparse, fastFp, polyType);
+        EncryptionPrivateKey priv = new EncryptionPrivateKey(f.t, f.fp, N, q, params.sparse, params.fastFp, params.polyType);
         EncryptionPublicKey pub = new EncryptionPublicKey(h, N, q);
         return new EncryptionKeyPair(priv, pub);
     }
     
     /**
      * Generates the ephemeral secret polynomial <code>g</code>.
+     * @param rng the random number generator to use
+     * @param monitor checked before each attempt
      * @return
      */
-    private IntegerPolynomial generateG(Random rng) {
+    private IntegerPolynomial generateG(Random rng, KeyGenerationMonitor monitor) {
         final int N = params.N;
         int dg = params.dg;
         
         while (true) {
+            monitor.beginGAttempt();
             DenseTernaryPolynomial g = DenseTernaryPolynomial.generateRandom(N, dg, dg-1, rng);
             if (g.isInvertiblePow2())
                 return g;
         }
     }
     
+    /**
+     * Precomputes the data the encryption algorithm derives from a public key, so that
+     * it doesn't need to be recomputed for every message encrypted with that key.
+     * @param pubKey a public key
+     * @return a prepared public key for use with {@link #encrypt(byte[], PreparedEncryptionPublicKey)}
+     */
+    public PreparedEncryptionPublicKey prepare(EncryptionPublicKey pubKey) {
+        return new PreparedEncryptionPublicKey(pubKey, params);
+    }
+    
     /**
      * Encrypts a message.<br/>
      * See P1363.1 section 9.2.2.
@@ -232,9 +705,35 @@ public class NtruEncrypt {
      * @param pubKey the public key to encrypt the message with
      * @return the encrypted message
      * @throws NtruException if the JRE doesn't implement the specified hash algorithm, the message is longer than <code>maxLenBytes</code>, or <code>maxLenBytes</code> is greater than 255
+     * @see #encrypt(byte[], PreparedEncryptionPublicKey)
      */
     public byte[] encrypt(byte[] m, EncryptionPublicKey pubKey) {
-        IntegerPolynomial pub = pubKey.h;
+        // packing h only pays off if the key is used more than once
+        return encrypt(m, new PreparedEncryptionPublicKey(pubKey, params, false));
+    }
+    
+    /**
+     * Encrypts a message using a prepared public key. This is faster than
+     * {@link #encrypt(byte[], EncryptionPublicKey)} when many messages are encrypted
+     * with the same key.<br/>
+     * See P1363.1 section 9.2.2.
+     * @param m The message to encrypt
+     * @param pubKey the public key to encrypt the message with
+     * @return the encrypted message
+     * @throws NtruException if the JRE doesn't implement the specified hash algorithm, the message is longer than <code>maxLenBytes</code>, or <code>maxLenBytes</code> is greater than 255
+     */
+    public byte[] encrypt(byte[] m, PreparedEncryptionPublicKey pubKey) {
+        return encrypt(m, pubKey, randomSource.getRandom());
+    }
+    
+    /**
+     * Encrypts a message using a prepared public key and a given source of randomness.
+     * @param m The message to encrypt
+     * @param pubKey the public key to encrypt the message with
+     * @param rng the random number generator for the <code>b</code> bits; should be cryptographically secure
+     * @return the encrypted message
+     */
+    private byte[] encrypt(byte[] m, PreparedEncryptionPublicKey pubKey, Random rng) {
         int N = params.N;
         int q = params.q;
         int maxLenBytes = params.maxMsgLenBytes;
@@ -251,7 +750,6 @@ public class NtruEncrypt {
         if (l > maxLenBytes)
             throw new NtruException("Message too long: " + l + ">" + maxLenBytes);
         
-        SecureRandom rng = new SecureRandom();
         while (true) {
             // M = b|octL|m|p0
             byte[] b = new byte[db/8];
@@ -266,10 +764,10 @@ public class NtruEncrypt {
             
             IntegerPolynomial mTrin = IntegerPolynomial.fromBinary3Sves(M, N, maxM1>0);   // don't use the constant coeff if maxM1 is set; see below
             
-            byte[] sData = getSeed(m, pub, b);
+            byte[] sData = getSeed(m, pubKey.hTrunc, b);
             
             Polynomial r = generateBlindingPoly(sData);
-            IntegerPolynomial R = r.mult(pub, q);
+            IntegerPolynomial R = pubKey.multH(r);
             byte[] oR4 = R.toBinary4();
             IntegerPolynomial mask = MGF(oR4, N, minCallsMask, hashSeed);
             mTrin.add(mask);
@@ -302,14 +800,13 @@ public class NtruEncrypt {
     /**
      * Generates a seed for the Blinding Polynomial Generation Function.
      * @param m the plain-text message
-     * @param pub the public key
+     * @param hTrunc the first <code>pkLen</code> bits of the encoded public key
      * @param b <code>db</code> bits of random data
      * @return a byte array containing a seed value
      */
-    private byte[] getSeed(byte[] m, IntegerPolynomial pub, byte[] b) {
+    private byte[] getSeed(byte[] m, byte[] hTrunc, byte[] b) {
         byte[] oid = params.oid;
         
-        byte[] hTrunc = pub.toBinaryTrunc(params.q, params.pkLen/8);
         // sData = OID|m|b|hTrunc
         byte[] sData = new byte[oid.length + m.length + b.length + hTrunc.length];
         System.arraycopy(oid, 0, sData, 0, oid.length);
@@ -329,7 +826,7 @@ public class NtruEncrypt {
      */
     private Polynomial generateBlindingPoly(byte[] seed) {
         int N = params.N;
-        IndexGenerator ig = new IndexGenerator(seed, params);
+        IndexGenerator ig = new IndexGenerator(seed, params, hashAlg.get());
         
         if (params.polyType == TernaryPolynomialType.PRODUCT) {
             SparseTernaryPolynomial r1 = SparseTernaryPolynomial.generateBlindingPoly(ig, N, params.dr1);
@@ -354,13 +851,7 @@ public class NtruEncrypt {
      * @throws NtruException if the JRE doesn't implement the specified hash algorithm
      */
     private IntegerPolynomial MGF(byte[] seed, int N, int minCallsMask, boolean hashSeed) {
-        MessageDigest hashAlg;
-        try {
-            hashAlg = MessageDigest.getInstance(params.hashAlg);
-        } catch (NoSuchAlgorithmException e) {
-            throw new NtruException(e);
-        }
-        
+        MessageDigest hashAlg = this.hashAlg.get();
         int hashLen = hashAlg.getDigestLength();
         ByteBuffer buf = ByteBuffer.allocate(minCallsMask*hashLen);
         byte[] Z = hashSeed ? hashAlg.digest(seed) : seed;
@@ -410,6 +901,16 @@ public class NtruEncrypt {
         }
     }
 
+    /**
+     * Precomputes the data the decryption algorithm derives from a key pair, so that
+     * it doesn't need to be recomputed for every message decrypted with that key pair.
+     * @param kp a key pair
+     * @return a prepared key pair for use with {@link #decrypt(byte[], PreparedEncryptionKeyPair)}
+     */
+    public PreparedEncryptionKeyPair prepare(EncryptionKeyPair kp) {
+        return new PreparedEncryptionKeyPair(kp, params);
+    }
+    
     /**
      * Decrypts a message.<br/>
      * See P1363.1 section 9.2.3.
@@ -417,11 +918,23 @@ public class NtruEncrypt {
      * @param kp a key pair that contains the public key the message was encrypted with, and the corresponding private key
      * @return the decrypted message
      * @throws NtruException if the JRE doesn't implement the specified hash algorithm, the encrypted data is invalid, or <code>maxLenBytes</code> is greater than 255
+     * @see #decrypt(byte[], PreparedEncryptionKeyPair)
      */
     public byte[] decrypt(byte[] data, EncryptionKeyPair kp) {
-        Polynomial priv_t = kp.priv.t;
-        IntegerPolynomial priv_fp = kp.priv.fp;
-        IntegerPolynomial pub = kp.pub.h;
+        return decrypt(data, new PreparedEncryptionKeyPair(kp, params, false));
+    }
+    
+    /**
+     * Decrypts a message using a prepared key pair. This is faster than
+     * {@link #decrypt(byte[], EncryptionKeyPair)} when many messages are decrypted
+     * with the same key pair.<br/>
+     * See P1363.1 section 9.2.3.
+     * @param data The message to decrypt
+     * @param kp a key pair that contains the public key the message was encrypted with, and the corresponding private key
+     * @return the decrypted message
+     * @throws NtruException if the JRE doesn't implement the specified hash algorithm, the encrypted data is invalid, or <code>maxLenBytes</code> is greater than 255
+     */
+    public byte[] decrypt(byte[] data, PreparedEncryptionKeyPair kp) {
         int N = params.N;
         int q = params.q;
         int db = params.db;
@@ -437,7 +950,7 @@ public class NtruEncrypt {
         int bLen = db / 8;
         
         IntegerPolynomial e = IntegerPolynomial.fromBinary(data, N, q);
-        IntegerPolynomial ci = decrypt(e, priv_t, priv_fp);
+        IntegerPolynomial ci = decrypt(e, kp);
         
         if (ci.count(-1) < dm0)
             throw new NtruException("Less than dm0 coefficients equal -1");
@@ -469,39 +982,201 @@ public class NtruEncrypt {
         if (!Arrays.equals(p0, new byte[p0.length]))
             throw new NtruException("The message is not followed by zeroes");
         
-        byte[] sData = getSeed(cm, pub, cb);
+        byte[] sData = getSeed(cm, kp.pub.hTrunc, cb);
         
         Polynomial cr = generateBlindingPoly(sData);
-        IntegerPolynomial cRPrime = cr.mult(pub);
-        cRPrime.modPositive(q);
+        IntegerPolynomial cRPrime = kp.pub.multH(cr);
         if (!cRPrime.equals(cR))
             throw new NtruException("Invalid message encoding");
        
         return cm;
     }
     
+    /**
+     * Encrypts a list of messages in parallel, using the shared thread pool.
+     * @param msgs the messages to encrypt
+     * @param pubKey the public key to encrypt the messages with
+     * @return the encrypted messages, or the reason encryption failed, for each input message
+     * @see #encryptBatch(List, PreparedEncryptionPublicKey, ExecutorService)
+     */
+    public BatchResult encryptBatch(List<byte[]> msgs, EncryptionPublicKey pubKey) {
+        return encryptBatch(msgs, prepare(pubKey), ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Encrypts an array of messages in parallel, using the shared thread pool.
+     * @param msgs the messages to encrypt
+     * @param pubKey the public key to encrypt the messages with
+     * @return the encrypted messages, or the reason encryption failed, for each input message
+     * @see #encryptBatch(List, PreparedEncryptionPublicKey, ExecutorService)
+     */
+    public BatchResult encryptBatch(byte[][] msgs, EncryptionPublicKey pubKey) {
+        return encryptBatch(Arrays.asList(msgs), pubKey);
+    }
+    
+    /**
+     * Encrypts the remaining bytes of each buffer in parallel, using the shared thread pool.
+     * The positions of the buffers are not modified.
+     * @param msgs the messages to encrypt
+     * @param pubKey the public key to encrypt the messages with
+     * @return the encrypted messages, or the reason encryption failed, for each input message
+     * @see #encryptBatch(List, PreparedEncryptionPublicKey, ExecutorService)
+     */
+    public BatchResult encryptBatch(ByteBuffer[] msgs, EncryptionPublicKey pubKey) {
+        return encryptBatch(toByteArrays(msgs), pubKey);
+    }
+    
+    /**
+     * Encrypts a list of messages in parallel.<br/>
+     * The list is split into one contiguous range of messages per processor. One range is
+     * processed in the current thread, the others are submitted to <code>executor</code>;
+     * ranges the pool hasn't started when the current thread is done are processed in the
+     * current thread, too.
+     * If encryption fails for a message, the exception is recorded in the result and
+     * the remaining messages are still encrypted.
+     * @param msgs the messages to encrypt
+     * @param pubKey the public key to encrypt the messages with
+     * @param executor the thread pool to use
+     * @return the encrypted messages, or the reason encryption failed, for each input message
+     * @throws NtruException if the current thread was interrupted
+     */
+    public BatchResult encryptBatch(List<byte[]> msgs, PreparedEncryptionPublicKey pubKey, ExecutorService executor) {
+        return processBatch(msgs, pubKey, null, executor);
+    }
+    
+    /**
+     * Decrypts a list of messages in parallel, using the shared thread pool.
+     * @param data the messages to decrypt
+     * @param kp a key pair that contains the public key the messages were encrypted with, and the corresponding private key
+     * @return the decrypted messages, or the reason decryption failed, for each input message
+     * @see #decryptBatch(List, PreparedEncryptionKeyPair, ExecutorService)
+     */
+    public BatchResult decryptBatch(List<byte[]> data, EncryptionKeyPair kp) {
+        return decryptBatch(data, prepare(kp), ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Decrypts an array of messages in parallel, using the shared thread pool.
+     * @param data the messages to decrypt
+     * @param kp a key pair that contains the public key the messages were encrypted with, and the corresponding private key
+     * @return the decrypted messages, or the reason decryption failed, for each input message
+     * @see #decryptBatch(List, PreparedEncryptionKeyPair, ExecutorService)
+     */
+    public BatchResult decryptBatch(byte[][] data, EncryptionKeyPair kp) {
+        return decryptBatch(Arrays.asList(data), kp);
+    }
+    
+    /**
+     * Decrypts the remaining bytes of each buffer in parallel, using the shared thread pool.
+     * The positions of the buffers are not modified.
+     * @param data the messages to decrypt
+     * @param kp a key pair that contains the public key the messages were encrypted with, and the corresponding private key
+     * @return the decrypted messages, or the reason decryption failed, for each input message
+     * @see #decryptBatch(List, PreparedEncryptionKeyPair, ExecutorService)
+     */
+    public BatchResult decryptBatch(ByteBuffer[] data, EncryptionKeyPair kp) {
+        return decryptBatch(toByteArrays(data), kp);
+    }
+    
+    /**
+     * Decrypts a list of messages in parallel.<br/>
+     * The list is split into one contiguous range of messages per processor. One range is
+     * processed in the current thread, the others are submitted to <code>executor</code>;
+     * ranges the pool hasn't started when the current thread is done are processed in the
+     * current thread, too.
+     * If decryption fails for a message, the exception is recorded in the result and
+     * the remaining messages are still decrypted.
+     * @param data the messages to decrypt
+     * @param kp a key pair that contains the public key the messages were encrypted with, and the corresponding private key
+     * @param executor the thread pool to use
+     * @return the decrypted messages, or the reason decryption failed, for each input message
+     * @throws NtruException if the current thread was interrupted
+     */
+    public BatchResult decryptBatch(List<byte[]> data, PreparedEncryptionKeyPair kp, ExecutorService executor) {
+        return processBatch(data, null, kp, executor);
+    }
+    
+    /**
+     * Encrypts or decrypts a batch of messages.
+     * @param inputs the messages to encrypt or decrypt
+     * @param pubKey the key to encrypt with, or <code>null</code> to decrypt
+     * @param kp the key pair to decrypt with, or <code>null</code> to encrypt
+     * @param executor the thread pool to use
+     * @return the outcome for each message
+     */
+    private BatchResult processBatch(final List<byte[]> inputs, final PreparedEncryptionPublicKey pubKey, final PreparedEncryptionKeyPair kp, ExecutorService executor) {
+        int size = inputs.size();
+        final BatchResult result = new BatchResult(size);
+        int numChunks = Math.min(ConcurrencyUtil.getNumThreads(), size);
+        
+        List<Callable<Void>> chunks = new ArrayList<Callable<Void>>(numChunks);
+        for (int i=0; i<numChunks; i++) {
+            final int start = (int)((long)size * i / numChunks);
+            final int end = (int)((long)size * (i+1) / numChunks);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    // one random number generator per chunk rather than per message
+                    Random rng = pubKey==null ? null : randomSource.getRandom();
+                    for (int j=start; j<end; j++)
+                        try {
+                            byte[] input = inputs.get(j);
+                            byte[] output = pubKey==null ? decrypt(input, kp) : encrypt(input, pubKey, rng);
+                            result.setResult(j, output);
+                        } catch (RuntimeException e) {
+                            // malformed or null inputs can fail with exceptions other than NtruException
+                            result.setError(j, e);
+                        }
+                    return null;
+                }
+            });
+        }
+        
+        // the current thread runs the first chunk and any chunk the pool hasn't started
+        ConcurrencyUtil.invokeAll(executor, chunks);
+        
+        return result;
+    }
+    
+    /**
+     * Copies the remaining bytes of each buffer into a new array without changing the buffer positions.
+     * A <code>null</code> buffer becomes a <code>null</code> array, so it is reported as a failure for
+     * that message like any other <code>null</code> input rather than failing the whole batch.
+     * @param buffers
+     * @return
+     */
+    private List<byte[]> toByteArrays(ByteBuffer[] buffers) {
+        List<byte[]> arrays = new ArrayList<byte[]>(buffers.length);
+        for (ByteBuffer buf: buffers) {
+            if (buf == null) {
+                arrays.add(null);
+                continue;
+            }
+            byte[] arr = new byte[buf.remaining()];
+            buf.duplicate().get(arr);
+            arrays.add(arr);
+        }
+        return arrays;
+    }
+    
     /**
      * 
      * @param e
-     * @param priv_t a polynomial such that if <code>fastFp=true</code>, <code>f=1+3*priv_t</code>; otherwise, <code>f=priv_t</code>
-     * @param priv_fp
+     * @param kp a prepared key pair; if <code>fastFp=true</code>, <code>f=1+3*t</code>; otherwise, <code>f=t</code>
      * @return
      */
-    IntegerPolynomial decrypt(IntegerPolynomial e, Polynomial priv_t, IntegerPolynomial priv_fp) {
+    IntegerPolynomial decrypt(IntegerPolynomial e, PreparedEncryptionKeyPair kp) {
         int q = params.q;
         
-        IntegerPolynomial a;
+        IntegerPolynomial a = kp.multT(e);
         if (params.fastFp) {
-            a = priv_t.mult(e, q);
             a.mult(3);
             a.add(e);
         }
-        else
-            a = priv_t.mult(e, q);
         a.center0(q);
         a.mod3();
         
-        IntegerPolynomial c = params.fastFp ? a : new DenseTernaryPolynomial(a).mult(priv_fp, 3);
+        IntegerPolynomial c = params.fastFp ? a : new DenseTernaryPolynomial(a).mult(kp.fp, 3);
         c.center0(3);
         return c;
     }
@@ -94,6 +94,32 @@ public class PassphraseBasedPRNG extends Random {
         return newRng;
     }
     
+    /**
+     * Creates a new <code>PassphraseBasedPRNG</code> whose output is a function of this
+     * <code>PassphraseBasedPRNG</code>'s internal state and a branch number. Branches with
+     * different numbers produce independent output, and branches can be branched again,
+     * which yields a tree of independent streams.<br/>
+     * Unlike {@link #createBranch()}, this method only reads the internal state, so several
+     * threads can create branches of the same <code>PassphraseBasedPRNG</code> concurrently
+     * as long as no thread draws random numbers from it.
+     * @param index the branch number
+     * @return a new PassphraseBasedPRNG
+     * @throws NtruException if the JRE doesn't implement SHA-512
+     */
+    public PassphraseBasedPRNG createBranch(int index) {
+        PassphraseBasedPRNG newRng = new PassphraseBasedPRNG();
+        try {
+            newRng.hash = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new NtruException(e);
+        }
+        // the extra bytes keep branches distinct from data=hash(data), which is how the output stream is extended
+        newRng.hash.update(data);
+        newRng.hash.update(new byte[] {'b', (byte)(index>>>24), (byte)(index>>>16), (byte)(index>>>8), (byte)index});
+        newRng.data = newRng.hash.digest();
+        return newRng;
+    }
+    
     @Override
     public synchronized int next(int bits) {
         int value = 0;
@@ -108,4 +134,25 @@ public class PassphraseBasedPRNG extends Random {
         value = value << (32-bits) >>> (32-bits);
         return value;
     }
+    
+    /**
+     * Fills an array with the next bytes of the output stream without acquiring this object's lock.<br/>
+     * The bytes are returned in stream order, which differs from the order {@link #nextBytes(byte[])}
+     * returns them in. This method is intended for branches created by {@link #createBranch(int)} that
+     * are only used by a single thread; it must not be called concurrently with any other method.
+     * @param bytes the array to fill
+     */
+    public void nextBytesUnsynchronized(byte[] bytes) {
+        int i = 0;
+        while (i < bytes.length) {
+            if (pos >= data.length) {
+                data = hash.digest(data);
+                pos = 0;
+            }
+            int len = Math.min(bytes.length-i, data.length-pos);
+            System.arraycopy(data, pos, bytes, i, len);
+            pos += len;
+            i += len;
+        }
+    }
 }
\ No newline at end of file
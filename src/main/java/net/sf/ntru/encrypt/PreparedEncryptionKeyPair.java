@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.encrypt;
+
+import net.sf.ntru.polynomial.DenseTernaryPolynomial;
+import net.sf.ntru.polynomial.IntegerPolynomial;
+import net.sf.ntru.polynomial.Polynomial;
+import net.sf.ntru.polynomial.SparseTernaryPolynomial;
+
+/**
+ * An encryption key pair plus everything the decryption algorithm derives from it
+ * that does not depend on the encrypted message.<br/>
+ * The private polynomial <code>t</code> is converted to sparse (index) form if it is
+ * a dense ternary polynomial, and the public key is prepared as in {@link PreparedEncryptionPublicKey}.
+ * Instances are created via {@link NtruEncrypt#prepare(EncryptionKeyPair)}.
+ * They are immutable and can be shared between threads.
+ */
+public class PreparedEncryptionKeyPair {
+    EncryptionKeyPair kp;
+    PreparedEncryptionPublicKey pub;
+    Polynomial t;
+    IntegerPolynomial fp;
+    private int q;
+    
+    PreparedEncryptionKeyPair(EncryptionKeyPair kp, EncryptionParameters params) {
+        this(kp, params, true);
+    }
+    
+    /**
+     * Constructs a new <code>PreparedEncryptionKeyPair</code>.
+     * @param kp the key pair
+     * @param params the parameters the key pair will be used with
+     * @param pack whether to pack the public key; should be <code>false</code> if the key pair is only used once
+     */
+    PreparedEncryptionKeyPair(EncryptionKeyPair kp, EncryptionParameters params, boolean pack) {
+        this.kp = kp;
+        pub = new PreparedEncryptionPublicKey(kp.pub, params, pack);
+        q = params.q;
+        
+        t = kp.priv.t;
+        if (t instanceof DenseTernaryPolynomial)
+            t = new SparseTernaryPolynomial((DenseTernaryPolynomial)t);
+        fp = kp.priv.fp;
+    }
+    
+    /**
+     * Returns the key pair this object was created from.
+     * @return the key pair
+     */
+    public EncryptionKeyPair getKeyPair() {
+        return kp;
+    }
+    
+    /**
+     * Multiplies a polynomial by <code>t</code> and reduces the result modulo <code>q</code>.
+     * @param e a polynomial
+     * @return <code>t*e mod q</code>
+     */
+    IntegerPolynomial multT(IntegerPolynomial e) {
+        return t.mult(e, q);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.encrypt;
+
+import net.sf.ntru.polynomial.IntegerPolynomial;
+import net.sf.ntru.polynomial.PackedPolynomial;
+import net.sf.ntru.polynomial.Polynomial;
+
+/**
+ * A public key plus everything the encryption algorithm derives from it that does not
+ * depend on the message, i.e. the truncated key used in the blinding polynomial seed and
+ * <code>h</code> in the packed format used for multiplying by the blinding polynomial
+ * (see {@link PackedPolynomial}).<br/>
+ * Instances are created via {@link NtruEncrypt#prepare(EncryptionPublicKey)}. They are
+ * immutable and can be shared between threads.
+ */
+public class PreparedEncryptionPublicKey {
+    EncryptionPublicKey pub;
+    byte[] hTrunc;   // the first pkLen bits of the encoded key
+    private PackedPolynomial hPacked;   // null if h is not packed
+    private int q;
+    
+    /**
+     * Constructs a new <code>PreparedEncryptionPublicKey</code> that packs <code>h</code>.
+     * @param pub the public key
+     * @param params the parameters the key will be used with
+     */
+    PreparedEncryptionPublicKey(EncryptionPublicKey pub, EncryptionParameters params) {
+        this(pub, params, true);
+    }
+    
+    /**
+     * Constructs a new <code>PreparedEncryptionPublicKey</code>.
+     * @param pub the public key
+     * @param params the parameters the key will be used with
+     * @param pack whether to pack <code>h</code>; should be <code>false</code> if the key is only used once
+     */
+    PreparedEncryptionPublicKey(EncryptionPublicKey pub, EncryptionParameters params, boolean pack) {
+        this.pub = pub;
+        q = params.q;
+        hTrunc = pub.h.toBinaryTrunc(q, params.pkLen/8);
+        if (pack)
+            hPacked = new PackedPolynomial(pub.h, q);
+    }
+    
+    /**
+     * Returns the public key this object was created from.
+     * @return the public key
+     */
+    public EncryptionPublicKey getPublic() {
+        return pub;
+    }
+    
+    /**
+     * Multiplies a polynomial by <code>h</code>, taking the indices mod <code>N</code> and the values
+     * mod <code>q</code>.
+     * @param r a polynomial
+     * @return <code>r*h</code> with all coefficients between <code>0</code> and <code>q-1</code>
+     */
+    IntegerPolynomial multH(Polynomial r) {
+        if (hPacked != null)
+            return hPacked.mult(r);
+        IntegerPolynomial R = r.mult(pub.h, q);
+        R.modPositive(q);
+        return R;
+    }
+}
@@ -34,6 +34,7 @@ import java.util.Random;
 
 import net.sf.ntru.encrypt.IndexGenerator;
 import net.sf.ntru.encrypt.NtruEncrypt;
+import net.sf.ntru.encrypt.PassphraseBasedPRNG;
 
 /**
  * A <code>TernaryPolynomial</code> with a "high" number of nonzero coefficients.<br/>
@@ -61,13 +62,29 @@ public class DenseTernaryPolynomial extends IntegerPolynomial implements Ternary
     
     /**
      * Generates a random polynomial with <code>numOnes</code> coefficients equal to 1,
-     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.
+     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.<br/>
+     * If <code>rng</code> is a {@link PassphraseBasedPRNG}, the coefficients are shuffled with
+     * <code>Collections.shuffle</code> like in earlier versions, which keeps passphrase-derived keys stable.
      * @param N number of coefficients
      * @param numOnes number of 1's
      * @param numNegOnes number of -1's
      * @param rng the random number generator to use
      */
     public static DenseTernaryPolynomial generateRandom(int N, int numOnes, int numNegOnes, Random rng) {
+        if (rng instanceof PassphraseBasedPRNG)
+            return generateRandomLegacy(N, numOnes, numNegOnes, rng);
+        return generateRandom(N, numOnes, numNegOnes, new RandomSampler(rng, numOnes+numNegOnes));
+    }
+    
+    /**
+     * Generates a random polynomial by shuffling a list of coefficients. This is the algorithm
+     * earlier versions used for all random number generators.
+     * @param N number of coefficients
+     * @param numOnes number of 1's
+     * @param numNegOnes number of -1's
+     * @param rng the random number generator to use
+     */
+    private static DenseTernaryPolynomial generateRandomLegacy(int N, int numOnes, int numNegOnes, Random rng) {
         List<Integer> list = new ArrayList<Integer>();
         for (int i=0; i<numOnes; i++)
             list.add(1);
@@ -83,6 +100,24 @@ public class DenseTernaryPolynomial extends IntegerPolynomial implements Ternary
         return new DenseTernaryPolynomial(arr);
     }
     
+    /**
+     * Generates a random polynomial with <code>numOnes</code> coefficients equal to 1,
+     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.
+     * @param N number of coefficients
+     * @param numOnes number of 1's
+     * @param numNegOnes number of -1's
+     * @param sampler the source of random indices
+     */
+    static DenseTernaryPolynomial generateRandom(int N, int numOnes, int numNegOnes, RandomSampler sampler) {
+        int[] indices = sampler.sample(N, numOnes+numNegOnes);
+        int[] arr = new int[N];
+        for (int i=0; i<numOnes; i++)
+            arr[indices[i]] = 1;
+        for (int i=numOnes; i<numOnes+numNegOnes; i++)
+            arr[indices[i]] = -1;
+        return new DenseTernaryPolynomial(arr);
+    }
+    
     /**
      * Generates a blinding polynomial using an {@link IndexGenerator}.
      * @param ig an Index Generator
@@ -121,10 +156,10 @@ public class DenseTernaryPolynomial extends IntegerPolynomial implements Ternary
     @Override
     public IntegerPolynomial mult(IntegerPolynomial poly2, int modulus) {
         // even on 32-bit systems, LongPolynomial5 multiplies faster than IntegerPolynomial
-        if (modulus == 2048) {
+        if (LongPolynomial5.isSupported(modulus)) {
             IntegerPolynomial poly2Pos = poly2.clone();
-            poly2Pos.modPositive(2048);
-            LongPolynomial5 poly5 = new LongPolynomial5(poly2Pos);
+            poly2Pos.modPositive(modulus);
+            LongPolynomial5 poly5 = new LongPolynomial5(poly2Pos, modulus);
             return poly5.mult(this).toIntegerPolynomial();
         }
         else
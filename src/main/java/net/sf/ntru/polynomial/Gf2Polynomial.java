@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+/**
+ * A polynomial with coefficients modulo 2 that stores 64 coefficients in one <code>long</code>.<br/>
+ * Used for computing inverses modulo 2, which is done at least once for every key that is generated.
+ */
+class Gf2Polynomial {
+    private long[] words;   // coefficient i is bit i%64 of words[i/64]
+    private int degree;   // -1 for the zero polynomial
+    
+    /**
+     * Constructs a zero polynomial.
+     * @param numBits the maximum number of coefficients
+     */
+    private Gf2Polynomial(int numBits) {
+        words = new long[(numBits+63) >>> 6];
+        degree = -1;
+    }
+    
+    /**
+     * Tells whether a polynomial evaluates to zero modulo 2 at <code>x=1</code>, i.e. whether it is divisible by <code>x-1</code>.<br/>
+     * Such a polynomial has no inverse mod 2 in <code>Z[X]/(X^N-1)</code> because <code>X^N-1</code> is also divisible by <code>x-1</code>.
+     * @param coeffs the coefficients of a polynomial
+     * @return <code>true</code> if the sum of all coefficients is even
+     */
+    static boolean isZeroAtOne(int[] coeffs) {
+        int sum = 0;
+        for (int c: coeffs)
+            sum ^= c;
+        return (sum&1) == 0;
+    }
+    
+    /**
+     * Computes the inverse mod 2 in <code>Z[X]/(X^N-1)</code>.
+     * Returns <code>null</code> if the polynomial is not invertible.<br/>
+     * The algorithm is described in <a href="http://www.securityinnovation.com/uploads/Crypto/NTRUTech014.pdf">
+     * Almost Inverses and Fast NTRU Key Generation</a>.
+     * @param coeffs the <code>N</code> coefficients of a polynomial; only the least significant bit of each is used
+     * @return a new polynomial with coefficients 0 and 1, or <code>null</code> if no inverse exists
+     */
+    static IntegerPolynomial invert(int[] coeffs) {
+        if (isZeroAtOne(coeffs))
+            return null;
+        
+        int N = coeffs.length;
+        int numBits = N + 1;
+        int k = 0;
+        Gf2Polynomial b = new Gf2Polynomial(numBits);
+        b.setCoeff(0);
+        Gf2Polynomial c = new Gf2Polynomial(numBits);
+        Gf2Polynomial f = new Gf2Polynomial(numBits);
+        for (int i=0; i<N; i++)
+            if ((coeffs[i]&1) != 0)
+                f.setCoeff(i);
+        // set g(x) = x^N − 1
+        Gf2Polynomial g = new Gf2Polynomial(numBits);
+        g.setCoeff(0);
+        g.setCoeff(N);
+        while (true) {
+            if (f.degree < 0)
+                return null;   // not invertible
+            int t = f.lowestSetBit();
+            if (t > 0) {
+                f.shiftRight(t);   // f(x) = f(x) / x^t
+                c.shiftLeft(t, numBits);   // c(x) = c(x) * x^t
+                k += t;
+            }
+            if (f.degree == 0)
+                break;
+            if (f.degree < g.degree) {
+                // exchange f and g
+                Gf2Polynomial temp = f;
+                f = g;
+                g = temp;
+                // exchange b and c
+                temp = b;
+                b = c;
+                c = temp;
+            }
+            f.add(g);
+            b.add(c);
+        }
+        
+        if (b.getCoeff(N) != 0)
+            return null;
+        // Fq(x) = x^(N-k) * b(x)
+        IntegerPolynomial Fq = new IntegerPolynomial(N);
+        k %= N;
+        for (int i=N-1; i>=0; i--) {
+            int j = i - k;
+            if (j < 0)
+                j += N;
+            Fq.coeffs[j] = b.getCoeff(i);
+        }
+        return Fq;
+    }
+    
+    private void setCoeff(int i) {
+        words[i>>>6] |= 1L << i;
+        degree = Math.max(degree, i);
+    }
+    
+    private int getCoeff(int i) {
+        return (int)(words[i>>>6]>>>i) & 1;
+    }
+    
+    /** Returns the index of the lowest nonzero coefficient. The polynomial must not be zero. */
+    private int lowestSetBit() {
+        int w = 0;
+        while (words[w] == 0)
+            w++;
+        return (w<<6) + Long.numberOfTrailingZeros(words[w]);
+    }
+    
+    /** Sets <code>degree</code> to the index of the highest nonzero coefficient, looking no further up than <code>maxDegree</code>. */
+    private void updateDegree(int maxDegree) {
+        for (int w=maxDegree>>>6; w>=0; w--)
+            if (words[w] != 0) {
+                degree = (w<<6) + 63 - Long.numberOfLeadingZeros(words[w]);
+                return;
+            }
+        degree = -1;
+    }
+    
+    /** Divides the polynomial by <code>x^t</code>. The lowest <code>t</code> coefficients must be zero. */
+    private void shiftRight(int t) {
+        int wordShift = t >>> 6;
+        int bitShift = t & 63;
+        int numWords = (degree>>>6) + 1;
+        int newWords = numWords - wordShift;
+        for (int i=0; i<newWords; i++) {
+            int src = i + wordShift;
+            long w = words[src] >>> bitShift;
+            if (bitShift!=0 && src+1<numWords)
+                w |= words[src+1] << (64-bitShift);
+            words[i] = w;
+        }
+        for (int i=Math.max(newWords, 0); i<numWords; i++)
+            words[i] = 0;
+        degree -= t;
+    }
+    
+    /** Multiplies the polynomial by <code>x^t</code>, dropping all coefficients at index <code>numBits</code> and above. */
+    private void shiftLeft(int t, int numBits) {
+        if (degree < 0)
+            return;
+        int wordShift = t >>> 6;
+        int bitShift = t & 63;
+        for (int i=words.length-1; i>=0; i--) {
+            int src = i - wordShift;
+            long w = 0;
+            if (src >= 0) {
+                w = words[src] << bitShift;
+                if (bitShift!=0 && src>0)
+                    w |= words[src-1] >>> (64-bitShift);
+            }
+            words[i] = w;
+        }
+        int topBits = numBits & 63;
+        if (topBits != 0)
+            words[words.length-1] &= (1L<<topBits) - 1;
+        updateDegree(Math.min(degree+t, numBits-1));
+    }
+    
+    /** Adds (XORs) another polynomial with the same number of <code>long</code>s to this polynomial. */
+    private void add(Gf2Polynomial b) {
+        if (b.degree < 0)
+            return;
+        int numWords = (b.degree>>>6) + 1;
+        for (int i=0; i<numWords; i++)
+            words[i] ^= b.words[i];
+        if (b.degree == degree)
+            updateDegree(degree);
+        else
+            degree = Math.max(degree, b.degree);
+    }
+}
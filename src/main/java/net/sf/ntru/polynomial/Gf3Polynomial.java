@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+/**
+ * A polynomial with coefficients modulo 3 that stores 64 coefficients in two <code>long</code>s.<br/>
+ * Bit <code>i</code> of the first <code>long</code> is set if coefficient <code>i</code> is nonzero, and
+ * the same bit of the second <code>long</code> is set if the coefficient is 2 (i.e. -1). This allows adding
+ * and subtracting 64 coefficients with a few logical operations and no branches.
+ */
+class Gf3Polynomial {
+    private long[] nonzero;
+    private long[] sign;   // a bit can only be set if the same bit in nonzero is set
+    private int degree;   // -1 for the zero polynomial
+    
+    /**
+     * Constructs a zero polynomial.
+     * @param numBits the maximum number of coefficients
+     */
+    private Gf3Polynomial(int numBits) {
+        int numWords = (numBits+63) >>> 6;
+        nonzero = new long[numWords];
+        sign = new long[numWords];
+        degree = -1;
+    }
+    
+    /**
+     * Computes the inverse mod 3 in <code>Z[X]/(X^N-1)</code>.
+     * Returns <code>null</code> if the polynomial is not invertible.<br/>
+     * The algorithm is described in <a href="http://www.securityinnovation.com/uploads/Crypto/NTRUTech014.pdf">
+     * Almost Inverses and Fast NTRU Key Generation</a>.
+     * @param coeffs the <code>N</code> coefficients of a polynomial
+     * @return a new polynomial with coefficients between 0 and 2, or <code>null</code> if no inverse exists
+     */
+    static IntegerPolynomial invert(int[] coeffs) {
+        return invert(coeffs, false);
+    }
+    
+    /**
+     * Computes the inverse mod 3 in <code>Z[X]/(X^N-1)</code>, optionally rejecting the same polynomials
+     * as the <code>int</code>-based implementation of earlier versions.<br/>
+     * That implementation kept coefficients between -2 and 2, so it took a different path through the
+     * almost-inverse algorithm and sometimes found <code>b(N)!=0</code> for a polynomial that is invertible.
+     * Passphrase-based key generation must reject those polynomials too, or it would derive different keys.
+     * @param coeffs the <code>N</code> coefficients of a polynomial
+     * @param legacy whether to return <code>null</code> for all polynomials earlier versions couldn't invert
+     * @return a new polynomial with coefficients between 0 and 2, or <code>null</code> if no inverse was found
+     */
+    static IntegerPolynomial invert(int[] coeffs, boolean legacy) {
+        if (legacy && !isInvertibleLegacy(coeffs))
+            return null;
+        int N = coeffs.length;
+        int numBits = N + 1;
+        int k = 0;
+        Gf3Polynomial b = new Gf3Polynomial(numBits);
+        b.setCoeff(0, 1);
+        Gf3Polynomial c = new Gf3Polynomial(numBits);
+        Gf3Polynomial f = new Gf3Polynomial(numBits);
+        for (int i=0; i<N; i++)
+            f.setCoeff(i, mod3(coeffs[i]));
+        // set g(x) = x^N − 1
+        Gf3Polynomial g = new Gf3Polynomial(numBits);
+        g.setCoeff(0, 2);
+        g.setCoeff(N, 1);
+        while (true) {
+            if (f.degree < 0)
+                return null;   // not invertible
+            int t = f.lowestSetBit();
+            if (t > 0) {
+                f.shiftRight(t);   // f(x) = f(x) / x^t
+                c.shiftLeft(t, numBits);   // c(x) = c(x) * x^t
+                k += t;
+            }
+            if (f.degree == 0)
+                break;
+            if (f.degree < g.degree) {
+                // exchange f and g
+                Gf3Polynomial temp = f;
+                f = g;
+                g = temp;
+                // exchange b and c
+                temp = b;
+                b = c;
+                c = temp;
+            }
+            if (f.getCoeff(0) == g.getCoeff(0)) {
+                f.sub(g);
+                b.sub(c);
+            }
+            else {
+                f.add(g);
+                b.add(c);
+            }
+        }
+        
+        if (b.getCoeff(N) != 0)
+            return null;
+        // Fp(x) = [+-] x^(N-k) * b(x)
+        IntegerPolynomial Fp = new IntegerPolynomial(N);
+        boolean negate = f.getCoeff(0) == 2;
+        k %= N;
+        for (int i=N-1; i>=0; i--) {
+            int j = i - k;
+            if (j < 0)
+                j += N;
+            int coeff = b.getCoeff(i);
+            Fp.coeffs[j] = negate ? (3-coeff)%3 : coeff;
+        }
+        return Fp;
+    }
+    
+    /**
+     * Runs the almost-inverse algorithm the way earlier versions did, on coefficients between -2 and 2,
+     * and tells whether it found an inverse.
+     * @param coeffs the <code>N</code> coefficients of a polynomial
+     * @return <code>false</code> if the old implementation of {@link IntegerPolynomial#invertF3()} returned <code>null</code>
+     */
+    private static boolean isInvertibleLegacy(int[] coeffs) {
+        int N = coeffs.length;
+        int[] b = new int[N+1];
+        b[0] = 1;
+        int[] c = new int[N+1];
+        int[] f = new int[N+1];
+        for (int i=0; i<N; i++)
+            f[i] = mod3(coeffs[i]);
+        // set g(x) = x^N − 1
+        int[] g = new int[N+1];
+        g[0] = -1;
+        g[N] = 1;
+        while (true) {
+            while (f[0] == 0) {
+                // f(x) = f(x) / x, c(x) = c(x) * x
+                System.arraycopy(f, 1, f, 0, N);
+                f[N] = 0;
+                System.arraycopy(c, 0, c, 1, N);
+                c[0] = 0;
+                if (degreeSigned(f)==0 && f[0]==0)
+                    return false;
+            }
+            if (degreeSigned(f)==0 && Math.abs(f[0])==1)
+                break;
+            if (degreeSigned(f) < degreeSigned(g)) {
+                // exchange f and g
+                int[] temp = f;
+                f = g;
+                g = temp;
+                // exchange b and c
+                temp = b;
+                b = c;
+                c = temp;
+            }
+            int sign = f[0]==g[0] ? -1 : 1;
+            for (int i=0; i<=N; i++) {
+                f[i] = (f[i]+sign*g[i]) % 3;
+                b[i] = (b[i]+sign*c[i]) % 3;
+            }
+        }
+        return b[N] == 0;
+    }
+    
+    /** Returns the index of the highest nonzero element, or 0 if all elements are zero. */
+    private static int degreeSigned(int[] a) {
+        int degree = a.length - 1;
+        while (degree>0 && a[degree]==0)
+            degree--;
+        return degree;
+    }
+    
+    /**
+     * Multiplies two polynomials of the same length, taking the indices mod N and the values mod 3.
+     * @param a the first operand
+     * @param b the second operand
+     * @return the cyclic convolution of <code>a</code> and <code>b</code> with coefficients between 0 and 2
+     */
+    static int[] multCyclic(int[] a, int[] b) {
+        int N = a.length;
+        int numWords = (N+63) >>> 6;
+        
+        // b twice in a row, so x^i*b is the N coefficients starting at index N-i
+        Gf3Polynomial b2 = new Gf3Polynomial(2*N + 64);
+        for (int i=0; i<N; i++) {
+            int coeff = mod3(b[i]);
+            b2.setCoeff(i, coeff);
+            b2.setCoeff(i+N, coeff);
+        }
+        
+        long[] cNonzero = new long[numWords];
+        long[] cSign = new long[numWords];
+        for (int i=0; i<N; i++) {
+            int ai = mod3(a[i]);
+            if (ai == 0)
+                continue;
+            int offset = i==0 ? 0 : N-i;
+            int wordOff = offset >>> 6;
+            int bitOff = offset & 63;
+            for (int w=0; w<numWords; w++) {
+                long bn = b2.nonzero[wordOff+w] >>> bitOff;
+                long bs = b2.sign[wordOff+w] >>> bitOff;
+                if (bitOff != 0) {
+                    bn |= b2.nonzero[wordOff+w+1] << (64-bitOff);
+                    bs |= b2.sign[wordOff+w+1] << (64-bitOff);
+                }
+                long cn = cNonzero[w];
+                long cs = cSign[w];
+                if (ai == 1) {
+                    long t = cn & bn;
+                    cNonzero[w] = t ^ ((cn^bn) | (cs^bs));
+                    cSign[w] = t ^ (cs|bs);
+                }
+                else {
+                    cNonzero[w] = (cn^bn) | (cs^bs);
+                    cSign[w] = (cn&bn) ^ (cs|(bn^bs));
+                }
+            }
+        }
+        
+        int[] c = new int[N];
+        for (int i=0; i<N; i++)
+            c[i] = (int)((cNonzero[i>>>6]>>>i)&1) + (int)((cSign[i>>>6]>>>i)&1);
+        return c;
+    }
+    
+    /** Reduces an <code>int</code> to the range <code>0..2</code>. */
+    private static int mod3(int a) {
+        int r = a % 3;
+        return r<0 ? r+3 : r;
+    }
+    
+    /** Sets a coefficient to a value between 0 and 2. The coefficient must be zero. */
+    private void setCoeff(int i, int value) {
+        if (value == 0)
+            return;
+        nonzero[i>>>6] |= 1L << i;
+        if (value == 2)
+            sign[i>>>6] |= 1L << i;
+        degree = Math.max(degree, i);
+    }
+    
+    /** Returns a coefficient as a number between 0 and 2. */
+    private int getCoeff(int i) {
+        return (int)((nonzero[i>>>6]>>>i)&1) + (int)((sign[i>>>6]>>>i)&1);
+    }
+    
+    /** Returns the index of the lowest nonzero coefficient. The polynomial must not be zero. */
+    private int lowestSetBit() {
+        int w = 0;
+        while (nonzero[w] == 0)
+            w++;
+        return (w<<6) + Long.numberOfTrailingZeros(nonzero[w]);
+    }
+    
+    /** Sets <code>degree</code> to the index of the highest nonzero coefficient, looking no further up than <code>maxDegree</code>. */
+    private void updateDegree(int maxDegree) {
+        for (int w=maxDegree>>>6; w>=0; w--)
+            if (nonzero[w] != 0) {
+                degree = (w<<6) + 63 - Long.numberOfLeadingZeros(nonzero[w]);
+                return;
+            }
+        degree = -1;
+    }
+    
+    /** Divides the polynomial by <code>x^t</code>. The lowest <code>t</code> coefficients must be zero. */
+    private void shiftRight(int t) {
+        int numWords = (degree>>>6) + 1;
+        shiftRight(nonzero, numWords, t);
+        shiftRight(sign, numWords, t);
+        degree -= t;
+    }
+    
+    private static void shiftRight(long[] words, int numWords, int t) {
+        int wordShift = t >>> 6;
+        int bitShift = t & 63;
+        int newWords = numWords - wordShift;
+        for (int i=0; i<newWords; i++) {
+            int src = i + wordShift;
+            long w = words[src] >>> bitShift;
+            if (bitShift!=0 && src+1<numWords)
+                w |= words[src+1] << (64-bitShift);
+            words[i] = w;
+        }
+        for (int i=Math.max(newWords, 0); i<numWords; i++)
+            words[i] = 0;
+    }
+    
+    /** Multiplies the polynomial by <code>x^t</code>, dropping all coefficients at index <code>numBits</code> and above. */
+    private void shiftLeft(int t, int numBits) {
+        if (degree < 0)
+            return;
+        shiftLeft(nonzero, t, numBits);
+        shiftLeft(sign, t, numBits);
+        updateDegree(Math.min(degree+t, numBits-1));
+    }
+    
+    private static void shiftLeft(long[] words, int t, int numBits) {
+        int wordShift = t >>> 6;
+        int bitShift = t & 63;
+        for (int i=words.length-1; i>=0; i--) {
+            int src = i - wordShift;
+            long w = 0;
+            if (src >= 0) {
+                w = words[src] << bitShift;
+                if (bitShift!=0 && src>0)
+                    w |= words[src-1] >>> (64-bitShift);
+            }
+            words[i] = w;
+        }
+        int topBits = numBits & 63;
+        if (topBits != 0)
+            words[words.length-1] &= (1L<<topBits) - 1;
+    }
+    
+    /** Adds another polynomial with the same number of <code>long</code>s to this polynomial, taking the values mod 3. */
+    private void add(Gf3Polynomial b) {
+        if (b.degree < 0)
+            return;
+        int numWords = (b.degree>>>6) + 1;
+        for (int i=0; i<numWords; i++) {
+            long an = nonzero[i];
+            long as = sign[i];
+            long bn = b.nonzero[i];
+            long bs = b.sign[i];
+            long t = an & bn;
+            nonzero[i] = t ^ ((an^bn) | (as^bs));
+            sign[i] = t ^ (as|bs);
+        }
+        updateDegree(Math.max(degree, b.degree));
+    }
+    
+    /** Subtracts another polynomial with the same number of <code>long</code>s from this polynomial, taking the values mod 3. */
+    private void sub(Gf3Polynomial b) {
+        if (b.degree < 0)
+            return;
+        int numWords = (b.degree>>>6) + 1;
+        for (int i=0; i<numWords; i++) {
+            long an = nonzero[i];
+            long as = sign[i];
+            long bn = b.nonzero[i];
+            long bs = b.sign[i];
+            nonzero[i] = (an^bn) | (as^bs);
+            sign[i] = (an&bn) ^ (as|(bn^bs));
+        }
+        updateDegree(Math.max(degree, b.degree));
+    }
+}
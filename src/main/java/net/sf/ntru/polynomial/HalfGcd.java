@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.polynomial;
+
+import java.util.Arrays;
+
+import net.sf.ntru.arith.MontgomeryReducer;
+
+/**
+ * Computes resultants modulo a prime with the half-GCD algorithm, which takes
+ * <code>O(M(N) log N)</code> operations where <code>M(N)</code> is the cost of multiplying two
+ * polynomials of degree <code>N</code>, rather than the <code>O(N^2)</code> of the classical
+ * Euclidean algorithm. Polynomials are multiplied using Karatsuba.<br/>
+ * The recursion follows Thull and Yap, <i>A Unified Approach to HGCD Algorithms for polynomials and integers</i>.
+ * The resultant is calculated from the degrees and leading coefficients of the quotients, which are
+ * the same for the truncated polynomials the recursion works on as for the full remainder sequence.
+ * <p/>
+ * Polynomials are <code>int</code> arrays of coefficients between <code>0</code> and <code>p-1</code>,
+ * lowest coefficient first, without leading zeros. The zero polynomial is an empty array.<br/>
+ * This class is not thread safe; each thread should use its own instance.
+ */
+class HalfGcd {
+    /** Polynomials with fewer coefficients are multiplied using the schoolbook method rather than Karatsuba */
+    private static final int KARATSUBA_THRESHOLD = 32;
+    
+    /** HGCD problems below this degree are solved with the classical Euclidean algorithm */
+    private static final int HGCD_THRESHOLD = 256;
+    
+    private static final int[] ZERO = new int[0];
+    private static final int[] ONE = new int[] {1};
+    
+    private MontgomeryReducer mont;
+    private int p;
+    
+    // degrees and leading coefficients of all quotients, in the order they occur in the remainder sequence
+    private int[] quotientDegrees;
+    private int[] quotientLeadCoeffs;
+    private int numQuotients;
+    
+    /**
+     * @param mont the prime modulus
+     */
+    HalfGcd(MontgomeryReducer mont) {
+        this.mont = mont;
+        p = mont.getModulus();
+    }
+    
+    /**
+     * Resultant of a polynomial with <code>x^n-1</code> modulo <code>p</code>; see {@link IntegerPolynomial#resultant(int)}.
+     * @param f the coefficients of the polynomial, between <code>0</code> and <code>p-1</code>; <code>n=f.length</code>
+     * @return the coefficients of <code>rho</code> followed by <code>res</code>,
+     *         or <code>null</code> if the resultant is zero modulo <code>p</code>
+     */
+    int[] resultant(int[] f) {
+        int N = f.length;
+        quotientDegrees = new int[16];
+        quotientLeadCoeffs = new int[16];
+        numQuotients = 0;
+        
+        int[] a = new int[N+1];
+        a[0] = p - 1;
+        a[N] = 1;
+        int[] b = trim(f);
+        // v0 and v1 are the factors of f in a and b, i.e. a = v0*f and b = v1*f modulo x^n-1
+        int[] v0 = ZERO;
+        int[] v1 = ONE;
+        while (b.length > 0) {
+            if (deg(a) >= HGCD_THRESHOLD) {
+                int[][][] m = hgcd(a, b);
+                int[][] ab = apply(m, a, b);
+                a = ab[0];
+                b = ab[1];
+                int[][] v = apply(m, v0, v1);
+                v0 = v[0];
+                v1 = v[1];
+                if (b.length == 0)
+                    break;
+            }
+            int[][] qr = divide(a, b);
+            int[] v2 = sub(v0, mult(qr[0], v1));
+            a = b;
+            b = qr[1];
+            v0 = v1;
+            v1 = v2;
+        }
+        if (deg(a) > 0)
+            return null;
+        
+        // Reconstruct the degrees d and leading coefficients lc of the remainders r_0=x^n-1, r_1=f, ..., r_k=a
+        int k = numQuotients;
+        int[] d = new int[k+1];
+        int[] lc = new int[k+1];
+        d[0] = N;
+        lc[0] = 1;
+        for (int i=1; i<=k; i++) {
+            d[i] = d[i-1] - quotientDegrees[i-1];
+            lc[i] = mont.multiply(lc[i-1], mont.toMontgomery(mont.inverse(quotientLeadCoeffs[i-1])));
+        }
+        
+        // res(r_(i-1), r_i) = (-1)^(d_(i-1)*d_i) * lc_i^(d_(i-1)-d_(i+1)) * res(r_i, r_(i+1)), and res(r_(k-1), r_k) = lc_k^d_(k-1)
+        int res = mont.pow(lc[k], d[k-1]);
+        for (int i=1; i<k; i++) {
+            res = mont.multiply(res, mont.toMontgomery(mont.pow(lc[i], d[i-1]-d[i+1])));
+            if ((d[i-1]&d[i]&1) == 1)
+                res = res==0 ? 0 : p-res;
+        }
+        
+        // a = v0*f is a constant, so rho = res/a * v0
+        int[] rho = new int[N+1];
+        int scaleMont = mont.toMontgomery(mont.multiply(res, mont.toMontgomery(mont.inverse(a[0]))));
+        for (int i=0; i<v0.length; i++)
+            rho[i] = mont.multiply(v0[i], scaleMont);
+        rho[N] = res;
+        return rho;
+    }
+    
+    /**
+     * Computes a matrix <code>M</code> such that <code>M*(a, b) = (r_j, r_(j+1))</code> where <code>r_j</code>
+     * and <code>r_(j+1)</code> are the two consecutive remainders in the remainder sequence of <code>a</code> and
+     * <code>b</code> whose degrees satisfy <code>deg r_j &gt;= ceil(deg(a)/2) &gt; deg r_(j+1)</code>.<br/>
+     * The quotients that make up <code>M</code> are recorded in order.
+     * @param a
+     * @param b a polynomial of lower degree than <code>a</code>
+     * @return a 2x2 matrix of polynomials
+     */
+    private int[][][] hgcd(int[] a, int[] b) {
+        int n = deg(a);
+        int m = (n+1) / 2;
+        if (deg(b) < m)
+            return identity();
+        if (n < HGCD_THRESHOLD)
+            return hgcdClassical(a, b, m);
+        
+        int[][][] r = hgcd(shiftRight(a, m), shiftRight(b, m));
+        int[][] ab = apply(r, a, b);
+        a = ab[0];
+        b = ab[1];
+        if (deg(b) < m)
+            return r;
+        
+        int[][] qr = divide(a, b);
+        int[] q = qr[0];
+        r = new int[][][] {r[1], {sub(r[0][0], mult(q, r[1][0])), sub(r[0][1], mult(q, r[1][1]))}};
+        int[] c = b;
+        int[] d = qr[1];
+        if (deg(d) < m)
+            return r;
+        
+        int k = 2*m - deg(c);
+        int[][][] s = hgcd(shiftRight(c, k), shiftRight(d, k));
+        return mult(s, r);
+    }
+    
+    /** Same as {@link #hgcd(int[], int[])} but uses the classical Euclidean algorithm */
+    private int[][][] hgcdClassical(int[] a, int[] b, int m) {
+        int[][][] r = identity();
+        while (deg(b) >= m) {
+            int[][] qr = divide(a, b);
+            int[] q = qr[0];
+            r = new int[][][] {r[1], {sub(r[0][0], mult(q, r[1][0])), sub(r[0][1], mult(q, r[1][1]))}};
+            a = b;
+            b = qr[1];
+        }
+        return r;
+    }
+    
+    private static int[][][] identity() {
+        return new int[][][] {{ONE, ZERO}, {ZERO, ONE}};
+    }
+    
+    /** Multiplies a 2x2 matrix of polynomials by a vector */
+    private int[][] apply(int[][][] m, int[] x, int[] y) {
+        return new int[][] {
+            add(mult(m[0][0], x), mult(m[0][1], y)),
+            add(mult(m[1][0], x), mult(m[1][1], y))};
+    }
+    
+    /** Multiplies two 2x2 matrices of polynomials */
+    private int[][][] mult(int[][][] s, int[][][] r) {
+        int[][][] c = new int[2][2][];
+        for (int i=0; i<2; i++)
+            for (int j=0; j<2; j++)
+                c[i][j] = add(mult(s[i][0], r[0][j]), mult(s[i][1], r[1][j]));
+        return c;
+    }
+    
+    /**
+     * Divides two polynomials and records the quotient.
+     * @param a
+     * @param b a nonzero polynomial whose degree is not greater than the degree of <code>a</code>
+     * @return the quotient and the remainder
+     */
+    private int[][] divide(int[] a, int[] b) {
+        int da = deg(a);
+        int db = deg(b);
+        int[] q = new int[da-db+1];
+        int[] r = a.clone();
+        int lcInvMont = mont.toMontgomery(mont.inverse(b[db]));
+        for (int i=da; i>=db; i--) {
+            int c = mont.multiply(r[i], lcInvMont);
+            q[i-db] = c;
+            if (c == 0)
+                continue;
+            int cMont = mont.toMontgomery(c);
+            for (int j=0; j<=db; j++) {
+                int t = r[i-db+j] - mont.multiply(b[j], cMont);
+                r[i-db+j] = t + ((t>>31) & p);
+            }
+        }
+        
+        if (numQuotients == quotientDegrees.length) {
+            quotientDegrees = Arrays.copyOf(quotientDegrees, 2*numQuotients);
+            quotientLeadCoeffs = Arrays.copyOf(quotientLeadCoeffs, 2*numQuotients);
+        }
+        quotientDegrees[numQuotients] = da - db;
+        quotientLeadCoeffs[numQuotients] = q[da-db];
+        numQuotients++;
+        
+        return new int[][] {q, trim(Arrays.copyOf(r, db))};
+    }
+    
+    /** Multiplies two polynomials using Karatsuba */
+    private int[] mult(int[] a, int[] b) {
+        if (a.length==0 || b.length==0)
+            return ZERO;
+        if (a.length < b.length) {
+            int[] temp = a;
+            a = b;
+            b = temp;
+        }
+        if (b.length < KARATSUBA_THRESHOLD)
+            return multSchoolbook(a, b);
+        
+        // if the lengths are very different, multiply b by chunks of a
+        if (a.length >= 2*b.length) {
+            int[] c = new int[a.length+b.length-1];
+            for (int i=0; i<a.length; i+=b.length) {
+                int[] ci = mult(trim(Arrays.copyOfRange(a, i, Math.min(i+b.length, a.length))), b);
+                addShifted(c, ci, i);
+            }
+            return trim(c);
+        }
+        
+        int h = (a.length+1) / 2;
+        int[] a0 = trim(Arrays.copyOfRange(a, 0, h));
+        int[] a1 = Arrays.copyOfRange(a, h, a.length);
+        int[] b0 = trim(Arrays.copyOfRange(b, 0, Math.min(h, b.length)));
+        int[] b1 = h<b.length ? Arrays.copyOfRange(b, h, b.length) : ZERO;
+        int[] z0 = mult(a0, b0);
+        int[] z2 = mult(a1, b1);
+        int[] z1 = sub(sub(mult(add(a0, a1), add(b0, b1)), z0), z2);
+        
+        int[] c = new int[a.length+b.length-1];
+        addShifted(c, z0, 0);
+        addShifted(c, z1, h);
+        addShifted(c, z2, 2*h);
+        return trim(c);
+    }
+    
+    private int[] multSchoolbook(int[] a, int[] b) {
+        // Sum up products in longs, subtracting p^2 whenever the sum reaches p^2 so it never exceeds 2*p^2<2^63
+        long p2 = (long)p * p;
+        int[] c = new int[a.length+b.length-1];
+        for (int k=0; k<c.length; k++) {
+            long sum = 0;
+            int iMax = Math.min(k, a.length-1);
+            for (int i=Math.max(0, k-b.length+1); i<=iMax; i++) {
+                sum += (long)a[i] * b[k-i] - p2;
+                sum += (sum>>63) & p2;
+            }
+            c[k] = (int)(sum % p);
+        }
+        return trim(c);
+    }
+    
+    /** Adds <code>b*x^k</code> to <code>a</code> which must have enough coefficients */
+    private void addShifted(int[] a, int[] b, int k) {
+        for (int i=0; i<b.length; i++)
+            a[i+k] = add(a[i+k], b[i]);
+    }
+    
+    private int[] add(int[] a, int[] b) {
+        if (a.length < b.length) {
+            int[] temp = a;
+            a = b;
+            b = temp;
+        }
+        int[] c = a.clone();
+        for (int i=0; i<b.length; i++)
+            c[i] = add(a[i], b[i]);
+        return trim(c);
+    }
+    
+    private int[] sub(int[] a, int[] b) {
+        int[] c = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i=0; i<b.length; i++) {
+            int t = c[i] - b[i];
+            c[i] = t + ((t>>31) & p);
+        }
+        return trim(c);
+    }
+    
+    private int add(int x, int y) {
+        // x+y can overflow but x-(p-y) can't
+        int t = x - (p-y);
+        return t + ((t>>31) & p);
+    }
+    
+    /** Divides by <code>x^k</code>, dropping the remainder */
+    private static int[] shiftRight(int[] a, int k) {
+        if (a.length <= k)
+            return ZERO;
+        return Arrays.copyOfRange(a, k, a.length);
+    }
+    
+    /** Returns the degree of a polynomial, or -1 for the zero polynomial */
+    private static int deg(int[] a) {
+        return a.length - 1;
+    }
+    
+    /** Removes leading zeros */
+    private static int[] trim(int[] a) {
+        int len = a.length;
+        while (len>0 && a[len-1]==0)
+            len--;
+        return len==a.length ? a : Arrays.copyOf(a, len);
+    }
+}
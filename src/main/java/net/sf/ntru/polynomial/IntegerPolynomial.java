@@ -26,22 +26,21 @@
 
 package net.sf.ntru.polynomial;
 
-import static java.math.BigInteger.ONE;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
-import net.sf.ntru.arith.BigIntEuclidean;
-import net.sf.ntru.arith.IntEuclidean;
+import net.sf.ntru.arith.GarnerCrt;
+import net.sf.ntru.arith.MontgomeryReducer;
 import net.sf.ntru.exception.NtruException;
 import net.sf.ntru.sign.SignatureParameters;
 import net.sf.ntru.util.ArrayEncoder;
+import net.sf.ntru.util.ConcurrencyUtil;
 import net.sf.ntru.util.PlatformUtil;
 
 /**
@@ -51,81 +50,63 @@ import net.sf.ntru.util.PlatformUtil;
  */
 public class IntegerPolynomial implements Polynomial {
     private static final int NUM_EQUAL_RESULTANTS = 3;
+    
+    /** Polynomials with at least this many coefficients are multiplied using Toom-Cook rather than the schoolbook method */
+    private static final int TOOM_COOK_THRESHOLD = 32;
+    
+    /**
+     * Polynomials with at least this many coefficients are multiplied using number-theoretic transforms rather than Toom-Cook.<br/>
+     * The NTT pads to a power of two, so it only wins above about 12000 coefficients; at <code>N=1499</code>, the largest
+     * value in the standard parameter sets, it is 2.7 times slower than Toom-Cook. It is meant for custom parameter sets.
+     */
+    private static final int NTT_THRESHOLD = 12000;
+    
     /**
-     * Prime numbers &gt; 4500 for resultant computation. Starting them below ~4400 causes incorrect results occasionally.
-     * Fortunately, 4500 is about the optimum number for performance.<br/>
+     * Resultants modulo a prime of polynomials with at least this many coefficients are computed using {@link HalfGcd}.<br/>
+     * This is roughly where the two algorithms break even; at <code>N=1499</code> the classical algorithm is still
+     * about 15% faster, so the standard parameter sets never use the half-GCD algorithm.
+     */
+    private static final int HALF_GCD_THRESHOLD = 2500;
+    
+    /**
+     * The largest prime numbers below <code>2^31</code>, in descending order, for resultant computation.
+     * Large primes minimize the number of modular resultants that need to be computed, and
+     * <code>2^31</code> is the largest size {@link MontgomeryReducer} supports.<br/>
      * This array contains enough prime numbers so primes never have to be computed on-line for any standard {@link SignatureParameters}.
      */
     private static final int[] PRIMES = new int[] {
-        4507, 4513, 4517, 4519, 4523, 4547, 4549, 4561, 4567, 4583,
-        4591, 4597, 4603, 4621, 4637, 4639, 4643, 4649, 4651, 4657,
-        4663, 4673, 4679, 4691, 4703, 4721, 4723, 4729, 4733, 4751,
-        4759, 4783, 4787, 4789, 4793, 4799, 4801, 4813, 4817, 4831,
-        4861, 4871, 4877, 4889, 4903, 4909, 4919, 4931, 4933, 4937,
-        4943, 4951, 4957, 4967, 4969, 4973, 4987, 4993, 4999, 5003,
-        5009, 5011, 5021, 5023, 5039, 5051, 5059, 5077, 5081, 5087,
-        5099, 5101, 5107, 5113, 5119, 5147, 5153, 5167, 5171, 5179,
-        5189, 5197, 5209, 5227, 5231, 5233, 5237, 5261, 5273, 5279,
-        5281, 5297, 5303, 5309, 5323, 5333, 5347, 5351, 5381, 5387,
-        5393, 5399, 5407, 5413, 5417, 5419, 5431, 5437, 5441, 5443,
-        5449, 5471, 5477, 5479, 5483, 5501, 5503, 5507, 5519, 5521,
-        5527, 5531, 5557, 5563, 5569, 5573, 5581, 5591, 5623, 5639,
-        5641, 5647, 5651, 5653, 5657, 5659, 5669, 5683, 5689, 5693,
-        5701, 5711, 5717, 5737, 5741, 5743, 5749, 5779, 5783, 5791,
-        5801, 5807, 5813, 5821, 5827, 5839, 5843, 5849, 5851, 5857,
-        5861, 5867, 5869, 5879, 5881, 5897, 5903, 5923, 5927, 5939,
-        5953, 5981, 5987, 6007, 6011, 6029, 6037, 6043, 6047, 6053,
-        6067, 6073, 6079, 6089, 6091, 6101, 6113, 6121, 6131, 6133,
-        6143, 6151, 6163, 6173, 6197, 6199, 6203, 6211, 6217, 6221,
-        6229, 6247, 6257, 6263, 6269, 6271, 6277, 6287, 6299, 6301,
-        6311, 6317, 6323, 6329, 6337, 6343, 6353, 6359, 6361, 6367,
-        6373, 6379, 6389, 6397, 6421, 6427, 6449, 6451, 6469, 6473,
-        6481, 6491, 6521, 6529, 6547, 6551, 6553, 6563, 6569, 6571,
-        6577, 6581, 6599, 6607, 6619, 6637, 6653, 6659, 6661, 6673,
-        6679, 6689, 6691, 6701, 6703, 6709, 6719, 6733, 6737, 6761,
-        6763, 6779, 6781, 6791, 6793, 6803, 6823, 6827, 6829, 6833,
-        6841, 6857, 6863, 6869, 6871, 6883, 6899, 6907, 6911, 6917,
-        6947, 6949, 6959, 6961, 6967, 6971, 6977, 6983, 6991, 6997,
-        7001, 7013, 7019, 7027, 7039, 7043, 7057, 7069, 7079, 7103,
-        7109, 7121, 7127, 7129, 7151, 7159, 7177, 7187, 7193, 7207,
-        7211, 7213, 7219, 7229, 7237, 7243, 7247, 7253, 7283, 7297,
-        7307, 7309, 7321, 7331, 7333, 7349, 7351, 7369, 7393, 7411,
-        7417, 7433, 7451, 7457, 7459, 7477, 7481, 7487, 7489, 7499,
-        7507, 7517, 7523, 7529, 7537, 7541, 7547, 7549, 7559, 7561,
-        7573, 7577, 7583, 7589, 7591, 7603, 7607, 7621, 7639, 7643,
-        7649, 7669, 7673, 7681, 7687, 7691, 7699, 7703, 7717, 7723,
-        7727, 7741, 7753, 7757, 7759, 7789, 7793, 7817, 7823, 7829,
-        7841, 7853, 7867, 7873, 7877, 7879, 7883, 7901, 7907, 7919,
-        7927, 7933, 7937, 7949, 7951, 7963, 7993, 8009, 8011, 8017,
-        8039, 8053, 8059, 8069, 8081, 8087, 8089, 8093, 8101, 8111,
-        8117, 8123, 8147, 8161, 8167, 8171, 8179, 8191, 8209, 8219,
-        8221, 8231, 8233, 8237, 8243, 8263, 8269, 8273, 8287, 8291,
-        8293, 8297, 8311, 8317, 8329, 8353, 8363, 8369, 8377, 8387,
-        8389, 8419, 8423, 8429, 8431, 8443, 8447, 8461, 8467, 8501,
-        8513, 8521, 8527, 8537, 8539, 8543, 8563, 8573, 8581, 8597,
-        8599, 8609, 8623, 8627, 8629, 8641, 8647, 8663, 8669, 8677,
-        8681, 8689, 8693, 8699, 8707, 8713, 8719, 8731, 8737, 8741,
-        8747, 8753, 8761, 8779, 8783, 8803, 8807, 8819, 8821, 8831,
-        8837, 8839, 8849, 8861, 8863, 8867, 8887, 8893, 8923, 8929,
-        8933, 8941, 8951, 8963, 8969, 8971, 8999, 9001, 9007, 9011,
-        9013, 9029, 9041, 9043, 9049, 9059, 9067, 9091, 9103, 9109,
-        9127, 9133, 9137, 9151, 9157, 9161, 9173, 9181, 9187, 9199,
-        9203, 9209, 9221, 9227, 9239, 9241, 9257, 9277, 9281, 9283,
-        9293, 9311, 9319, 9323, 9337, 9341, 9343, 9349, 9371, 9377,
-        9391, 9397, 9403, 9413, 9419, 9421, 9431, 9433, 9437, 9439,
-        9461, 9463, 9467, 9473, 9479, 9491, 9497, 9511, 9521, 9533,
-        9539, 9547, 9551, 9587, 9601, 9613, 9619, 9623, 9629, 9631,
-        9643, 9649, 9661, 9677, 9679, 9689, 9697, 9719, 9721, 9733,
-        9739, 9743, 9749, 9767, 9769, 9781, 9787, 9791, 9803, 9811,
-        9817, 9829, 9833, 9839, 9851, 9857, 9859, 9871, 9883, 9887,
-        9901, 9907, 9923, 9929, 9931, 9941, 9949, 9967, 9973};
-    private static final List<BigInteger> BIGINT_PRIMES;
-
-    static {
-        BIGINT_PRIMES = new ArrayList<BigInteger>();
-        for (int p: PRIMES)
-            BIGINT_PRIMES.add(BigInteger.valueOf(p));
-    }
+        2147483647, 2147483629, 2147483587, 2147483579, 2147483563, 2147483549, 2147483543, 2147483497,
+        2147483489, 2147483477, 2147483423, 2147483399, 2147483353, 2147483323, 2147483269, 2147483249,
+        2147483237, 2147483179, 2147483171, 2147483137, 2147483123, 2147483077, 2147483069, 2147483059,
+        2147483053, 2147483033, 2147483029, 2147482951, 2147482949, 2147482943, 2147482937, 2147482921,
+        2147482877, 2147482873, 2147482867, 2147482859, 2147482819, 2147482817, 2147482811, 2147482801,
+        2147482763, 2147482739, 2147482697, 2147482693, 2147482681, 2147482663, 2147482661, 2147482621,
+        2147482591, 2147482583, 2147482577, 2147482507, 2147482501, 2147482481, 2147482417, 2147482409,
+        2147482367, 2147482361, 2147482349, 2147482343, 2147482327, 2147482291, 2147482273, 2147482237,
+        2147482231, 2147482223, 2147482121, 2147482093, 2147482091, 2147482081, 2147482063, 2147482021,
+        2147481997, 2147481967, 2147481949, 2147481937, 2147481907, 2147481901, 2147481899, 2147481893,
+        2147481883, 2147481863, 2147481827, 2147481811, 2147481797, 2147481793, 2147481673, 2147481629,
+        2147481571, 2147481563, 2147481529, 2147481509, 2147481499, 2147481491, 2147481487, 2147481373,
+        2147481367, 2147481359, 2147481353, 2147481337, 2147481317, 2147481311, 2147481283, 2147481269,
+        2147481263, 2147481247, 2147481209, 2147481199, 2147481179, 2147481173, 2147481151, 2147481143,
+        2147481139, 2147481071, 2147481053, 2147481031, 2147481019, 2147480989, 2147480971, 2147480969,
+        2147480957, 2147480941, 2147480927, 2147480921, 2147480899, 2147480897, 2147480893, 2147480849,
+        2147480843, 2147480837, 2147480791, 2147480747, 2147480743, 2147480723, 2147480707, 2147480683,
+        2147480677, 2147480651, 2147480641, 2147480623, 2147480611, 2147480591, 2147480551, 2147480527,
+        2147480519, 2147480507, 2147480471, 2147480459, 2147480437, 2147480429, 2147480369, 2147480327,
+        2147480311, 2147480299, 2147480297, 2147480227, 2147480219, 2147480207, 2147480197, 2147480161,
+        2147480039, 2147480011, 2147480009, 2147479991, 2147479937, 2147479907, 2147479897, 2147479891,
+        2147479879, 2147479823, 2147479819, 2147479787, 2147479781, 2147479757, 2147479753, 2147479751,
+        2147479681, 2147479657, 2147479643, 2147479637, 2147479619, 2147479601, 2147479589, 2147479573,
+        2147479549, 2147479547, 2147479531, 2147479517, 2147479513, 2147479507, 2147479489, 2147479447,
+        2147479421, 2147479403, 2147479381, 2147479361, 2147479349, 2147479339, 2147479307, 2147479273,
+        2147479259, 2147479231, 2147479189, 2147479171, 2147479133, 2147479129, 2147479121, 2147479097,
+        2147479091, 2147479079, 2147479063, 2147479057, 2147479031, 2147479013, 2147478997, 2147478967,
+        2147478961, 2147478959, 2147478937, 2147478919, 2147478911, 2147478899, 2147478889, 2147478863,
+        2147478859, 2147478821, 2147478791, 2147478763, 2147478733, 2147478731, 2147478727, 2147478721,
+        2147478719, 2147478703, 2147478701, 2147478673, 2147478661, 2147478659, 2147478653, 2147478649,
+        2147478647, 2147478611, 2147478601, 2147478581, 2147478569, 2147478563, 2147478521, 2147478517,
+        2147478503, 2147478497, 2147478491, 2147478481, 2147478461, 2147478373, 2147478349, 2147478331};
     
     public int[] coeffs;
     
@@ -292,10 +273,27 @@ public class IntegerPolynomial implements Polynomial {
         return data;
     }
     
-    /** Multiplies the polynomial with another, taking the values mod modulus and the indices mod N */
+    /**
+     * Multiplies the polynomial with another, taking the values mod modulus and the indices mod N.
+     * The coefficients of the result are between <code>0</code> and <code>modulus-1</code>.
+     */
     public IntegerPolynomial mult(IntegerPolynomial poly2, int modulus) {
+        // two coefficients per long beat Toom-Cook on ints, but not the NTT
+        if (PlatformUtil.is64BitJVM() && LongPolynomial2.isSupported(modulus) && coeffs.length<NTT_THRESHOLD) {
+            if (poly2.coeffs.length != coeffs.length)
+                throw new NtruException("Number of coefficients must be the same");
+            return new IntegerPolynomial(LongPolynomial2.multCyclic(coeffs, poly2.coeffs, modulus));
+        }
+        
+        // 64 coefficients in two longs
+        if (modulus==3 && coeffs.length<NTT_THRESHOLD) {
+            if (poly2.coeffs.length != coeffs.length)
+                throw new NtruException("Number of coefficients must be the same");
+            return new IntegerPolynomial(Gf3Polynomial.multCyclic(coeffs, poly2.coeffs));
+        }
+        
         IntegerPolynomial c = mult(poly2);
-        c.mod(modulus);
+        c.modPositive(modulus);
         return c;
     }
     
@@ -305,14 +303,23 @@ public class IntegerPolynomial implements Polynomial {
         if (poly2.coeffs.length != N)
             throw new NtruException("Number of coefficients must be the same");
         
-        IntegerPolynomial c = multRecursive(poly2);
+        if (N >= NTT_THRESHOLD)
+            return new IntegerPolynomial(NttConvolution.multCyclic(coeffs, poly2.coeffs));
+        if (N >= TOOM_COOK_THRESHOLD)
+            return new IntegerPolynomial(ToomCook.multCyclic(coeffs, poly2.coeffs));
         
-        if (c.coeffs.length > N) {
-            for (int k=N; k<c.coeffs.length; k++)
-                c.coeffs[k-N] += c.coeffs[k];
-            c.coeffs = Arrays.copyOf(c.coeffs, N);
+        // schoolbook multiplication, reducing mod x^N-1 directly into the result
+        int[] a = coeffs;
+        int[] b = poly2.coeffs;
+        int[] c = new int[N];
+        for (int i=0; i<N; i++) {
+            int ai = a[i];
+            for (int j=0; j<N-i; j++)
+                c[i+j] += ai * b[j];
+            for (int j=N-i; j<N; j++)
+                c[i+j-N] += ai * b[j];
         }
-        return c;
+        return new IntegerPolynomial(c);
     }
     
     @Override
@@ -320,52 +327,6 @@ public class IntegerPolynomial implements Polynomial {
         return new BigIntPolynomial(this).multSmall(poly2);
     }
     
-    /** Karatsuba multiplication */
-    private IntegerPolynomial multRecursive(IntegerPolynomial poly2) {
-        int[] a = coeffs;
-        int[] b = poly2.coeffs;
-        
-        int n = poly2.coeffs.length;
-        if (n <= 32) {
-            int cn = 2 * n - 1;
-            IntegerPolynomial c = new IntegerPolynomial(new int[cn]);
-            for (int k=0; k<cn; k++)
-                for (int i=Math.max(0, k-n+1); i<=Math.min(k,n-1); i++)
-                    c.coeffs[k] += b[i] * a[k-i];
-            return c;
-        }
-        else {
-            int n1 = n / 2;
-            
-            IntegerPolynomial a1 = new IntegerPolynomial(Arrays.copyOf(a, n1));
-            IntegerPolynomial a2 = new IntegerPolynomial(Arrays.copyOfRange(a, n1, n));
-            IntegerPolynomial b1 = new IntegerPolynomial(Arrays.copyOf(b, n1));
-            IntegerPolynomial b2 = new IntegerPolynomial(Arrays.copyOfRange(b, n1, n));
-            
-            // make a copy of a1 that is the same length as a2
-            IntegerPolynomial A = new IntegerPolynomial(Arrays.copyOf(a1.coeffs, a2.coeffs.length));
-            A.add(a2);
-            // make a copy of b1 that is the same length as b2
-            IntegerPolynomial B = new IntegerPolynomial(Arrays.copyOf(b1.coeffs, b2.coeffs.length));
-            B.add(b2);
-            
-            IntegerPolynomial c1 = a1.multRecursive(b1);
-            IntegerPolynomial c2 = a2.multRecursive(b2);
-            IntegerPolynomial c3 = A.multRecursive(B);
-            c3.sub(c1);
-            c3.sub(c2);
-            
-            IntegerPolynomial c = new IntegerPolynomial(2*n-1);
-            for (int i=0; i<c1.coeffs.length; i++)
-                c.coeffs[i] = c1.coeffs[i];
-            for (int i=0; i<c3.coeffs.length; i++)
-                c.coeffs[n1+i] += c3.coeffs[i];
-            for (int i=0; i<c2.coeffs.length; i++)
-                c.coeffs[2*n1+i] += c2.coeffs[i];
-            return c;
-        }
-    }
-    
     /**
      * Tests if this polynomial is invertible modulo 2.
      * If a polynomial is invertible modulo 2, it is invertible modulo any power of 2.
@@ -390,6 +351,59 @@ public class IntegerPolynomial implements Polynomial {
         return mod2ToModq(Fq, q);
     }
     
+    /**
+     * Computes the inverses of several polynomials mod <code>q; q</code> must be a power of 2.<br/>
+     * Uses Montgomery's trick: the product of all polynomials is inverted, and the individual inverses
+     * are recovered from it with <code>3(k-1)</code> multiplications, which is much cheaper than
+     * <code>k</code> inversions. If the product is not invertible, the polynomials are split into two halves
+     * which are processed separately, until the polynomials that have no inverse are isolated.
+     * @param polys <code>k</code> polynomials with the same number of coefficients
+     * @param q the modulus
+     * @return an array of <code>k</code> new polynomials, containing <code>null</code> where no inverse exists
+     */
+    public static IntegerPolynomial[] invertFq(IntegerPolynomial[] polys, int q) {
+        IntegerPolynomial[] inverses = new IntegerPolynomial[polys.length];
+        if (polys.length > 0)
+            invertFq(polys, 0, polys.length, q, inverses);
+        return inverses;
+    }
+    
+    /**
+     * Inverts <code>polys[from..to-1]</code> mod <code>q</code> and stores the results in <code>inverses[from..to-1]</code>.
+     * @see #invertFq(IntegerPolynomial[], int)
+     */
+    private static void invertFq(IntegerPolynomial[] polys, int from, int to, int q, IntegerPolynomial[] inverses) {
+        int k = to - from;
+        if (k == 1) {
+            inverses[from] = polys[from].invertFq(q);
+            return;
+        }
+        
+        // prefix[i] = polys[from] * ... * polys[from+i]
+        IntegerPolynomial[] prefix = new IntegerPolynomial[k];
+        prefix[0] = polys[from];
+        for (int i=1; i<k; i++)
+            prefix[i] = prefix[i-1].mult(polys[from+i], q);
+        
+        IntegerPolynomial inv = prefix[k-1].invertFq(q);
+        if (inv == null) {
+            // at least one polynomial is not invertible
+            int mid = from + k/2;
+            invertFq(polys, from, mid, q, inverses);
+            invertFq(polys, mid, to, q, inverses);
+            return;
+        }
+        
+        // inv is the inverse of prefix[i]; remove polys[from+i] from it
+        for (int i=k-1; i>0; i--) {
+            inverses[from+i] = inv.mult(prefix[i-1], q);
+            inv = inv.mult(polys[from+i], q);
+        }
+        inverses[from] = inv;
+        for (int i=from; i<to; i++)
+            inverses[i].modPositive(q);
+    }
+    
     /**
      * Computes the inverse mod 2.
      * Returns <code>null</code> if the polynomial is not invertible.<br/>
@@ -398,97 +412,54 @@ public class IntegerPolynomial implements Polynomial {
      * @return a new polynomial, or <code>null</code> if no inverse exists
      */
     private IntegerPolynomial invertF2() {
-        int N = coeffs.length;
-        int k = 0;
-        IntegerPolynomial b = new IntegerPolynomial(N+1);
-        b.coeffs[0] = 1;
-        IntegerPolynomial c = new IntegerPolynomial(N+1);
-        IntegerPolynomial f = new IntegerPolynomial(Arrays.copyOf(coeffs, N+1));
-        f.mod2();
-        // set g(x) = x^N − 1
-        IntegerPolynomial g = new IntegerPolynomial(N+1);
-        g.coeffs[0] = 1;
-        g.coeffs[N] = 1;
-        while (true) {
-            while (f.coeffs[0] == 0) {
-                for (int i=1; i<=N; i++) {
-                    f.coeffs[i-1] = f.coeffs[i];   // f(x) = f(x) / x
-                    c.coeffs[N+1-i] = c.coeffs[N-i];   // c(x) = c(x) * x
-                }
-                f.coeffs[N] = 0;
-                c.coeffs[0] = 0;
-                k++;
-                if (f.equalsZero())
-                    return null;   // not invertible
-            }
-            if (f.equalsOne())
-                break;
-            if (f.degree() < g.degree()) {
-                // exchange f and g
-                IntegerPolynomial temp = f;
-                f = g;
-                g = temp;
-                // exchange b and c
-                temp = b;
-                b = c;
-                c = temp;
-            }
-            f.add(g);
-            f.mod2();
-            b.add(c);
-            b.mod2();
-        }
-        
-        if (b.coeffs[N] != 0)
-            return null;
-        // Fq(x) = x^(N-k) * b(x)
-        IntegerPolynomial Fq = new IntegerPolynomial(N);
-        int j = 0;
-        k %= N;
-        for (int i=N-1; i>=0; i--) {
-            j = i - k;
-            if (j < 0)
-                j += N;
-            Fq.coeffs[j] = b.coeffs[i];
-        }
-        
-        return Fq;
+        return Gf2Polynomial.invert(coeffs);
     }
     
     /**
-     * Computes the inverse mod <code>q</code> from the inverse mod 2.<br/>
+     * Computes the inverse mod <code>q</code> from the inverse mod 2 using Newton iteration.<br/>
+     * If <code>Fq</code> is the inverse mod <code>v</code>, then <code>Fq*(2-this*Fq)</code> is the
+     * inverse mod <code>v<sup>2</sup></code>, so the precision doubles in each round.
      * The algorithm is described in <a href="http://www.securityinnovation.com/uploads/Crypto/NTRUTech014.pdf">
      * Almost Inverses and Fast NTRU Key Generation</a>.
-     * @param Fq
-     * @param q
+     * @param Fq the inverse mod 2; is overwritten with the inverse mod <code>q</code>
+     * @param q a power of 2
      * @return The inverse of this polynomial mod q
      */
     private IntegerPolynomial mod2ToModq(IntegerPolynomial Fq, int q) {
-        if (PlatformUtil.is64BitJVM() && q==2048) {
-            LongPolynomial2 thisLong = new LongPolynomial2(this);
-            LongPolynomial2 FqLong = new LongPolynomial2(Fq);
-            int v = 2;
-            while (v < q) {
-                v *= 2;
-                LongPolynomial2 temp = FqLong.clone();
-                temp.mult2And(v-1);
-                FqLong = thisLong.mult(FqLong).mult(FqLong);
-                temp.subAnd(FqLong, v-1);
-                FqLong = temp;
-            }
-            return FqLong.toIntegerPolynomial();
+        int N = coeffs.length;
+        int[] F = Fq.coeffs;
+        int[] temp = new int[N];
+        int v = 2;
+        while (v < q) {
+            v = v>q/v ? q : v*v;
+            multPow2(coeffs, F, v, temp);   // temp = this*F
+            for (int i=0; i<N; i++)
+                temp[i] = -temp[i];
+            temp[0] += 2;   // temp = 2-this*F
+            multPow2(F, temp, v, F);
         }
+        return Fq;
+    }
+    
+    /**
+     * Multiplies two polynomials, taking the indices mod N and the values mod a power of 2, using
+     * the fastest multiplication algorithm available for the modulus and the number of coefficients.
+     * @param a a polynomial
+     * @param b another polynomial with the same number of coefficients
+     * @param modulus a power of 2
+     * @param c an array to store the result in; can be the same array as <code>a</code> or <code>b</code>
+     */
+    private static void multPow2(int[] a, int[] b, int modulus, int[] c) {
+        int N = a.length;
+        if (PlatformUtil.is64BitJVM() && LongPolynomial2.isSupported(modulus) && N<NTT_THRESHOLD)
+            LongPolynomial2.multCyclic(a, b, modulus, c);
         else {
-            int v = 2;
-            while (v < q) {
-                v *= 2;
-                IntegerPolynomial temp = Fq.clone();
-                temp.mult2(v);
-                Fq = mult(Fq, v).mult(Fq, v);
-                temp.sub(Fq, v);
-                Fq = temp;
-            }
-            return Fq;
+            if (N >= NTT_THRESHOLD)
+                System.arraycopy(NttConvolution.multCyclic(a, b), 0, c, 0, N);
+            else
+                ToomCook.multCyclic(a, b, c);
+            for (int i=0; i<N; i++)
+                c[i] &= modulus - 1;
         }
     }
     
@@ -500,71 +471,23 @@ public class IntegerPolynomial implements Polynomial {
      * @return a new polynomial, or <code>null</code> if no inverse exists
      */
     public IntegerPolynomial invertF3() {
-        int N = coeffs.length;
-        int k = 0;
-        IntegerPolynomial b = new IntegerPolynomial(N+1);
-        b.coeffs[0] = 1;
-        IntegerPolynomial c = new IntegerPolynomial(N+1);
-        IntegerPolynomial f = new IntegerPolynomial(N+1);
-        f.coeffs = Arrays.copyOf(coeffs, N+1);
-        f.modPositive(3);
-        // set g(x) = x^N − 1
-        IntegerPolynomial g = new IntegerPolynomial(N+1);
-        g.coeffs[0] = -1;
-        g.coeffs[N] = 1;
-        while (true) {
-            while (f.coeffs[0] == 0) {
-                for (int i=1; i<=N; i++) {
-                    f.coeffs[i-1] = f.coeffs[i];   // f(x) = f(x) / x
-                    c.coeffs[N+1-i] = c.coeffs[N-i];   // c(x) = c(x) * x
-                }
-                f.coeffs[N] = 0;
-                c.coeffs[0] = 0;
-                k++;
-                if (f.equalsZero())
-                    return null;   // not invertible
-            }
-            if (f.equalsAbsOne())
-                break;
-            if (f.degree() < g.degree()) {
-                // exchange f and g
-                IntegerPolynomial temp = f;
-                f = g;
-                g = temp;
-                // exchange b and c
-                temp = b;
-                b = c;
-                c = temp;
-            }
-            if (f.coeffs[0] == g.coeffs[0]) {
-                f.sub(g, 3);
-                b.sub(c, 3);
-            }
-            else {
-                f.add(g, 3);
-                b.add(c, 3);
-            }
-        }
-        
-        if (b.coeffs[N] != 0)
-            return null;
-        // Fp(x) = [+-] x^(N-k) * b(x)
-        IntegerPolynomial Fp = new IntegerPolynomial(N);
-        int j = 0;
-        k %= N;
-        for (int i=N-1; i>=0; i--) {
-            j = i - k;
-            if (j < 0)
-                j += N;
-            Fp.coeffs[j] = f.coeffs[0] * b.coeffs[i];
-        }
-        
-        Fp.ensurePositive(3);
-        return Fp;
+        return Gf3Polynomial.invert(coeffs);
+    }
+    
+    /**
+     * Computes the inverse mod 3 like {@link #invertF3()}, but if <code>legacy</code> is <code>true</code>,
+     * also returns <code>null</code> for the few invertible polynomials that earlier versions failed
+     * to invert. Passphrase-based key generation needs this to derive the same keys as those versions.
+     * @param legacy whether to reject the same polynomials as earlier versions
+     * @return a new polynomial, or <code>null</code> if no inverse was found
+     */
+    public IntegerPolynomial invertF3(boolean legacy) {
+        return Gf3Polynomial.invert(coeffs, legacy);
     }
     
     /**
      * Resultant of this polynomial with <code>x^n-1</code> using a probabilistic algorithm.
+     * Uses the shared thread pool if more than one processor is available.
      * <p/>
      * Unlike EESS, this implementation does not compute all resultants modulo primes
      * such that their product exceeds the maximum possible resultant, but rather stops
@@ -575,89 +498,188 @@ public class IntegerPolynomial implements Polynomial {
      * <p/>
      * Because of the above, callers must verify the output and try a different polynomial if necessary.
      * @return <code>(rho, res)</code> satisfying <code>res = rho*this + t*(x^n-1)</code> for some integer <code>t</code>.
+     * @see #resultant(ExecutorService)
      */
     public Resultant resultant() {
-        int N = coeffs.length;
+        return resultant(ConcurrencyUtil.getSharedExecutor());
+    }
+    
+    /**
+     * Resultant of this polynomial with <code>x^n-1</code> using a probabilistic algorithm; see {@link #resultant()}.<br/>
+     * The modular resultants are computed in waves of one prime per processor. After each wave, the
+     * results are added to the mixed-radix representation of the resultant in order of the primes, and
+     * primes past the point where the stopping rule is met are discarded, so the result does not depend
+     * on the number of processors.<br/>
+     * The coefficients of <code>rho</code> are then reconstructed from their residues with {@link GarnerCrt},
+     * with one range of coefficients per processor.
+     * @param executor the thread pool to use; only used if more than one processor is available
+     * @return <code>(rho, res)</code> satisfying <code>res = rho*this + t*(x^n-1)</code> for some integer <code>t</code>.
+     */
+    public Resultant resultant(ExecutorService executor) {
+        final int N = coeffs.length;
+        int numThreads = ConcurrencyUtil.getNumThreads();
         
         // Compute resultants modulo prime numbers. Continue until NUM_EQUAL_RESULTANTS consecutive modular resultants are equal.
-        LinkedList<ModularResultant> modResultants = new LinkedList<ModularResultant>();
-        BigInteger prime = null;
-        BigInteger pProd = ONE;
-        BigInteger pProd2 = null;
-        BigInteger pProd2n = null;
-        BigInteger res = ONE;
+        final GarnerCrt crt = new GarnerCrt();
+        List<int[]> modResultants = new ArrayList<int[]>();
+        int[] resDigits = new int[PRIMES.length];   // mixed-radix digits of res
+        int prime = 0;
         int numEqual = 1;   // number of consecutive modular resultants equal to each other
-        Iterator<BigInteger> primes = BIGINT_PRIMES.iterator();
-        while (true) {
-            prime = primes.hasNext() ? primes.next() : prime.nextProbablePrime();
-            ModularResultant crr = resultant(prime.intValue());
-            modResultants.add(crr);
-            
-            BigInteger temp = pProd.multiply(prime);
-            BigIntEuclidean er = BigIntEuclidean.calculate(prime, pProd);
-            BigInteger resPrev = res;
-            res = res.multiply(er.x.multiply(prime));
-            BigInteger res2 = crr.res.multiply(er.y.multiply(pProd));
-            res = res.add(res2).mod(temp);
-            pProd = temp;
-            
-            pProd2 = pProd.shiftRight(1);
-            pProd2n = pProd2.negate();
-            if (res.compareTo(pProd2) > 0)
-                res = res.subtract(pProd);
-            else if (res.compareTo(pProd2n) < 0)
-                res = res.add(pProd);
+        boolean done = false;
+        while (!done) {
+            List<Callable<int[]>> wave = new ArrayList<Callable<int[]>>(numThreads);
+            int[] wavePrimes = new int[numThreads];
+            for (int i=0; i<numThreads; i++) {
+                int primeIdx = crt.getNumPrimes() + i;
+                prime = primeIdx<PRIMES.length ? PRIMES[primeIdx] : previousPrime(prime);
+                wavePrimes[i] = prime;
+                final MontgomeryReducer mont = new MontgomeryReducer(prime);
+                wave.add(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return resultantResidues(mont);
+                    }
+                });
+            }
             
-            if (res.equals(resPrev)) {
-                numEqual++;
-                if (numEqual >= NUM_EQUAL_RESULTANTS)
-                    break;
+            List<int[]> waveResults = invokeAll(executor, wave);
+            for (int i=0; i<numThreads; i++) {
+                int[] crr = waveResults.get(i);
+                int p = wavePrimes[i];
+                int idx = crt.getNumPrimes();
+                crt.addPrime(p);
+                modResultants.add(crr);
+                if (idx >= resDigits.length)
+                    resDigits = Arrays.copyOf(resDigits, 2*resDigits.length);
+                resDigits[idx] = crt.digit(idx, crr[N], resDigits);
+                
+                // The centered value of res stays the same iff the new digit is 0 (res>=0) or p-1 (res<0)
+                if (idx>0 && resDigits[idx]==(crt.isNegative(resDigits, idx) ? p-1 : 0)) {
+                    numEqual++;
+                    if (numEqual >= NUM_EQUAL_RESULTANTS) {
+                        done = true;
+                        break;
+                    }
+                }
+                else
+                    numEqual = 1;
             }
-            else
-                numEqual = 1;
         }
+        final int numPrimes = crt.getNumPrimes();
+        BigInteger res = crt.toCenteredBigInteger(resDigits, numPrimes);
         
-        // Combine modular rho's to obtain the final rho.
-        // For efficiency, first combine all pairs of small resultants to bigger resultants,
-        // then combine pairs of those, etc. until only one is left.
-        while (modResultants.size() > 1) {
-            ModularResultant modRes1 = modResultants.removeFirst();
-            ModularResultant modRes2 = modResultants.removeFirst();
-            ModularResultant modRes3 = ModularResultant.combineRho(modRes1, modRes2);
-            modResultants.addLast(modRes3);
+        // Reconstruct the coefficients of rho from their residues
+        final int[][] residues = modResultants.toArray(new int[numPrimes][]);
+        List<Callable<BigInteger[]>> ranges = new ArrayList<Callable<BigInteger[]>>(numThreads);
+        for (int t=0; t<numThreads; t++) {
+            final int start = t * N / numThreads;
+            final int end = (t+1) * N / numThreads;
+            ranges.add(new Callable<BigInteger[]>() {
+                @Override
+                public BigInteger[] call() {
+                    BigInteger[] rhoCoeffs = new BigInteger[end-start];
+                    int[] digits = new int[numPrimes];
+                    for (int k=start; k<end; k++) {
+                        for (int i=0; i<numPrimes; i++)
+                            digits[i] = crt.digit(i, residues[i][k], digits);
+                        rhoCoeffs[k-start] = crt.toCenteredBigInteger(digits, numPrimes);
+                    }
+                    return rhoCoeffs;
+                }
+            });
+        }
+        BigInteger[] rhoCoeffs = new BigInteger[N];
+        int k = 0;
+        for (BigInteger[] range: invokeAll(executor, ranges)) {
+            System.arraycopy(range, 0, rhoCoeffs, k, range.length);
+            k += range.length;
         }
-        BigIntPolynomial rhoP = modResultants.getFirst().rho;
         
-        if (res.compareTo(pProd2) > 0)
-            res = res.subtract(pProd);
-        if (res.compareTo(pProd2n) < 0)
-            res = res.add(pProd);
+        return new Resultant(new BigIntPolynomial(rhoCoeffs), res);
+    }
+    
+    /**
+     * Runs tasks in parallel if more than one processor is available, or in the current thread otherwise.
+     * @param executor
+     * @param tasks
+     * @return the results of the tasks in order
+     */
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+        if (ConcurrencyUtil.getNumThreads() > 1)
+            return ConcurrencyUtil.invokeAll(executor, tasks);
         
-        for (int i=0; i<N; i++) {
-            BigInteger c = rhoP.coeffs[i];
-            if (c.compareTo(pProd2) > 0)
-                rhoP.coeffs[i] = c.subtract(pProd);
-            if (c.compareTo(pProd2n) < 0)
-                rhoP.coeffs[i] = c.add(pProd);
-        }
-
-        return new Resultant(rhoP, res);
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (Callable<T> task: tasks)
+            try {
+                results.add(task.call());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new NtruException(e);
+            }
+        return results;
+    }
+    
+    /**
+     * Returns the largest prime number less than <code>p</code>.
+     * @param p an odd number
+     * @return the previous prime
+     */
+    private static int previousPrime(int p) {
+        BigInteger prime = BigInteger.valueOf(p);
+        do {
+            prime = prime.subtract(BigInteger.valueOf(2));
+        } while (!prime.isProbablePrime(100));
+        return prime.intValue();
     }
     
     /**
      * Resultant of this polynomial with <code>x^n-1 mod p</code>.<br/>
+     * All arithmetic is done with {@link MontgomeryReducer}, so <code>p</code> can be any odd prime below <code>2^31</code>.<br/>
+     * The coefficients of <code>rho</code> and the value of <code>res</code> are between <code>0</code> and <code>p-1</code>.
+     * Versions before the Montgomery arithmetic returned values between <code>-p+1</code> and <code>p-1</code>,
+     * so results should only be compared mod <code>p</code>.
+     * @param p an odd prime
      * @return <code>(rho, res)</code> satisfying <code>res = rho*this + t*(x^n-1) mod p</code> for some integer <code>t</code>.
+     * @throws NtruException if <code>p</code> is even or less than 3
      */
     public ModularResultant resultant(int p) {
+        int N = coeffs.length;
+        int[] residues = resultantResidues(new MontgomeryReducer(p));
+        IntegerPolynomial rho = new IntegerPolynomial(Arrays.copyOf(residues, N));
+        return new ModularResultant(new BigIntPolynomial(rho), BigInteger.valueOf(residues[N]), BigInteger.valueOf(p));
+    }
+    
+    /**
+     * Resultant of this polynomial with <code>x^n-1</code> modulo a prime.<br/>
+     * Uses the half-GCD algorithm if the polynomial has at least <code>HALF_GCD_THRESHOLD</code> coefficients,
+     * and the classical Euclidean algorithm otherwise.
+     * @param mont the prime
+     * @return the coefficients of <code>rho</code> followed by <code>res</code>, all between <code>0</code> and <code>p-1</code>
+     * @see #resultant(int)
+     */
+    private int[] resultantResidues(MontgomeryReducer mont) {
+        int p = mont.getModulus();
+        
+        if (coeffs.length >= HALF_GCD_THRESHOLD) {
+            IntegerPolynomial f = clone();
+            f.modPositive(p);
+            int[] residues = new HalfGcd(mont).resultant(f.coeffs);
+            if (residues != null)
+                return residues;
+            // rho can't be obtained by inverting f if the resultant is zero, so fall through to the classical algorithm
+        }
+        
         // Add a coefficient as the following operations involve polynomials of degree deg(f)+1
         int[] fcoeffs = Arrays.copyOf(coeffs, coeffs.length+1);
         IntegerPolynomial f = new IntegerPolynomial(fcoeffs);
+        f.modPositive(p);
         int N = fcoeffs.length;
         
         IntegerPolynomial a = new IntegerPolynomial(N);
-        a.coeffs[0] = -1;
+        a.coeffs[0] = p - 1;
         a.coeffs[N-1] = 1;
-        IntegerPolynomial b = new IntegerPolynomial(f.coeffs);
+        IntegerPolynomial b = f;
         IntegerPolynomial v1 = new IntegerPolynomial(N);
         IntegerPolynomial v2 = new IntegerPolynomial(N);
         v2.coeffs[0] = 1;
@@ -667,17 +689,16 @@ public class IntegerPolynomial implements Polynomial {
         int c = 0;
         int r = 1;
         while (db > 0) {
-            c = invert(b.coeffs[db], p);
-            c = (c * a.coeffs[da]) % p;
-            a.multShiftSub(b, c, da-db, p);
-            v1.multShiftSub(v2, c, da-db, p);
+            c = mont.multiply(a.coeffs[da], mont.toMontgomery(mont.inverse(b.coeffs[db])));
+            int cMont = mont.toMontgomery(c);
+            a.multShiftSub(b, cMont, da-db, da+1, mont);
+            v1.multShiftSub(v2, cMont, da-db, N, mont);
             
             da = a.degree();
             if (da < db) {
-                r *= pow(b.coeffs[db], ta-da, p);
-                r %= p;
-                if (ta%2==1 && db%2==1)
-                    r = (-r) % p;
+                r = mont.multiply(r, mont.toMontgomery(mont.pow(b.coeffs[db], ta-da)));
+                if (ta%2==1 && db%2==1 && r!=0)
+                    r = p - r;
                 IntegerPolynomial temp = a;
                 a = b;
                 b = temp;
@@ -690,47 +711,34 @@ public class IntegerPolynomial implements Polynomial {
                 db = tempdeg;
             }
         }
-        r *= pow(b.coeffs[0], da, p);
-        r %= p;
-        c = invert(b.coeffs[0], p);
-        v2.mult(c);
-        v2.mod(p);
-        v2.mult(r);
-        v2.mod(p);
+        r = mont.multiply(r, mont.toMontgomery(mont.pow(b.coeffs[0], da)));
+        c = b.coeffs[0]==0 ? 0 : mont.inverse(b.coeffs[0]);   // if b(0)=0 then r=0, so c doesn't matter
+        int scaleMont = mont.toMontgomery(mont.multiply(c, mont.toMontgomery(r)));
+        for (int i=0; i<N-1; i++)
+            v2.coeffs[i] = mont.multiply(v2.coeffs[i], scaleMont);
         
-        // drop the highest coefficient so #coeffs matches the original input
-        v2.coeffs = Arrays.copyOf(v2.coeffs, v2.coeffs.length-1);
-        return new ModularResultant(new BigIntPolynomial(v2), BigInteger.valueOf(r), BigInteger.valueOf(p));
-    }
-    
-    /** Calculates the inverse of n mod modulus */
-    private int invert(int n, int modulus) {
-        n %= modulus;
-        if (n < 0)
-            n += modulus;
-        return IntEuclidean.calculate(n, modulus).x;
-    }
-    
-    /** Calculates a^b mod modulus */
-    private int pow(int a, int b, int modulus) {
-        int p = 1;
-        for (int i=0; i<b; i++)
-            p = (p*a) % modulus;
-        return p;
+        // the highest coefficient is not part of rho; store res there
+        v2.coeffs[N-1] = r;
+        return v2.coeffs;
     }
     
     /**
      * Computes <code>this-b*c*(x^k) mod p</code> and stores the result in this polynomial.<br/>
+     * Coefficients must be between <code>0</code> and <code>p-1</code>, and stay in that range.<br/>
      * See steps 4a,4b in EESS algorithm 2.2.7.1.
      * @param b
-     * @param c
+     * @param cMont <code>c</code> in Montgomery form
      * @param k
-     * @param p
+     * @param N one more than the degree of <code>b*x^k</code>, or more; higher coefficients are not touched
+     * @param mont the modulus <code>p</code>
      */
-    private void multShiftSub(IntegerPolynomial b, int c, int k, int p) {
-        int N = coeffs.length;
-        for (int i=k; i<N; i++)
-            coeffs[i] = (coeffs[i]-b.coeffs[i-k]*c) % p;
+    private void multShiftSub(IntegerPolynomial b, int cMont, int k, int N, MontgomeryReducer mont) {
+        int p = mont.getModulus();
+        int[] bcoeffs = b.coeffs;
+        for (int i=k; i<N; i++) {
+            int t = coeffs[i] - mont.multiply(bcoeffs[i-k], cMont);
+            coeffs[i] = t + ((t>>31) & p);
+        }
     }
     
     /**
@@ -859,14 +867,6 @@ public class IntegerPolynomial implements Polynomial {
         }
     }
     
-    /**
-     * Optimized version of <code>modPositive(2)</code>.
-     */
-    private void mod2() {
-        for (int i=0; i<coeffs.length; i++)
-            coeffs[i] &= 1;
-    }
-    
     /**
      * Takes each coefficient modulo 3 such that all coefficients are ternary.
      */
@@ -1033,17 +1033,6 @@ public class IntegerPolynomial implements Polynomial {
         return sum;
     }
     
-    /**
-     * Tests if <code>p(x) = 0</code>.
-     * @return true iff all coefficients are zeros
-     */
-    private boolean equalsZero() {
-        for (int i=0; i<coeffs.length; i++)
-            if (coeffs[i] != 0)
-                return false;
-        return true;
-    }
-    
     /**
      * Tests if <code>p(x) = 1</code>.
      * @return true iff all coefficients are equal to zero, except for the lowest coefficient which must equal 1
@@ -1055,17 +1044,6 @@ public class IntegerPolynomial implements Polynomial {
         return coeffs[0] == 1;
     }
     
-    /**
-     * Tests if <code>|p(x)| = 1</code>.
-     * @return true iff all coefficients are equal to zero, except for the lowest coefficient which must equal 1 or -1
-     */
-    private boolean equalsAbsOne() {
-        for (int i=1; i<coeffs.length; i++)
-            if (coeffs[i] != 0)
-                return false;
-        return Math.abs(coeffs[0]) == 1;
-    }
-    
     /**
      * Counts the number of coefficients equal to an integer
      * @param value an integer
@@ -33,159 +33,260 @@ import net.sf.ntru.exception.NtruException;
 /**
  * A polynomial class that combines two coefficients into one <code>long</code> value for
  * faster multiplication in 64 bit environments.<br/>
- * Coefficients can be between 0 and 2047 and are stored in pairs in the bits 0..10 and 24..34 of a <code>long</code> number.
+ * The modulus <code>q</code> must be a power of two no greater than 2048. Coefficients can be between 0 and <code>q-1</code>
+ * and are stored in pairs in the bits 0..10 and 24..34 of a <code>long</code> number.<br/>
+ * Only two coefficients fit in a <code>long</code> because the product of two <code>long</code>s must hold
+ * three coefficients of twice the width, the middle one being the sum of two products.
  */
 class LongPolynomial2 {
+    /** Karatsuba scratch space, one array per thread that is reused across multiplications */
+    private static final ThreadLocal<long[]> SCRATCH = new ThreadLocal<long[]>();
+    
     private long[] coeffs;   // each representing two coefficients in the original IntegerPolynomial
     private int numCoeffs;
+    private int q;
+    private long mask;   // q-1 in both halves
     
     /**
      * Constructs a <code>LongPolynomial2</code> from a <code>IntegerPolynomial</code>. The two polynomials are independent of each other.
-     * @param p the original polynomial. Coefficients must be between 0 and 2047.
+     * @param p the original polynomial
      */
     LongPolynomial2(IntegerPolynomial p) {
+        this(p, 2048);
+    }
+    
+    /**
+     * Constructs a <code>LongPolynomial2</code> from a <code>IntegerPolynomial</code>. The two polynomials are independent of each other.
+     * @param p the original polynomial. Coefficients are reduced modulo <code>q</code>.
+     * @param q the modulus; must satisfy {@link #isSupported(int)}
+     */
+    LongPolynomial2(IntegerPolynomial p, int q) {
+        if (!isSupported(q))
+            throw new NtruException("Modulus must be a power of two between 2 and 2048: " + q);
+        setModulus(q);
         numCoeffs = p.coeffs.length;
         coeffs = new long[(numCoeffs+1) / 2];
-        int idx = 0;
-        for (int pIdx=0; pIdx<numCoeffs;) {
-            int c0 = p.coeffs[pIdx++];
-            while (c0 < 0)
-                c0 += 2048;
-            long c1 = pIdx<numCoeffs ? p.coeffs[pIdx++] : 0;
-            while (c1 < 0)
-                c1 += 2048;
-            coeffs[idx] = c0 + (c1<<24);
-            idx++;
-        }
+        pack(p.coeffs, q, coeffs, 0);
     }
     
-    private LongPolynomial2(long[] coeffs) {
+    private LongPolynomial2(long[] coeffs, int numCoeffs, int q) {
         this.coeffs = coeffs;
+        this.numCoeffs = numCoeffs;
+        setModulus(q);
     }
     
-    private LongPolynomial2(int N) {
-        coeffs = new long[N];
+    private void setModulus(int q) {
+        this.q = q;
+        mask = (((long)q-1)<<24) + q - 1;
     }
     
-    /** Multiplies the polynomial with another, taking the indices mod N and the values mod 2048. */
+    /**
+     * Tells whether polynomials with coefficients modulo <code>q</code> can be represented by this class.
+     * @param q a modulus
+     * @return <code>true</code> if <code>q</code> is a power of two between 2 and 2048
+     */
+    static boolean isSupported(int q) {
+        return q>=2 && q<=2048 && (q&(q-1))==0;
+    }
+    
+    /** Multiplies the polynomial with another, taking the indices mod N and the values mod q. */
     public LongPolynomial2 mult(LongPolynomial2 poly2) {
         int N = coeffs.length;
         if (poly2.coeffs.length!=N || numCoeffs!=poly2.numCoeffs)
             throw new NtruException("Number of coefficients must be the same");
+        if (q != poly2.q)
+            throw new NtruException("Moduli must be the same");
 
-        LongPolynomial2 c = multRecursive(poly2);
+        // the 2N longs of the product go at the start of the scratch array, followed by the space needed by multRecursive
+        long[] s = getScratch(2*N + scratchSize(N));
+        multRecursive(coeffs, 0, poly2.coeffs, 0, N, s, 0, s, 2*N, mask);
+        long[] c = new long[N];
+        reduce(s, 0, N, numCoeffs, q, c);
+        return new LongPolynomial2(c, numCoeffs, q);
+    }
+    
+    /**
+     * Multiplies two <code>int</code> polynomials of the same length, taking the indices mod N and the values mod q.
+     * The operands are packed into the scratch space, so the only array allocated is the result.
+     * @param a the first operand
+     * @param b the second operand
+     * @param q the modulus; must satisfy {@link #isSupported(int)}
+     * @return the cyclic convolution of <code>a</code> and <code>b</code> with coefficients between 0 and <code>q-1</code>
+     */
+    static int[] multCyclic(int[] a, int[] b, int q) {
+        int[] c = new int[a.length];
+        multCyclic(a, b, q, c);
+        return c;
+    }
+    
+    /**
+     * Like {@link #multCyclic(int[], int[], int)} but stores the result in an existing array.
+     * @param a the first operand
+     * @param b the second operand
+     * @param q the modulus; must satisfy {@link #isSupported(int)}
+     * @param c an array to store the result in; can be the same array as <code>a</code> or <code>b</code>
+     */
+    static void multCyclic(int[] a, int[] b, int q, int[] c) {
+        int numCoeffs = a.length;
+        int N = (numCoeffs+1) / 2;
+        long mask = (((long)q-1)<<24) + q - 1;
         
-        if (c.coeffs.length > N) {
-            if (numCoeffs%2 == 0) {
-                for (int k=N; k<c.coeffs.length; k++)
-                    c.coeffs[k-N] = (c.coeffs[k-N]+c.coeffs[k]) & 0x7FF0007FFL;
-                c.coeffs = Arrays.copyOf(c.coeffs, N);
-            }
-            else {
-                for (int k=N; k<c.coeffs.length; k++) {
-                    c.coeffs[k-N] = c.coeffs[k-N] + (c.coeffs[k-1]>>24);
-                    c.coeffs[k-N] = c.coeffs[k-N] + ((c.coeffs[k]&2047)<<24);
-                    c.coeffs[k-N] &= 0x7FF0007FFL;
-                }
-                c.coeffs = Arrays.copyOf(c.coeffs, N);
-                c.coeffs[c.coeffs.length-1] &= 2047;
+        // A and B, then the 2N longs of the product, then the space needed by multRecursive
+        long[] s = getScratch(4*N + scratchSize(N));
+        pack(a, q, s, 0);
+        pack(b, q, s, N);
+        multRecursive(s, 0, s, N, N, s, 2*N, s, 4*N, mask);
+        reduce(s, 2*N, N, numCoeffs, q, s);   // A is no longer needed
+        
+        int cIdx = 0;
+        for (int i=0; i<N; i++) {
+            c[cIdx++] = (int)(s[i] & (q-1));
+            if (cIdx < numCoeffs)
+                c[cIdx++] = (int)((s[i]>>24) & (q-1));
+        }
+    }
+    
+    /** Returns this thread's scratch array, enlarging it if it has fewer than <code>size</code> elements. */
+    private static long[] getScratch(int size) {
+        long[] s = SCRATCH.get();
+        if (s==null || s.length<size) {
+            s = new long[size];
+            SCRATCH.set(s);
+        }
+        return s;
+    }
+    
+    /** Packs <code>int</code> coefficients into <code>(a.length+1)/2</code> <code>long</code>s starting at <code>dest[destOff]</code>, reducing them mod q. */
+    private static void pack(int[] a, int q, long[] dest, int destOff) {
+        int numCoeffs = a.length;
+        int idx = destOff;
+        for (int pIdx=0; pIdx<numCoeffs;) {
+            long c0 = a[pIdx++] & (q-1);
+            long c1 = pIdx<numCoeffs ? a[pIdx++]&(q-1) : 0;
+            dest[idx] = c0 + (c1<<24);
+            idx++;
+        }
+    }
+    
+    /**
+     * Reduces a product of <code>2N</code> <code>long</code>s mod <code>x^numCoeffs-1</code>.
+     * @param s the array containing the product
+     * @param sOff offset of the product
+     * @param N the number of <code>long</code>s in each operand
+     * @param numCoeffs the number of coefficients in each operand
+     * @param q the modulus
+     * @param c an array to store the <code>N</code> <code>long</code>s of the result in, starting at index 0
+     */
+    private static void reduce(long[] s, int sOff, int N, int numCoeffs, int q, long[] c) {
+        long mask = (((long)q-1)<<24) + q - 1;
+        if (numCoeffs%2 == 0)
+            for (int k=N; k<2*N; k++)
+                c[k-N] = (s[sOff+k-N]+s[sOff+k]) & mask;
+        else {
+            for (int k=N; k<2*N; k++) {
+                c[k-N] = s[sOff+k-N] + (s[sOff+k-1]>>24);
+                c[k-N] = c[k-N] + ((s[sOff+k]&(q-1))<<24);
+                c[k-N] &= mask;
             }
+            c[N-1] &= q - 1;
         }
-
-        c = new LongPolynomial2(c.coeffs);
-        c.numCoeffs = numCoeffs;
-        return c;
     }
     
     public IntegerPolynomial toIntegerPolynomial() {
         int[] intCoeffs = new int[numCoeffs];
         int uIdx = 0;
         for (int i=0; i<coeffs.length; i++) {
-            intCoeffs[uIdx++] = (int)(coeffs[i] & 2047);
+            intCoeffs[uIdx++] = (int)(coeffs[i] & (q-1));
             if (uIdx < numCoeffs)
-                intCoeffs[uIdx++] = (int)((coeffs[i]>>24) & 2047);
+                intCoeffs[uIdx++] = (int)((coeffs[i]>>24) & (q-1));
         }
         return new IntegerPolynomial(intCoeffs);
     }
 
-    /** Karatsuba multiplication */
-    private LongPolynomial2 multRecursive(LongPolynomial2 poly2) {
-        long[] a = coeffs;
-        long[] b = poly2.coeffs;
-
-        int n = poly2.coeffs.length;
+    /**
+     * Returns the amount of scratch space {@link #multRecursive(long[], int, long[], int, int, long[], int, long[], int, long)} needs.
+     * @param n the number of <code>long</code>s in each operand
+     * @return the number of <code>long</code>s
+     */
+    private static int scratchSize(int n) {
+        if (n <= 32)
+            return 0;
+        int n2 = n - n/2;
+        return 4*n2 + scratchSize(n2);
+    }
+    
+    /**
+     * Karatsuba multiplication working on array offsets.
+     * @param a the first operand
+     * @param aOff offset of the first operand
+     * @param b the second operand
+     * @param bOff offset of the second operand
+     * @param n the number of <code>long</code>s in each operand
+     * @param c the array to store the product in
+     * @param cOff offset of the <code>2n</code> <code>long</code>s of the product
+     * @param s the scratch array
+     * @param sOff offset of at least <code>scratchSize(n)</code> elements that are free to use
+     * @param mask <code>q-1</code> in both halves of a <code>long</code>
+     */
+    private static void multRecursive(long[] a, int aOff, long[] b, int bOff, int n, long[] c, int cOff, long[] s, int sOff, long mask) {
         if (n <= 32) {
+            // Each product of two longs holds three coefficients at bits 0, 24 and 48. After masking, at most
+            // 32 of them can be summed before the lower two overflow into the next coefficient.
             int cn = 2 * n;
-            LongPolynomial2 c = new LongPolynomial2(new long[cn]);
-            for (int k=0; k<cn; k++) {
-                for (int i=Math.max(0, k-n+1); i<=Math.min(k,n-1); i++) {
-                    long c0 = a[k-i] * b[i];
-                    long cu = c0&0x7FF000000L + (c0&2047);
-                    long co = (c0>>>48) & 2047;
-                    
-                    c.coeffs[k] = (c.coeffs[k]+cu) & 0x7FF0007FFL;
-                    c.coeffs[k+1] = (c.coeffs[k+1]+co) & 0x7FF0007FFL;
+            long carry = 0;   // the coefficients at bit 48, which belong to the next long
+            long upperMask = mask & (mask>>>24);   // q-1
+            for (int k=0; k<cn-1; k++) {
+                long sum = carry;
+                carry = 0;
+                int iMax = Math.min(k, n-1);
+                for (int i=Math.max(0, k-n+1); i<=iMax; i++) {
+                    long c0 = a[aOff+k-i] * b[bOff+i];
+                    sum += c0 & mask;
+                    carry += (c0>>>48) & upperMask;
                 }
+                c[cOff+k] = sum & mask;
             }
-            return c;
+            c[cOff+cn-1] = carry & mask;
         }
         else {
             int n1 = n / 2;
-
-            LongPolynomial2 a1 = new LongPolynomial2(Arrays.copyOf(a, n1));
-            LongPolynomial2 a2 = new LongPolynomial2(Arrays.copyOfRange(a, n1, n));
-            LongPolynomial2 b1 = new LongPolynomial2(Arrays.copyOf(b, n1));
-            LongPolynomial2 b2 = new LongPolynomial2(Arrays.copyOfRange(b, n1, n));
-
-            LongPolynomial2 A = a1.clone();
-            A.add(a2);
-            LongPolynomial2 B = b1.clone();
-            B.add(b2);
-
-            LongPolynomial2 c1 = a1.multRecursive(b1);
-            LongPolynomial2 c2 = a2.multRecursive(b2);
-            LongPolynomial2 c3 = A.multRecursive(B);
-            c3.sub(c1);
-            c3.sub(c2);
-
-            LongPolynomial2 c = new LongPolynomial2(2*n);
-            for (int i=0; i<c1.coeffs.length; i++)
-                c.coeffs[i] = c1.coeffs[i] & 0x7FF0007FFL;
-            for (int i=0; i<c3.coeffs.length; i++)
-                c.coeffs[n1+i] = (c.coeffs[n1+i] + c3.coeffs[i]) & 0x7FF0007FFL;
-            for (int i=0; i<c2.coeffs.length; i++)
-                c.coeffs[2*n1+i] = (c.coeffs[2*n1+i] + c2.coeffs[i]) & 0x7FF0007FFL;
-            return c;
+            int n2 = n - n1;
+            
+            // A=a1+a2 and B=b1+b2 where a1 has n1 elements and a2 has n2>=n1 elements
+            int AOff = sOff;
+            int BOff = AOff + n2;
+            int c3Off = BOff + n2;
+            int nextOff = c3Off + 2*n2;
+            for (int i=0; i<n2; i++) {
+                long a1 = i<n1 ? a[aOff+i] : 0;
+                s[AOff+i] = (a1 + a[aOff+n1+i]) & mask;
+                long b1 = i<n1 ? b[bOff+i] : 0;
+                s[BOff+i] = (b1 + b[bOff+n1+i]) & mask;
+            }
+            
+            // c1=a1*b1 and c2=a2*b2 go directly into their places in c
+            int c1Off = cOff;
+            int c2Off = cOff + 2*n1;
+            multRecursive(a, aOff, b, bOff, n1, c, c1Off, s, nextOff, mask);
+            multRecursive(a, aOff+n1, b, bOff+n1, n2, c, c2Off, s, nextOff, mask);
+            multRecursive(s, AOff, s, BOff, n2, s, c3Off, s, nextOff, mask);
+            
+            // c3 = A*B-c1-c2
+            for (int i=0; i<2*n1; i++)
+                s[c3Off+i] = (0x0800000800000L + s[c3Off+i] - c[c1Off+i]) & mask;
+            for (int i=0; i<2*n2; i++)
+                s[c3Off+i] = (0x0800000800000L + s[c3Off+i] - c[c2Off+i]) & mask;
+            
+            for (int i=0; i<2*n2; i++)
+                c[cOff+n1+i] = (c[cOff+n1+i] + s[c3Off+i]) & mask;
         }
     }
 
-    /**
-     * Adds another polynomial which can have a different number of coefficients.
-     * @param b another polynomial
-     */
-    private void add(LongPolynomial2 b) {
-        if (b.coeffs.length > coeffs.length)
-            coeffs = Arrays.copyOf(coeffs, b.coeffs.length);
-        for (int i=0; i<b.coeffs.length; i++)
-            coeffs[i] = (coeffs[i] + b.coeffs[i]) & 0x7FF0007FFL;
-    }
-    
-    /**
-     * Subtracts another polynomial which can have a different number of coefficients.
-     * @param b another polynomial
-     */
-    private void sub(LongPolynomial2 b) {
-        if (b.coeffs.length > coeffs.length)
-            coeffs = Arrays.copyOf(coeffs, b.coeffs.length);
-        for (int i=0; i<b.coeffs.length; i++)
-            coeffs[i] = (0x0800000800000L + coeffs[i] - b.coeffs[i]) & 0x7FF0007FFL;
-    }
-
     /**
      * Subtracts another polynomial which must have the same number of coefficients,
      * and applies an AND mask to the upper and lower halves of each coefficients.
      * @param b another polynomial
-     * @param mask a bit mask less than 2048 to apply to each 11-bit coefficient
+     * @param mask a bit mask less than <code>q</code> to apply to each coefficient
      */
     void subAnd(LongPolynomial2 b, int mask) {
         long longMask = (((long)mask)<<24) + mask;
@@ -196,7 +297,7 @@ class LongPolynomial2 {
     /**
      * Multiplies this polynomial by 2 and applies an AND mask to the upper and 
      * lower halves of each coefficients.
-     * @param mask a bit mask less than 2048 to apply to each 11-bit coefficient
+     * @param mask a bit mask less than <code>q</code> to apply to each coefficient
      */
     void mult2And(int mask) {
         long longMask = (((long)mask)<<24) + mask;
@@ -206,9 +307,7 @@ class LongPolynomial2 {
 
     @Override
     public LongPolynomial2 clone() {
-        LongPolynomial2 p = new LongPolynomial2(coeffs.clone());
-        p.numCoeffs = numCoeffs;
-        return p;
+        return new LongPolynomial2(coeffs.clone(), numCoeffs, q);
     }
     
     @Override
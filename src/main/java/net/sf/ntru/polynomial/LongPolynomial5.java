@@ -28,117 +28,180 @@ package net.sf.ntru.polynomial;
 
 import java.util.Arrays;
 
+import net.sf.ntru.exception.NtruException;
+
 /**
- * A polynomial class that combines five coefficients into one <code>long</code> value for
+ * A polynomial class that combines several coefficients into one <code>long</code> value for
  * faster multiplication by a ternary polynomial.<br/>
- * Coefficients can be between 0 and 2047 and are stored in bits 0..11, 12..23, ..., 48..59 of a <code>long</code> number.
+ * The modulus <code>q</code> must be a power of two. Each coefficient occupies <code>log2(q)+1</code> bits
+ * (the extra bit holds the carry), so a <code>long</code> contains <code>63/(log2(q)+1)</code> coefficients.
+ * For <code>q=2048</code>, coefficients are stored in bits 0..11, 12..23, ..., 48..59 of a <code>long</code> number,
+ * hence the name of the class.
  */
 class LongPolynomial5 {
-    private long[] coeffs;   // groups of 5 coefficients
+    private long[] coeffs;   // groups of coeffsPerLong coefficients
     private int numCoeffs;
+    private int q;
+    private int bitsPerCoeff;   // log2(q)+1
+    private int coeffsPerLong;
+    private long mask;   // q-1 in every coefficient
+    private long qLanes;   // q in every coefficient
     
     /**
      * Constructs a <code>LongPolynomial5</code> from a <code>IntegerPolynomial</code>. The two polynomials are independent of each other.
      * @param p the original polynomial. Coefficients must be between 0 and 2047.
      */
     LongPolynomial5(IntegerPolynomial p) {
-        numCoeffs = p.coeffs.length;
+        this(p, 2048);
+    }
+    
+    /**
+     * Constructs a <code>LongPolynomial5</code> from a <code>IntegerPolynomial</code>. The two polynomials are independent of each other.
+     * @param p the original polynomial. Coefficients must be between 0 and <code>q-1</code>.
+     * @param q the modulus; must satisfy {@link #isSupported(int)}
+     */
+    LongPolynomial5(IntegerPolynomial p, int q) {
+        if (!isSupported(q))
+            throw new NtruException("Modulus must be a power of two between 2 and 2^30: " + q);
+        init(p.coeffs.length, q);
         
-        coeffs = new long[(numCoeffs+4) / 5];
+        coeffs = new long[(numCoeffs+coeffsPerLong-1) / coeffsPerLong];
         int cIdx = 0;
         int shift = 0;
+        int maxShift = bitsPerCoeff * coeffsPerLong;
         for (int i=0; i<numCoeffs; i++) {
             coeffs[cIdx] |= ((long)p.coeffs[i]) << shift;
-            shift += 12;
-            if (shift >= 60) {
+            shift += bitsPerCoeff;
+            if (shift >= maxShift) {
                 shift = 0;
                 cIdx++;
             }
         }
     }
     
-    private LongPolynomial5(long[] coeffs, int numCoeffs) {
+    private LongPolynomial5(long[] coeffs, int numCoeffs, int q) {
         this.coeffs = coeffs;
+        init(numCoeffs, q);
+    }
+    
+    private void init(int numCoeffs, int q) {
         this.numCoeffs = numCoeffs;
+        this.q = q;
+        bitsPerCoeff = 32 - Integer.numberOfLeadingZeros(q);   // log2(q)+1
+        coeffsPerLong = 63 / bitsPerCoeff;
+        mask = 0;
+        qLanes = 0;
+        for (int i=0; i<coeffsPerLong; i++) {
+            mask |= ((long)q-1) << (i*bitsPerCoeff);
+            qLanes |= ((long)q) << (i*bitsPerCoeff);
+        }
     }
     
-    /** Multiplies the polynomial with a <code>TernaryPolynomial</code>, taking the indices mod N and the values mod 2048. */
+    /**
+     * Tells whether polynomials with coefficients modulo <code>q</code> can be represented by this class.
+     * @param q a modulus
+     * @return <code>true</code> if <code>q</code> is a power of two between 2 and 2<sup>30</sup>
+     */
+    static boolean isSupported(int q) {
+        return q>=2 && q<=(1<<30) && (q&(q-1))==0;
+    }
+    
+    /** Multiplies the polynomial with a <code>TernaryPolynomial</code>, taking the indices mod N and the values mod q. */
     public LongPolynomial5 mult(TernaryPolynomial poly2) {
-        long[][] prod = new long[5][coeffs.length+(poly2.size()+4)/5-1];   // intermediate results, the subarrays are shifted by 0,...,4 coefficients
+        int lanes = coeffsPerLong;
+        long[][] prod = new long[lanes][coeffs.length+(poly2.size()+lanes-1)/lanes-1];   // intermediate results, the subarrays are shifted by 0,...,lanes-1 coefficients
         
         // multiply ones
         for (int pIdx: poly2.getOnes()) {
-            int cIdx = pIdx / 5;
-            int m = pIdx - cIdx*5;   // m = pIdx % 5
+            int cIdx = pIdx / lanes;
+            int m = pIdx - cIdx*lanes;   // m = pIdx % lanes
+            long[] prodM = prod[m];
             for (int i=0; i<coeffs.length; i++) {
-                prod[m][cIdx] = (prod[m][cIdx] + coeffs[i]) & 0x7FF7FF7FF7FF7FFL;
+                prodM[cIdx] = (prodM[cIdx] + coeffs[i]) & mask;
                 cIdx++;
             }
         }
         
         // multiply negative ones
         for (int pIdx: poly2.getNegOnes()) {
-            int cIdx = pIdx / 5;
-            int m = pIdx - cIdx*5;   // m = pIdx % 5
+            int cIdx = pIdx / lanes;
+            int m = pIdx - cIdx*lanes;   // m = pIdx % lanes
+            long[] prodM = prod[m];
             for (int i=0; i<coeffs.length; i++) {
-                prod[m][cIdx] = (0x800800800800800L + prod[m][cIdx] - coeffs[i]) & 0x7FF7FF7FF7FF7FFL;
+                prodM[cIdx] = (qLanes + prodM[cIdx] - coeffs[i]) & mask;
                 cIdx++;
             }
         }
         
-        // combine shifted coefficients (5 arrays) into a single array of length prod[*].length+1
+        // combine shifted coefficients (lanes arrays) into a single array of length prod[*].length+1
+        int usedBits = lanes * bitsPerCoeff;
         long[] cCoeffs = Arrays.copyOf(prod[0], prod[0].length+1);
-        for (int m=1; m<=4; m++) {
-            int shift = m * 12;
-            int shift60 = 60 - shift;
-            long mask = (1L<<shift60) - 1;
+        for (int m=1; m<lanes; m++) {
+            int shift = m * bitsPerCoeff;
+            int shiftUsed = usedBits - shift;
+            long lowerMask = (1L<<shiftUsed) - 1;
             int pLen = prod[m].length;
             for (int i=0; i<pLen; i++) {
                 long upper, lower;
-                upper = prod[m][i] >> shift60;
-                lower = prod[m][i] & mask;
+                upper = prod[m][i] >> shiftUsed;
+                lower = prod[m][i] & lowerMask;
                 
-                cCoeffs[i] = (cCoeffs[i] + (lower<<shift)) & 0x7FF7FF7FF7FF7FFL;
+                cCoeffs[i] = (cCoeffs[i] + (lower<<shift)) & mask;
                 int nextIdx = i + 1;
-                cCoeffs[nextIdx] = (cCoeffs[nextIdx]+upper) & 0x7FF7FF7FF7FF7FFL;
+                cCoeffs[nextIdx] = (cCoeffs[nextIdx]+upper) & mask;
             }
         }
         
         // reduce indices of cCoeffs modulo numCoeffs
-        int shift = 12 * (numCoeffs%5);
+        int shift = bitsPerCoeff * (numCoeffs%lanes);
         for (int cIdx=coeffs.length-1; cIdx<cCoeffs.length; cIdx++) {
             long iCoeff;   // coefficient to shift into the [0..numCoeffs-1] range
             int newIdx;
             if (cIdx==coeffs.length-1) {
-                iCoeff = numCoeffs==5 ? 0 : cCoeffs[cIdx] >> shift;
+                iCoeff = numCoeffs%lanes==0 ? 0 : cCoeffs[cIdx] >> shift;
                 newIdx = 0;
             }
             else {
                 iCoeff = cCoeffs[cIdx];
-                newIdx = cIdx*5 - numCoeffs;
+                newIdx = cIdx*lanes - numCoeffs;
             }
             
-            int base = newIdx / 5;
-            int m = newIdx - base*5;   // m = newIdx % 5
-            long lower = iCoeff << (12*m);
-            long upper = iCoeff >> (12*(5-m));
-            cCoeffs[base] = (cCoeffs[base] + lower) & 0x7FF7FF7FF7FF7FFL;
+            int base = newIdx / lanes;
+            int m = newIdx - base*lanes;   // m = newIdx % lanes
+            long lower = iCoeff << (bitsPerCoeff*m);
+            long upper = iCoeff >> (bitsPerCoeff*(lanes-m));
+            cCoeffs[base] = (cCoeffs[base] + lower) & mask;
             int base1 = base + 1;
             if (base1 < coeffs.length)
-                cCoeffs[base1] = (cCoeffs[base1] + upper) & 0x7FF7FF7FF7FF7FFL;
+                cCoeffs[base1] = (cCoeffs[base1] + upper) & mask;
         }
         
-        return new LongPolynomial5(cCoeffs, numCoeffs);
+        // drop the coefficients that were moved to the [0..numCoeffs-1] range so the result can be multiplied again
+        cCoeffs = Arrays.copyOf(cCoeffs, coeffs.length);
+        if (numCoeffs%lanes != 0)
+            cCoeffs[coeffs.length-1] &= (1L<<shift) - 1;
+        
+        return new LongPolynomial5(cCoeffs, numCoeffs, q);
+    }
+    
+    /**
+     * Adds another polynomial which must have the same number of coefficients and the same modulus, taking the values mod q.
+     * @param b another polynomial
+     */
+    void add(LongPolynomial5 b) {
+        for (int i=0; i<coeffs.length; i++)
+            coeffs[i] = (coeffs[i] + b.coeffs[i]) & mask;
     }
     
     public IntegerPolynomial toIntegerPolynomial() {
         int[] intCoeffs = new int[numCoeffs];
         int cIdx = 0;
         int shift = 0;
+        int maxShift = bitsPerCoeff * coeffsPerLong;
         for (int i=0; i<numCoeffs; i++) {
-            intCoeffs[i] = (int)((coeffs[cIdx] >> shift) & 2047);
-            shift += 12;
-            if (shift >= 60) {
+            intCoeffs[i] = (int)((coeffs[cIdx] >> shift) & (q-1));
+            shift += bitsPerCoeff;
+            if (shift >= maxShift) {
                 shift = 0;
                 cIdx++;
             }
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+/**
+ * Computes cyclic convolutions of polynomials with <code>int</code> coefficients using
+ * number-theoretic transforms modulo two or three 31-bit primes, and recombines the results
+ * via the Chinese Remainder Theorem.<br/>
+ * The recombined value is the exact integer product, so truncating it to 32 bits gives the
+ * same result as <code>int</code> arithmetic. Two primes are used when the coefficients are small
+ * enough for the product to be below their product, otherwise three.<br/>
+ * Modular multiplications use Montgomery reduction with <code>R=2<sup>32</sup></code>.
+ */
+class NttConvolution {
+    /** The primes are of the form <code>c*2<sup>k</sup>+1</code> with <code>k&gt;=26</code>, so any transform length up to 2<sup>26</sup> is supported. */
+    private static final NttPrime P1 = new NttPrime(2013265921, 31);   // 15*2^27+1
+    private static final NttPrime P2 = new NttPrime(1811939329, 13);   // 27*2^26+1
+    private static final NttPrime P3 = new NttPrime(469762049, 3);     // 7*2^26+1
+    
+    /** The product of the first two primes */
+    private static final long P1P2 = (long)P1.p * P2.p;
+    
+    /** <code>P1<sup>-1</sup> mod P2</code> in Montgomery form */
+    private static final int INV_P1_MOD_P2 = (int)(modInverse(P1.p, P2.p) * P2.r % P2.p);
+    
+    /** <code>(P1*P2)<sup>-1</sup> mod P3</code> */
+    private static final long INV_P1P2_MOD_P3 = modInverse(P1P2 % P3.p, P3.p);
+    
+    /**
+     * Multiplies two polynomials modulo <code>x^N-1</code>, where <code>N</code> is the
+     * number of coefficients. The result is identical to what <code>int</code> arithmetic produces.
+     * @param a a polynomial
+     * @param b another polynomial, must have the same number of coefficients as <code>a</code>
+     * @return the coefficients of <code>a*b mod (x^N-1)</code>
+     */
+    static int[] multCyclic(int[] a, int[] b) {
+        int N = a.length;
+        int logn = 1;
+        while ((1<<logn) < 2*N-1)
+            logn++;
+        
+        // the largest possible absolute value of a coefficient of the (linear) product
+        double bound = (double)N * maxAbs(a) * maxAbs(b);
+        boolean twoPrimes = bound < P1P2 / 4;   // leaves a generous margin for rounding
+        
+        int[] r1 = P1.multLinear(a, b, logn);
+        int[] r2 = P2.multLinear(a, b, logn);
+        int[] r3 = twoPrimes ? null : P3.multLinear(a, b, logn);
+        
+        // Garner's algorithm: c = x1 + x2*P1 + x3*P1*P2, then center and truncate to 32 bits
+        int[] c = new int[N];
+        int p1 = P1.p;
+        int p2 = P2.p;
+        int p3 = P3.p;
+        for (int i=0; i<2*N-1; i++) {
+            int x1 = r1[i];
+            int x2 = r2[i] - (x1>=p2 ? x1-p2 : x1);   // P1 < 2*P2
+            if (x2 < 0)
+                x2 += p2;
+            x2 = P2.montMul(x2, INV_P1_MOD_P2);
+            long x = x1 + (long)x2*p1;   // < P1*P2 < 2^63
+            
+            if (twoPrimes) {
+                if (x2 > p2/2)
+                    x -= P1P2;
+            }
+            else {
+                long x3 = (r3[i]-x%p3) % p3;
+                if (x3 < 0)
+                    x3 += p3;
+                x3 = x3 * INV_P1P2_MOD_P3 % p3;
+                x += x3 * P1P2;   // wraps around; only the low 32 bits are needed
+                if (x3 > p3/2)
+                    x -= P1P2 * p3;
+            }
+            
+            int idx = i<N ? i : i-N;
+            c[idx] += (int)x;
+        }
+        return c;
+    }
+    
+    private static long maxAbs(int[] a) {
+        long max = 0;
+        for (int ai: a)
+            max = Math.max(max, Math.abs((long)ai));
+        return max;
+    }
+    
+    /** Computes <code>a<sup>-1</sup> mod m</code> for a prime <code>m</code> */
+    private static long modInverse(long a, long m) {
+        return modPow(a, m-2, m);
+    }
+    
+    /** Computes <code>a<sup>e</sup> mod m</code> for <code>m &lt; 2<sup>31</sup></code> */
+    private static long modPow(long a, long e, long m) {
+        long result = 1;
+        a %= m;
+        while (e > 0) {
+            if ((e&1) != 0)
+                result = result * a % m;
+            a = a * a % m;
+            e >>= 1;
+        }
+        return result;
+    }
+    
+    /** A prime with precomputed constants for Montgomery arithmetic and NTTs */
+    private static class NttPrime {
+        private int p;
+        /** <code>-p<sup>-1</sup> mod 2<sup>32</sup></code> */
+        private int negPInv;
+        /** <code>R mod p</code> */
+        private long r;
+        /** <code>R<sup>2</sup> mod p</code> */
+        private long r2;
+        /** a primitive root mod p */
+        private int generator;
+        /** twiddle factors in Montgomery form, indexed by <code>logn</code> */
+        private int[][] roots = new int[27][];
+        private int[][] invRoots = new int[27][];
+        
+        private NttPrime(int p, int generator) {
+            this.p = p;
+            this.generator = generator;
+            
+            // Newton iteration for p^-1 mod 2^32
+            int inv = p;
+            for (int i=0; i<5; i++)
+                inv *= 2 - p*inv;
+            negPInv = -inv;
+            
+            r = (1L<<32) % p;
+            r2 = r * r % p;
+        }
+        
+        /** Returns <code>a*b*R<sup>-1</sup> mod p</code> for <code>0&lt;=a,b&lt;p</code>, in the range <code>[0,p)</code> */
+        private int montMul(int a, int b) {
+            long t = (long)a * b;
+            int m = (int)t * negPInv;
+            long r = (t + (m&0xFFFFFFFFL)*p) >>> 32;   // < 2p
+            return (int)(r>=p ? r-p : r);
+        }
+        
+        /**
+         * Computes the linear convolution of <code>a</code> and <code>b</code> modulo <code>p</code>.
+         * @param a
+         * @param b
+         * @param logn log<sub>2</sub> of the transform length; <code>2<sup>logn</sup></code> must be at least <code>2*a.length-1</code>
+         * @return an array of length <code>2<sup>logn</sup></code>
+         */
+        private int[] multLinear(int[] a, int[] b, int logn) {
+            int n = 1 << logn;
+            int[] w = getRoots(logn, false);
+            int[] wInv = getRoots(logn, true);
+            
+            int[] A = reduce(a, n);
+            int[] B = reduce(b, n);
+            forward(A, w);
+            forward(B, w);
+            for (int i=0; i<n; i++)
+                A[i] = montMul(A[i], B[i]);
+            inverse(A, wInv);
+            
+            // A[i] = n*c[i]*R^-1; multiply by R^2/n to get c[i]
+            int scale = (int)(r2 * modInverse(n, p) % p);
+            for (int i=0; i<n; i++)
+                A[i] = montMul(A[i], scale);
+            return A;
+        }
+        
+        /** Reduces the coefficients into <code>[0,p)</code> and pads with zeros */
+        private int[] reduce(int[] a, int n) {
+            int[] r = new int[n];
+            for (int i=0; i<a.length; i++) {
+                int ai = a[i] % p;
+                r[i] = ai<0 ? ai+p : ai;
+            }
+            return r;
+        }
+        
+        /** Decimation-in-frequency transform; natural-order input, bit-reversed output */
+        private void forward(int[] x, int[] w) {
+            int n = x.length;
+            for (int m=n/2; m>=1; m/=2)
+                for (int start=0; start<n; start+=2*m)
+                    for (int j=0; j<m; j++) {
+                        int u = x[start+j];
+                        int v = x[start+j+m];
+                        int sum = u - (p-v);
+                        x[start+j] = sum<0 ? sum+p : sum;
+                        int diff = u - v;
+                        x[start+j+m] = montMul(diff<0 ? diff+p : diff, w[m+j]);
+                    }
+        }
+        
+        /** Decimation-in-time inverse transform without scaling; bit-reversed input, natural-order output */
+        private void inverse(int[] x, int[] w) {
+            int n = x.length;
+            for (int m=1; m<n; m*=2)
+                for (int start=0; start<n; start+=2*m)
+                    for (int j=0; j<m; j++) {
+                        int u = x[start+j];
+                        int v = montMul(x[start+j+m], w[m+j]);
+                        int sum = u - (p-v);
+                        x[start+j] = sum<0 ? sum+p : sum;
+                        int diff = u - v;
+                        x[start+j+m] = diff<0 ? diff+p : diff;
+                    }
+        }
+        
+        /**
+         * Returns a table <code>t</code> of length <code>n=2<sup>logn</sup></code> such that for each power of two
+         * <code>m&lt;n</code>, <code>t[m+j]=w<sub>2m</sub><sup>j</sup></code> in Montgomery form, where
+         * <code>w<sub>2m</sub></code> is a primitive <code>2m</code>-th root of unity (or its inverse).
+         */
+        private synchronized int[] getRoots(int logn, boolean inverse) {
+            int[][] cache = inverse ? invRoots : roots;
+            int[] t = cache[logn];
+            if (t == null) {
+                int n = 1 << logn;
+                t = new int[n];
+                for (int m=1; m<n; m*=2) {
+                    long wm = modPow(generator, (p-1)/(2*m), p);
+                    if (inverse)
+                        wm = modInverse(wm, p);
+                    long wj = 1;
+                    for (int j=0; j<m; j++) {
+                        t[m+j] = montMul((int)wj, (int)r2);
+                        wj = wj * wm % p;
+                    }
+                }
+                cache[logn] = t;
+            }
+            return t;
+        }
+    }
+}
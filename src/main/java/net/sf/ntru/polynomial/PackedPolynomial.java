@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+/**
+ * An <code>IntegerPolynomial</code> that is stored in a format suitable for repeated
+ * multiplication modulo <code>q</code>.<br/>
+ * If <code>q</code> is a power of two, the coefficients are packed into <code>long</code>
+ * values once, so multiplying by a ternary or product-form polynomial doesn't need to
+ * repack them every time. For other moduli, the polynomial is multiplied as is.<br/>
+ * Instances are immutable and can be shared between threads.
+ */
+public class PackedPolynomial {
+    private IntegerPolynomial p;
+    private LongPolynomial5 packed;   // null if q is not a power of two
+    private int q;
+    
+    /**
+     * Constructs a new <code>PackedPolynomial</code>. The two polynomials are independent of each other.
+     * @param p the original polynomial
+     * @param q the modulus
+     */
+    public PackedPolynomial(IntegerPolynomial p, int q) {
+        this.q = q;
+        this.p = p.clone();
+        if (LongPolynomial5.isSupported(q)) {
+            IntegerPolynomial pPos = p.clone();
+            pPos.modPositive(q);
+            packed = new LongPolynomial5(pPos, q);
+        }
+    }
+    
+    /**
+     * Multiplies a polynomial by this polynomial, taking the indices mod <code>N</code> and the values
+     * mod <code>q</code>.
+     * @param r a polynomial
+     * @return <code>r*this</code> with all coefficients between <code>0</code> and <code>q-1</code>
+     */
+    public IntegerPolynomial mult(Polynomial r) {
+        IntegerPolynomial c;
+        if (packed!=null && r instanceof TernaryPolynomial)
+            c = packed.mult((TernaryPolynomial)r).toIntegerPolynomial();
+        else if (packed!=null && r instanceof ProductFormPolynomial)
+            c = ((ProductFormPolynomial)r).mult(packed).toIntegerPolynomial();
+        else {
+            c = r.mult(p, q);
+            c.modPositive(q);
+        }
+        return c;
+    }
+}
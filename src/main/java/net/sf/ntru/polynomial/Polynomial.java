@@ -41,7 +41,7 @@ public interface Polynomial {
      * taking the coefficient values mod <code>modulus</code> and the indices mod <code>N</code>.
      * @param poly2 a polynomial
      * @param modulus a modulus to apply
-     * @return the product of the two polynomials
+     * @return the product of the two polynomials, with all coefficients between <code>0</code> and <code>modulus-1</code>
      */
     IntegerPolynomial mult(IntegerPolynomial poly2, int modulus);
     
@@ -32,6 +32,7 @@ import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Random;
 
+import net.sf.ntru.encrypt.PassphraseBasedPRNG;
 import net.sf.ntru.exception.NtruException;
 
 /**
@@ -64,9 +65,18 @@ public class ProductFormPolynomial implements Polynomial {
      * @return a random <code>ProductFormPolynomial</code>
      */
     public static ProductFormPolynomial generateRandom(int N, int df1, int df2, int df3Ones, int df3NegOnes, Random rng) {
-        SparseTernaryPolynomial f1 = SparseTernaryPolynomial.generateRandom(N, df1, df1, rng);
-        SparseTernaryPolynomial f2 = SparseTernaryPolynomial.generateRandom(N, df2, df2, rng);
-        SparseTernaryPolynomial f3 = SparseTernaryPolynomial.generateRandom(N, df3Ones, df3NegOnes, rng);
+        // keep polynomials derived from a passphrase the same as in earlier versions
+        if (rng instanceof PassphraseBasedPRNG) {
+            SparseTernaryPolynomial f1 = SparseTernaryPolynomial.generateRandom(N, df1, df1, rng);
+            SparseTernaryPolynomial f2 = SparseTernaryPolynomial.generateRandom(N, df2, df2, rng);
+            SparseTernaryPolynomial f3 = SparseTernaryPolynomial.generateRandom(N, df3Ones, df3NegOnes, rng);
+            return new ProductFormPolynomial(f1, f2, f3);
+        }
+        
+        RandomSampler sampler = new RandomSampler(rng, 2*df1+2*df2+df3Ones+df3NegOnes);
+        SparseTernaryPolynomial f1 = SparseTernaryPolynomial.generateRandom(N, df1, df1, sampler);
+        SparseTernaryPolynomial f2 = SparseTernaryPolynomial.generateRandom(N, df2, df2, sampler);
+        SparseTernaryPolynomial f3 = SparseTernaryPolynomial.generateRandom(N, df3Ones, df3NegOnes, sampler);
         return new ProductFormPolynomial(f1, f2, f3);
     }
     
@@ -123,8 +133,28 @@ public class ProductFormPolynomial implements Polynomial {
 
     @Override
     public IntegerPolynomial mult(IntegerPolynomial poly2, int modulus) {
+        // even on 32-bit systems, LongPolynomial5 multiplies faster than IntegerPolynomial
+        if (LongPolynomial5.isSupported(modulus)) {
+            IntegerPolynomial poly2Pos = poly2.clone();
+            poly2Pos.modPositive(modulus);
+            return mult(new LongPolynomial5(poly2Pos, modulus)).toIntegerPolynomial();
+        }
+        
         IntegerPolynomial c = mult(poly2);
-        c.mod(modulus);
+        c.modPositive(modulus);
+        return c;
+    }
+    
+    /**
+     * Multiplies the polynomial with a packed polynomial, taking the values modulo the modulus of <code>b</code>.
+     * The intermediate results stay in packed form.
+     * @param b a polynomial
+     * @return <code>(f1*f2+f3)*b mod q</code>
+     */
+    LongPolynomial5 mult(LongPolynomial5 b) {
+        LongPolynomial5 c = b.mult(f1);
+        c = c.mult(f2);
+        c.add(b.mult(f3));
         return c;
     }
 
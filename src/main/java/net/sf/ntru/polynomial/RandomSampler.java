@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+import java.util.Random;
+
+/**
+ * Draws uniformly distributed random indices from a buffer of random bytes that is
+ * filled in large blocks, so the underlying random number generator is called only
+ * a few times per polynomial.<br/>
+ * This class is <b>not</b> thread safe.
+ */
+class RandomSampler {
+    private static final int REFILL_SIZE = 64;
+    
+    private Random rng;
+    private byte[] buf;
+    private int pos;
+    private int[] perm;   // a permutation of 0..perm.length-1
+    
+    /**
+     * Creates a new <code>RandomSampler</code>.
+     * @param rng the random number generator to draw bytes from
+     * @param expectedDraws the expected number of calls to {@link #nextInt(int)}; determines
+     *                      the size of the first block of random bytes
+     */
+    RandomSampler(Random rng, int expectedDraws) {
+        this.rng = rng;
+        buf = new byte[Math.max(4*expectedDraws, REFILL_SIZE)];
+        pos = buf.length;
+    }
+    
+    /**
+     * Returns a uniformly distributed random number between <code>0</code> (inclusive)
+     * and <code>n</code> (exclusive).<br/>
+     * Uses Lemire's multiply-and-shift method, which only rejects a 32-bit sample
+     * with probability <code>n/2^32</code>.
+     * @param n the upper bound; must be positive
+     * @return a random number less than <code>n</code>
+     */
+    int nextInt(int n) {
+        long m = nextUnsignedInt() * n;
+        long low = m & 0xFFFFFFFFL;
+        if (low < n) {
+            long threshold = (0x100000000L-n) % n;
+            while (low < threshold) {
+                m = nextUnsignedInt() * n;
+                low = m & 0xFFFFFFFFL;
+            }
+        }
+        return (int)(m >>> 32);
+    }
+    
+    private long nextUnsignedInt() {
+        if (pos > buf.length-4) {
+            if (buf.length > REFILL_SIZE)
+                buf = new byte[REFILL_SIZE];
+            rng.nextBytes(buf);
+            pos = 0;
+        }
+        long value = ((buf[pos]&0xFFL)<<24) | ((buf[pos+1]&0xFF)<<16) | ((buf[pos+2]&0xFF)<<8) | (buf[pos+3]&0xFF);
+        pos += 4;
+        return value;
+    }
+    
+    /**
+     * Picks <code>k</code> distinct random numbers between <code>0</code> and <code>N-1</code>
+     * using the first <code>k</code> steps of a Fisher-Yates shuffle.<br/>
+     * The returned array is owned by this <code>RandomSampler</code> and is overwritten by
+     * the next call to this method; it is a permutation of <code>0..N-1</code> whose first
+     * <code>k</code> elements are a uniformly random selection in random order.
+     * @param N the number of candidates
+     * @param k the number of elements to pick; must not exceed <code>N</code>
+     * @return an array of length <code>N</code>
+     */
+    int[] sample(int N, int k) {
+        // a partially shuffled permutation is still a permutation, so it only needs to be initialized once
+        if (perm==null || perm.length!=N) {
+            perm = new int[N];
+            for (int i=0; i<N; i++)
+                perm[i] = i;
+        }
+        
+        for (int i=0; i<k; i++) {
+            int j = i + nextInt(N-i);
+            int temp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = temp;
+        }
+        return perm;
+    }
+}
@@ -36,6 +36,7 @@ import java.util.Random;
 
 import net.sf.ntru.encrypt.IndexGenerator;
 import net.sf.ntru.encrypt.NtruEncrypt;
+import net.sf.ntru.encrypt.PassphraseBasedPRNG;
 import net.sf.ntru.exception.NtruException;
 import net.sf.ntru.util.ArrayEncoder;
 
@@ -138,13 +139,29 @@ public class SparseTernaryPolynomial implements TernaryPolynomial {
     
     /**
      * Generates a random polynomial with <code>numOnes</code> coefficients equal to 1,
-     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.
+     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.<br/>
+     * For a {@link PassphraseBasedPRNG}, indices are drawn with <code>nextInt(N)</code> and retried
+     * on collisions, as before, so the polynomial for a given passphrase is the same as in older releases.
      * @param N number of coefficients
      * @param numOnes number of 1's
      * @param numNegOnes number of -1's
      * @param rng the random number generator to use
      */
     public static SparseTernaryPolynomial generateRandom(int N, int numOnes, int numNegOnes, Random rng) {
+        if (rng instanceof PassphraseBasedPRNG)
+            return generateRandomLegacy(N, numOnes, numNegOnes, rng);
+        return generateRandom(N, numOnes, numNegOnes, new RandomSampler(rng, numOnes+numNegOnes));
+    }
+    
+    /**
+     * Generates a random polynomial by drawing indices and discarding the ones that are already
+     * taken. This is the algorithm earlier versions used for all random number generators.
+     * @param N number of coefficients
+     * @param numOnes number of 1's
+     * @param numNegOnes number of -1's
+     * @param rng the random number generator to use
+     */
+    private static SparseTernaryPolynomial generateRandomLegacy(int N, int numOnes, int numNegOnes, Random rng) {
         int[] coeffs = new int[N];   // an IntegerPolynomial-style representation of the new polynomial
         
         int[] ones = new int[numOnes];
@@ -174,6 +191,23 @@ public class SparseTernaryPolynomial implements TernaryPolynomial {
         return new SparseTernaryPolynomial(N, ones, negOnes);
     }
     
+    /**
+     * Generates a random polynomial with <code>numOnes</code> coefficients equal to 1,
+     * <code>numNegOnes</code> coefficients equal to -1, and the rest equal to 0.
+     * @param N number of coefficients
+     * @param numOnes number of 1's
+     * @param numNegOnes number of -1's
+     * @param sampler the source of random indices
+     */
+    static SparseTernaryPolynomial generateRandom(int N, int numOnes, int numNegOnes, RandomSampler sampler) {
+        int[] indices = sampler.sample(N, numOnes+numNegOnes);
+        int[] ones = Arrays.copyOfRange(indices, 0, numOnes);
+        Arrays.sort(ones);
+        int[] negOnes = Arrays.copyOfRange(indices, numOnes, numOnes+numNegOnes);
+        Arrays.sort(negOnes);
+        return new SparseTernaryPolynomial(N, ones, negOnes);
+    }
+    
     /**
      * Generates a blinding polynomial using an {@link IndexGenerator}.
      * @param ig an Index Generator
@@ -242,11 +276,21 @@ public class SparseTernaryPolynomial implements TernaryPolynomial {
     
     @Override
     public IntegerPolynomial mult(IntegerPolynomial poly2, int modulus) {
+        // even on 32-bit systems, LongPolynomial5 multiplies faster than IntegerPolynomial.
+        // Packing five operands per long instead of five coefficients was tried and is slower
+        // for N<=1087: it needs the same number of additions, and all operands fit in the L1 cache anyway.
+        if (LongPolynomial5.isSupported(modulus)) {
+            IntegerPolynomial poly2Pos = poly2.clone();
+            poly2Pos.modPositive(modulus);
+            LongPolynomial5 poly5 = new LongPolynomial5(poly2Pos, modulus);
+            return poly5.mult(this).toIntegerPolynomial();
+        }
+        
         IntegerPolynomial c = mult(poly2);
-        c.mod(modulus);
+        c.modPositive(modulus);
         return c;
     }
-
+    
     public BigIntPolynomial mult(BigIntPolynomial poly2) {
         BigInteger[] b = poly2.coeffs;
         if (b.length != N)
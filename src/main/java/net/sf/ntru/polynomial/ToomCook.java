@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+/**
+ * Toom-Cook 3-way multiplication of polynomials with <code>int</code> coefficients.<br/>
+ * All intermediate values are <code>long</code>s, and all arithmetic is done modulo 2<sup>64</sup>.
+ * Divisions by 3 are exact and are done by multiplying with the inverse of 3 mod 2<sup>64</sup>;
+ * each division by 2 is exact over the integers, so it only loses the most significant bit.
+ * The interpolation at each recursion level divides by 2 twice, so the low <code>64-2*depth</code>
+ * bits of the result are correct, which is far more than the 32 bits needed to reproduce
+ * the result of <code>int</code> arithmetic.<br/>
+ * Operands, intermediate results and products all live in one scratch array per thread,
+ * which is reused across calls, so a multiplication only allocates its result.
+ */
+class ToomCook {
+    /** Polynomials with fewer coefficients than this are multiplied using the schoolbook method */
+    private static final int SCHOOLBOOK_THRESHOLD = 40;
+    
+    /** the inverse of 3 modulo 2^64 */
+    private static final long INV3 = 0xAAAAAAAAAAAAAAABL;
+    
+    private static final ThreadLocal<long[]> SCRATCH = new ThreadLocal<long[]>();
+    
+    /**
+     * Multiplies two polynomials modulo <code>x^N-1</code>, where <code>N</code> is the
+     * number of coefficients. The result is identical to what <code>int</code> arithmetic produces.
+     * @param a a polynomial
+     * @param b another polynomial, must have the same number of coefficients as <code>a</code>
+     * @return the coefficients of <code>a*b mod (x^N-1)</code>
+     */
+    static int[] multCyclic(int[] a, int[] b) {
+        int[] c = new int[a.length];
+        multCyclic(a, b, c);
+        return c;
+    }
+    
+    /**
+     * Like {@link #multCyclic(int[], int[])} but stores the result in an existing array.
+     * @param a a polynomial
+     * @param b another polynomial, must have the same number of coefficients as <code>a</code>
+     * @param c an array to store the result in; can be the same array as <code>a</code> or <code>b</code>
+     */
+    static void multCyclic(int[] a, int[] b, int[] c) {
+        int N = a.length;
+        
+        // scratch layout: a, b, the 2N-1 coefficients of a*b, and space for the recursion
+        int bOff = N;
+        int cOff = 2 * N;
+        int sOff = 4*N - 1;
+        long[] s = getScratch(sOff + scratchSize(N));
+        for (int i=0; i<N; i++) {
+            s[i] = a[i];
+            s[bOff+i] = b[i];
+        }
+        
+        mult(s, 0, bOff, N, cOff, sOff);
+        
+        for (int i=0; i<N; i++)
+            c[i] = (int)s[cOff+i];
+        for (int i=N; i<2*N-1; i++)
+            c[i-N] += (int)s[cOff+i];
+    }
+    
+    /**
+     * Returns this thread's scratch array, enlarging it if necessary.
+     * @param size the minimum number of elements
+     * @return an array of length <code>size</code> or greater
+     */
+    private static long[] getScratch(int size) {
+        long[] s = SCRATCH.get();
+        if (s==null || s.length<size) {
+            s = new long[size];
+            SCRATCH.set(s);
+        }
+        return s;
+    }
+    
+    /**
+     * Returns the amount of scratch space {@link #mult(long[], int, int, int, int, int)} needs for a given length.
+     * @param n the number of coefficients of each operand
+     * @return the number of <code>long</code>s
+     */
+    private static int scratchSize(int n) {
+        if (n < SCHOOLBOOK_THRESHOLD)
+            return 0;
+        int k = (n+2) / 3;
+        return 8*k + 5*(2*k-1) + scratchSize(k);
+    }
+    
+    /**
+     * Multiplies two polynomials of the same length. Operands, result and scratch space are all in <code>s</code>.
+     * @param s the scratch array
+     * @param aOff offset of the first operand
+     * @param bOff offset of the second operand
+     * @param n the number of coefficients of each operand
+     * @param cOff offset of the <code>2n-1</code> coefficients of the product
+     * @param sOff offset of at least <code>scratchSize(n)</code> elements that are free to use
+     */
+    private static void mult(long[] s, int aOff, int bOff, int n, int cOff, int sOff) {
+        if (n < SCHOOLBOOK_THRESHOLD) {
+            multSchoolbook(s, aOff, bOff, n, cOff);
+            return;
+        }
+        
+        // split a into a0+a1*x^k+a2*x^(2k) and likewise for b; a2 and b2 are copied and padded to length k
+        int k = (n+2) / 3;
+        int rem = n - 2*k;
+        int a2Off = sOff;
+        int b2Off = a2Off + k;
+        int ap1Off = b2Off + k;
+        int am1Off = ap1Off + k;
+        int am2Off = am1Off + k;
+        int bp1Off = am2Off + k;
+        int bm1Off = bp1Off + k;
+        int bm2Off = bm1Off + k;
+        int rn = 2*k - 1;
+        int r0Off = bm2Off + k;
+        int r1Off = r0Off + rn;
+        int rm1Off = r1Off + rn;
+        int rm2Off = rm1Off + rn;
+        int rinfOff = rm2Off + rn;
+        int nextOff = rinfOff + rn;
+        
+        System.arraycopy(s, aOff+2*k, s, a2Off, rem);
+        System.arraycopy(s, bOff+2*k, s, b2Off, rem);
+        for (int i=rem; i<k; i++) {
+            s[a2Off+i] = 0;
+            s[b2Off+i] = 0;
+        }
+        
+        // evaluate at 0, 1, -1, -2, and infinity
+        for (int i=0; i<k; i++) {
+            long a0 = s[aOff+i];
+            long a1 = s[aOff+k+i];
+            long a2 = s[a2Off+i];
+            long t = a0 + a2;
+            s[ap1Off+i] = t + a1;
+            s[am1Off+i] = t - a1;
+            s[am2Off+i] = ((t-a1+a2)<<1) - a0;
+            long b0 = s[bOff+i];
+            long b1 = s[bOff+k+i];
+            long b2 = s[b2Off+i];
+            t = b0 + b2;
+            s[bp1Off+i] = t + b1;
+            s[bm1Off+i] = t - b1;
+            s[bm2Off+i] = ((t-b1+b2)<<1) - b0;
+        }
+        
+        mult(s, aOff, bOff, k, r0Off, nextOff);
+        mult(s, ap1Off, bp1Off, k, r1Off, nextOff);
+        mult(s, am1Off, bm1Off, k, rm1Off, nextOff);
+        mult(s, am2Off, bm2Off, k, rm2Off, nextOff);
+        mult(s, a2Off, b2Off, k, rinfOff, nextOff);
+        
+        // interpolate (Bodrato's sequence) in place: r(-1) becomes r2, r(-2) becomes r3
+        for (int i=0; i<rn; i++) {
+            long r0 = s[r0Off+i];
+            long r1 = s[r1Off+i];
+            long rm1 = s[rm1Off+i];
+            long rinf = s[rinfOff+i];
+            long r3 = (s[rm2Off+i]-r1) * INV3;
+            r1 = (r1-rm1) >> 1;
+            long r2 = rm1 - r0;
+            r3 = ((r2-r3) >> 1) + (rinf<<1);
+            r2 = r2 + r1 - rinf;
+            r1 = r1 - r3;
+            s[r1Off+i] = r1;
+            s[rm1Off+i] = r2;
+            s[rm2Off+i] = r3;
+        }
+        
+        // c = r0 + r1*x^k + r2*x^(2k) + r3*x^(3k) + rinf*x^(4k); coefficients above 2n-2 are zero
+        int cn = 2*n - 1;
+        System.arraycopy(s, r0Off, s, cOff, rn);
+        for (int i=rn; i<cn; i++)
+            s[cOff+i] = 0;
+        addShifted(s, cOff, cn, r1Off, rn, k);
+        addShifted(s, cOff, cn, rm1Off, rn, 2*k);
+        addShifted(s, cOff, cn, rm2Off, rn, 3*k);
+        addShifted(s, cOff, cn, rinfOff, rn, 4*k);
+    }
+    
+    /** Adds <code>x^shift*b</code> to <code>c</code>, ignoring coefficients that don't fit into <code>c</code> */
+    private static void addShifted(long[] s, int cOff, int cn, int bOff, int bn, int shift) {
+        int len = Math.min(bn, cn-shift);
+        for (int i=0; i<len; i++)
+            s[cOff+shift+i] += s[bOff+i];
+    }
+    
+    private static void multSchoolbook(long[] s, int aOff, int bOff, int n, int cOff) {
+        for (int i=0; i<2*n-1; i++)
+            s[cOff+i] = 0;
+        for (int i=0; i<n; i++) {
+            long ai = s[aOff+i];
+            if (ai != 0)
+                for (int j=0; j<n; j++)
+                    s[cOff+i+j] += ai * s[bOff+j];
+        }
+    }
+}
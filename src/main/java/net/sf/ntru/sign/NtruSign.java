@@ -34,11 +34,11 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -55,6 +55,9 @@ import net.sf.ntru.polynomial.Resultant;
 import net.sf.ntru.sign.SignatureParameters.BasisType;
 import net.sf.ntru.sign.SignatureParameters.KeyGenAlg;
 import net.sf.ntru.sign.SignatureParameters.TernaryPolynomialType;
+import net.sf.ntru.util.KeyGenerationMonitor;
+import net.sf.ntru.util.RandomSource;
+import net.sf.ntru.util.ThreadLocalRandomSource;
 
 /**
  * Signs, verifies data and generates key pairs.
@@ -69,14 +72,30 @@ public class NtruSign {
     private MessageDigest hashAlg;
     private SignatureKeyPair signingKeyPair;
     private SignaturePublicKey verificationKey;
+    private RandomSource randomSource;
     
     /**
-     * Constructs a new instance with a set of signature parameters.
+     * Constructs a new instance with a set of signature parameters.<br/>
+     * Random numbers are drawn from {@link ThreadLocalRandomSource#getDefault()}.
      * @param params signature parameters
      * @deprecated the NtruSign algorithm is broken
      */
+    @Deprecated
     public NtruSign(SignatureParameters params) {
+        this(params, ThreadLocalRandomSource.getDefault());
+    }
+    
+    /**
+     * Constructs a new instance with a set of signature parameters and a source of
+     * random numbers for key generation.
+     * @param params signature parameters
+     * @param randomSource the source of random numbers
+     * @deprecated the NtruSign algorithm is broken
+     */
+    @Deprecated
+    public NtruSign(SignatureParameters params, RandomSource randomSource) {
         this.params = params;
+        this.randomSource = randomSource;
     }
     
     /**
@@ -85,6 +104,17 @@ public class NtruSign {
      * @return a key pair
      */
     public SignatureKeyPair generateKeyPair() {
+        return generateKeyPair(new KeyGenerationMonitor());
+    }
+    
+    /**
+     * Generates a new signature key pair like {@link #generateKeyPair()}, but gives up when the
+     * monitor's deadline passes, the monitor is cancelled, or the current thread is interrupted.
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public SignatureKeyPair generateKeyPair(KeyGenerationMonitor monitor) {
         int processors = Runtime.getRuntime().availableProcessors();
         SignaturePrivateKey priv = new SignaturePrivateKey(params);
         int B = params.B;
@@ -92,7 +122,7 @@ public class NtruSign {
         if (processors == 1)
             // generate all B+1 bases in the current thread
             for (int k=B; k>=0; k--)
-                priv.add(generateBoundedBasis());
+                priv.add(generateBoundedBasis(monitor));
         else {
             List<Future<Basis>> bases = new ArrayList<Future<Basis>>();
             
@@ -101,19 +131,25 @@ public class NtruSign {
             if (numThreads > 0) {
                 ExecutorService executor = Executors.newFixedThreadPool(numThreads);
                 for (int k=B-1; k>=0; k--)
-                    bases.add(executor.submit(new BasisGenerationTask()));
+                    bases.add(executor.submit(new BasisGenerationTask(monitor)));
                 executor.shutdown();
             }
             
             // generate the remaining basis in the current thread
-            Basis basis0 = generateBoundedBasis();
+            Basis basis0 = generateBoundedBasis(monitor);
             
             // build the private key
             for (Future<Basis> basis: bases)
                 try {
                     priv.add(basis.get());
-                } catch (Exception e) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    monitor.checkpoint();   // records the interruption so the other threads stop, and throws
                     throw new NtruException(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof NtruException)
+                        throw (NtruException)e.getCause();
+                    throw new NtruException(e.getCause());
                 }
             priv.add(basis0);
         }
@@ -131,16 +167,27 @@ public class NtruSign {
      * @return a key pair
      */
     public SignatureKeyPair generateKeyPairSingleThread() {
+        return generateKeyPairSingleThread(new KeyGenerationMonitor());
+    }
+    
+    /**
+     * Generates a new signature key pair in a single thread, giving up when the monitor's deadline
+     * passes, the monitor is cancelled, or the current thread is interrupted.
+     * @param monitor limits the time key generation may take, and counts the attempts
+     * @return a key pair
+     * @throws NtruException if key generation was aborted; see {@link KeyGenerationMonitor} for the possible causes
+     */
+    public SignatureKeyPair generateKeyPairSingleThread(KeyGenerationMonitor monitor) {
         SignaturePrivateKey priv = new SignaturePrivateKey(params);
         SignaturePublicKey pub = null;
         
-        Basis pubBasis = generateBoundedBasis();
+        Basis pubBasis = generateBoundedBasis(monitor);
         pub = new SignaturePublicKey(pubBasis.h, params.q);
         pubBasis.h = null;   // remove the public polynomial h from the private key
         priv.add(pubBasis);
         
         for (int k=params.B; k>0; k--) {
-            Basis basis = generateBoundedBasis();
+            Basis basis = generateBoundedBasis(monitor);
             priv.add(basis);
         }
         
@@ -379,11 +426,12 @@ public class NtruSign {
     
     /**
      * Creates a basis such that <code>|F| &lt; keyNormBound</code> and <code>|G| &lt; keyNormBound</code>
+     * @param monitor checked before each attempt
      * @return a NtruSign basis
      */
-    Basis generateBoundedBasis() {
+    Basis generateBoundedBasis(KeyGenerationMonitor monitor) {
         while (true) {
-            FGBasis basis = generateBasis();
+            FGBasis basis = generateBasis(monitor);
             if (basis.isNormOk())
                 return basis;
         }
@@ -392,9 +440,10 @@ public class NtruSign {
     /**
      * Creates a NtruSign basis consisting of polynomials <code>f, g, F, G, h</code>.<br/>
      * If <code>KeyGenAlg=FLOAT</code>, the basis may not be valid and this method must be rerun if that is the case.<br/>
-     * @see #generateBoundedBasis()
+     * @param monitor checked before each attempt
+     * @see #generateBoundedBasis(KeyGenerationMonitor)
      */
-    private FGBasis generateBasis() {
+    private FGBasis generateBasis(KeyGenerationMonitor monitor) {
         int N = params.N;
         int q = params.q;
         int d = params.d;
@@ -415,9 +464,10 @@ public class NtruSign {
         int _2n1 = 2*N+1;
         boolean primeCheck = params.primeCheck;
         
-        Random rng = new SecureRandom();
+        Random rng = randomSource.getRandom();
         do {
             do {
+                monitor.beginFAttempt();
                 f = params.polyType==TernaryPolynomialType.SIMPLE ?
                         DenseTernaryPolynomial.generateRandom(N, d+1, d, rng) :
                         ProductFormPolynomial.generateRandom(N, d1, d2, d3+1, d3, rng);
@@ -430,6 +480,7 @@ public class NtruSign {
         do {
             do {
                 do {
+                    monitor.beginGAttempt();
                     g = params.polyType==TernaryPolynomialType.SIMPLE ?
                             DenseTernaryPolynomial.generateRandom(N, d+1, d, rng) :
                             ProductFormPolynomial.generateRandom(N, d1, d2, d3+1, d3, rng);
@@ -567,10 +618,15 @@ public class NtruSign {
     }
     
     private class BasisGenerationTask implements Callable<Basis> {
+        private KeyGenerationMonitor monitor;
+        
+        BasisGenerationTask(KeyGenerationMonitor monitor) {
+            this.monitor = monitor;
+        }
 
         @Override
         public Basis call() throws Exception {
-            return generateBoundedBasis();
+            return generateBoundedBasis(monitor);
         }
     }
     
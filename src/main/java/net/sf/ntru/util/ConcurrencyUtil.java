@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.ntru.exception.NtruException;
+
+/**
+ * Provides a thread pool that is shared by all parts of the library that do work in parallel.
+ */
+public class ConcurrencyUtil {
+    private static volatile ExecutorService SHARED_EXECUTOR;
+    
+    /**
+     * Returns a fixed-size thread pool with one thread per available processor.
+     * The pool is created on first use. Its threads are daemon threads, so they
+     * don't keep the JVM from exiting; the pool should not be shut down by the caller.
+     * @return the shared executor
+     */
+    public static ExecutorService getSharedExecutor() {
+        if (SHARED_EXECUTOR == null)
+            synchronized (ConcurrencyUtil.class) {
+                if (SHARED_EXECUTOR == null)
+                    SHARED_EXECUTOR = Executors.newFixedThreadPool(getNumThreads(), new DaemonThreadFactory());
+            }
+        return SHARED_EXECUTOR;
+    }
+    
+    /**
+     * Replaces the shared thread pool, for example with a <code>ForkJoinPool</code> or an
+     * application-wide executor. The previous pool is not shut down.<br/>
+     * The pool should have at least {@link #getNumThreads()} threads, or parallel operations
+     * will not use all processors.
+     * @param executor the new shared executor, or <code>null</code> to go back to the default pool
+     */
+    public static void setSharedExecutor(ExecutorService executor) {
+        synchronized (ConcurrencyUtil.class) {
+            SHARED_EXECUTOR = executor;
+        }
+    }
+    
+    /**
+     * Runs a list of tasks in parallel and returns their results in the same order.<br/>
+     * All tasks but the first are submitted to <code>executor</code>; the first one runs in the current
+     * thread. Afterwards, the current thread also runs every task the pool hasn't started yet, so this
+     * method never waits for a task that isn't running. That makes it safe to call from a pool thread.
+     * @param executor the thread pool to use
+     * @param tasks the tasks to run
+     * @return the results of the tasks
+     * @throws NtruException if a task threw an exception (the <code>NtruException</code> the task threw
+     *                       is passed through), or the current thread was interrupted
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks) {
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task: tasks)
+            futures.add(new FutureTask<T>(task));
+        for (int i=1; i<futures.size(); i++)
+            executor.execute(futures.get(i));
+        
+        List<T> results = new ArrayList<T>(futures.size());
+        for (FutureTask<T> future: futures) {
+            future.run();
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NtruException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof NtruException)
+                    throw (NtruException)e.getCause();
+                throw new NtruException(e.getCause());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Returns the number of threads work should be split into.
+     * @return the number of available processors
+     */
+    public static int getNumThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = defaultFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.ntru.exception.NtruException;
+
+/**
+ * A deterministic random bit generator based on SHA-512, as specified in
+ * <a href="http://csrc.nist.gov/publications/nistpubs/800-90A/SP800-90A.pdf">NIST SP 800-90A</a>
+ * section 10.1.1 (Hash_DRBG).<br/>
+ * Requests for fewer than {@link #BLOCK_SIZE} bytes, including <code>nextInt()</code> etc., are
+ * served from a buffer that is filled {@link #BLOCK_SIZE} bytes at a time; larger requests are
+ * generated directly into the caller's array. Each fill and each large request counts as one
+ * generate request. After {@link #RESEED_INTERVAL} requests, the generator reseeds itself
+ * from a <code>SecureRandom</code> that is shared by all instances.<br/>
+ * To preserve backtracking resistance, bytes are wiped from the buffer as soon as they are
+ * returned, and the whole buffer is discarded on reseed. The buffer only ever holds output
+ * that has not been returned yet.<br/>
+ * This class is <b>not</b> thread safe; see {@link ThreadLocalRandomSource}.
+ */
+public class HashDrbg extends Random {
+    private static final long serialVersionUID = 1914736207416437129L;
+    
+    /** the number of bytes buffered for small requests */
+    public static final int BLOCK_SIZE = 1024;
+    /** the number of generate requests after which the generator is reseeded */
+    public static final int RESEED_INTERVAL = 1 << 16;
+    
+    private static final int MAX_REQUEST_LEN = 1 << 16;   // max_number_of_bits_per_request is 2^19
+    private static final int SEED_LEN = 111;   // seedlen for SHA-512 is 888 bits
+    private static final int HASH_LEN = 64;
+    private static final int ENTROPY_LEN = 32;
+    private static final int NONCE_LEN = 16;
+    private static final SecureRandom ENTROPY_SOURCE = new SecureRandom();
+    
+    private MessageDigest hash;
+    private byte[] V;
+    private byte[] C;
+    private long reseedCounter;
+    private byte[] block;   // generated random data that has not been returned yet
+    private int pos;   // next index in block; everything before it is zero
+    
+    /**
+     * Creates a new <code>HashDrbg</code> seeded from the shared <code>SecureRandom</code>.
+     * @throws NtruException if the JRE doesn't implement SHA-512
+     */
+    public HashDrbg() {
+        this(getEntropy(ENTROPY_LEN), getEntropy(NONCE_LEN), null);
+    }
+    
+    /**
+     * Creates a new <code>HashDrbg</code> from explicit seed material. Two instances
+     * created from the same seed material produce the same output until they reseed.
+     * @param entropy the entropy input; should contain at least 256 bits of entropy
+     * @param nonce a nonce
+     * @param personalization a personalization string; can be <code>null</code>
+     * @throws NtruException if the JRE doesn't implement SHA-512
+     */
+    public HashDrbg(byte[] entropy, byte[] nonce, byte[] personalization) {
+        try {
+            hash = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new NtruException(e);
+        }
+        V = hashDf(entropy, nonce, personalization);
+        C = hashDf(new byte[] {0}, V, null);
+        reseedCounter = 1;
+        block = new byte[BLOCK_SIZE];
+        pos = BLOCK_SIZE;
+    }
+    
+    /**
+     * Reseeds the generator with fresh entropy from the shared <code>SecureRandom</code>.
+     * @param additionalInput additional input to mix into the state; can be <code>null</code>
+     */
+    public void reseed(byte[] additionalInput) {
+        V = hashDf(new byte[] {1}, V, concat(getEntropy(ENTROPY_LEN), additionalInput));
+        C = hashDf(new byte[] {0}, V, null);
+        reseedCounter = 1;
+        // discard output generated from the old state
+        Arrays.fill(block, (byte)0);
+        pos = BLOCK_SIZE;
+    }
+    
+    /**
+     * Mixes a seed into the state of the generator. Unlike with {@link Random#setSeed(long)},
+     * this does not make the output predictable.
+     * @param seed
+     */
+    @Override
+    public void setSeed(long seed) {
+        // Random's constructor calls this method before the state is initialized
+        if (V == null)
+            return;
+        byte[] input = new byte[8];
+        for (int i=0; i<8; i++)
+            input[i] = (byte)(seed >>> (56-8*i));
+        reseed(input);
+    }
+    
+    @Override
+    protected int next(int bits) {
+        if (pos > BLOCK_SIZE-4)
+            generateBlock();
+        int value = ((block[pos]&0xFF)<<24) | ((block[pos+1]&0xFF)<<16) | ((block[pos+2]&0xFF)<<8) | (block[pos+3]&0xFF);
+        block[pos] = block[pos+1] = block[pos+2] = block[pos+3] = 0;
+        pos += 4;
+        return value >>> (32-bits);
+    }
+    
+    @Override
+    public void nextBytes(byte[] bytes) {
+        int i = 0;
+        while (i < bytes.length) {
+            int remaining = bytes.length - i;
+            if (pos>=BLOCK_SIZE && remaining>=BLOCK_SIZE) {
+                // large request: don't go through the buffer
+                int len = Math.min(remaining, MAX_REQUEST_LEN);
+                generate(bytes, i, len);
+                i += len;
+            }
+            else {
+                if (pos >= BLOCK_SIZE)
+                    generateBlock();
+                int len = Math.min(remaining, BLOCK_SIZE-pos);
+                System.arraycopy(block, pos, bytes, i, len);
+                Arrays.fill(block, pos, pos+len, (byte)0);
+                pos += len;
+                i += len;
+            }
+        }
+    }
+    
+    /** Fills <code>block</code> using the Hash_DRBG generate function and resets <code>pos</code>. */
+    private void generateBlock() {
+        generate(block, 0, BLOCK_SIZE);
+        pos = 0;
+    }
+    
+    /**
+     * The Hash_DRBG generate function. Reseeds first if the reseed interval has been reached.
+     * @param output the array to write the random bytes to
+     * @param off the index of the first byte to write
+     * @param len the number of bytes to write; at most <code>MAX_REQUEST_LEN</code>
+     */
+    private void generate(byte[] output, int off, int len) {
+        if (reseedCounter > RESEED_INTERVAL)
+            reseed(null);
+        
+        // Hashgen
+        byte[] data = V.clone();
+        for (int i=0; i<len; i+=HASH_LEN) {
+            hash.update(data);
+            byte[] w = hash.digest();
+            System.arraycopy(w, 0, output, off+i, Math.min(HASH_LEN, len-i));
+            addTo(data, 1);
+        }
+        
+        // V = V + H + C + reseed_counter
+        hash.update((byte)3);
+        hash.update(V);
+        byte[] H = hash.digest();
+        addTo(V, H);
+        addTo(V, C);
+        addTo(V, reseedCounter);
+        reseedCounter++;
+    }
+    
+    /**
+     * The Hash_df derivation function. Hashes the concatenation of the arguments to
+     * <code>SEED_LEN</code> bytes.
+     * @param a
+     * @param b
+     * @param c can be <code>null</code>
+     * @return
+     */
+    private byte[] hashDf(byte[] a, byte[] b, byte[] c) {
+        byte[] result = new byte[SEED_LEN];
+        int numBits = SEED_LEN * 8;
+        byte counter = 1;
+        for (int i=0; i<SEED_LEN; i+=HASH_LEN) {
+            hash.update(counter);
+            hash.update((byte)(numBits>>>24));
+            hash.update((byte)(numBits>>>16));
+            hash.update((byte)(numBits>>>8));
+            hash.update((byte)numBits);
+            hash.update(a);
+            hash.update(b);
+            if (c != null)
+                hash.update(c);
+            byte[] h = hash.digest();
+            System.arraycopy(h, 0, result, i, Math.min(HASH_LEN, SEED_LEN-i));
+            counter++;
+        }
+        return result;
+    }
+    
+    /**
+     * Adds a big-endian number to another, modulo <code>2^(8*a.length)</code>.
+     * @param a the number to add to; must be at least as long as <code>b</code>
+     * @param b
+     */
+    private static void addTo(byte[] a, byte[] b) {
+        int carry = 0;
+        int j = b.length - 1;
+        for (int i=a.length-1; i>=0; i--, j--) {
+            int sum = (a[i]&0xFF) + carry;
+            if (j >= 0)
+                sum += b[j] & 0xFF;
+            else if (carry == 0)
+                break;
+            a[i] = (byte)sum;
+            carry = sum >>> 8;
+        }
+    }
+    
+    /**
+     * Adds a non-negative <code>long</code> to a big-endian number, modulo <code>2^(8*a.length)</code>.
+     * @param a
+     * @param b
+     */
+    private static void addTo(byte[] a, long b) {
+        long carry = b;
+        for (int i=a.length-1; i>=0 && carry!=0; i--) {
+            long sum = (a[i]&0xFF) + (carry&0xFF);
+            a[i] = (byte)sum;
+            carry = (carry>>>8) + (sum>>>8);
+        }
+    }
+    
+    private static byte[] concat(byte[] a, byte[] b) {
+        if (b == null)
+            return a;
+        byte[] c = new byte[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+    
+    private static byte[] getEntropy(int numBytes) {
+        byte[] bytes = new byte[numBytes];
+        synchronized (ENTROPY_SOURCE) {
+            ENTROPY_SOURCE.nextBytes(bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ntru.exception.NtruException;
+
+/**
+ * Limits how long key generation may run and counts the candidate polynomials it tries.<br/>
+ * Key generation calls {@link #beginFAttempt()} or {@link #beginGAttempt()} before generating each
+ * candidate for the private polynomials <code>f</code> and <code>g</code>. These methods throw an
+ * <code>NtruException</code> if the deadline has passed, {@link #cancel()} has been called, or the
+ * calling thread has been interrupted; the cause of the exception is a <code>TimeoutException</code>,
+ * a <code>CancellationException</code>, or an <code>InterruptedException</code>, respectively.
+ * Once one thread has aborted, all other threads working for the same monitor abort at their next
+ * attempt, so pool threads don't keep working on an abandoned key pair.<br/>
+ * A monitor should only be used for one key generation. This class is thread safe.
+ */
+public class KeyGenerationMonitor {
+    private boolean hasDeadline;
+    private long deadline;   // a System.nanoTime() value
+    private volatile Exception abortReason;
+    private AtomicInteger fAttempts;
+    private AtomicInteger gAttempts;
+    
+    /**
+     * Creates a monitor without a time limit. Key generation can still be cancelled
+     * or interrupted.
+     */
+    public KeyGenerationMonitor() {
+        fAttempts = new AtomicInteger();
+        gAttempts = new AtomicInteger();
+    }
+    
+    /**
+     * Creates a monitor whose deadline is a given amount of time from now.
+     * @param timeout the maximum time key generation may take
+     * @param unit the unit of <code>timeout</code>
+     */
+    public KeyGenerationMonitor(long timeout, TimeUnit unit) {
+        this();
+        hasDeadline = true;
+        deadline = System.nanoTime() + unit.toNanos(timeout);
+    }
+    
+    /**
+     * Makes key generation abort at the next attempt.
+     */
+    public void cancel() {
+        abort(new CancellationException("Key generation cancelled"));
+    }
+    
+    /**
+     * Tells whether key generation has been aborted, or will be aborted at the next attempt.
+     * @return <code>true</code> if the monitor has been cancelled or the deadline has passed
+     */
+    public boolean isAborted() {
+        return abortReason!=null || (hasDeadline && System.nanoTime()-deadline>0);
+    }
+    
+    /**
+     * Checks whether key generation may continue and counts a new candidate for <code>f</code>.
+     * @throws NtruException if key generation must abort
+     */
+    public void beginFAttempt() {
+        checkpoint();
+        fAttempts.incrementAndGet();
+    }
+    
+    /**
+     * Checks whether key generation may continue and counts a new candidate for <code>g</code>.
+     * @throws NtruException if key generation must abort
+     */
+    public void beginGAttempt() {
+        checkpoint();
+        gAttempts.incrementAndGet();
+    }
+    
+    /**
+     * Checks whether key generation may continue.
+     * @throws NtruException if key generation must abort
+     */
+    public void checkpoint() {
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();   // leave the interrupt status set for the caller
+            abort(new InterruptedException("Key generation interrupted"));
+        }
+        if (hasDeadline && System.nanoTime()-deadline>0)
+            abort(new TimeoutException("Key generation deadline exceeded"));
+        Exception reason = abortReason;
+        if (reason != null)
+            throw new NtruException(reason);
+    }
+    
+    private synchronized void abort(Exception reason) {
+        if (abortReason == null)
+            abortReason = reason;
+    }
+    
+    /**
+     * Returns the number of candidates for <code>f</code> that have been generated so far, including
+     * candidates that turned out not to be invertible and candidates tested speculatively in other threads.
+     * @return the number of attempts
+     */
+    public int getFAttempts() {
+        return fAttempts.get();
+    }
+    
+    /**
+     * Returns the number of candidates for <code>g</code> that have been generated so far.
+     * @return the number of attempts
+     */
+    public int getGAttempts() {
+        return gAttempts.get();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.util;
+
+/**
+ * The default {@link RandomSource}. Each thread gets its own {@link HashDrbg}, so
+ * drawing random numbers does not involve any locking. The generators are seeded from
+ * a shared <code>SecureRandom</code> when they are first used by a thread and whenever
+ * they reseed themselves.
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+    private static final ThreadLocalRandomSource DEFAULT = new ThreadLocalRandomSource();
+    
+    private ThreadLocal<HashDrbg> drbg = new ThreadLocal<HashDrbg>() {
+        @Override
+        protected HashDrbg initialValue() {
+            return new HashDrbg();
+        }
+    };
+    
+    /**
+     * Returns an instance that is shared by all parts of the library that don't
+     * have a <code>RandomSource</code> passed to them.
+     * @return the shared instance
+     */
+    public static ThreadLocalRandomSource getDefault() {
+        return DEFAULT;
+    }
+    
+    @Override
+    public HashDrbg getRandom() {
+        return drbg.get();
+    }
+}
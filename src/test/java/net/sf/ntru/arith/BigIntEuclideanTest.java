@@ -29,6 +29,7 @@ package net.sf.ntru.arith;
 import static org.junit.Assert.assertEquals;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import net.sf.ntru.arith.BigIntEuclidean;
 
@@ -48,4 +49,35 @@ public class BigIntEuclideanTest {
         assertEquals(BigInteger.valueOf(-1), r.y);
         assertEquals(BigInteger.valueOf(21), r.gcd);
     }
+    
+    /** Compares Lehmer's algorithm with the textbook algorithm */
+    @Test
+    public void testLehmer() {
+        Random rng = new Random();
+        for (int i=0; i<200; i++) {
+            BigInteger a = new BigInteger(100+rng.nextInt(3000), rng);
+            BigInteger b = new BigInteger(100+rng.nextInt(3000), rng);
+            if (i%4 == 0) {
+                // common factor
+                BigInteger c = new BigInteger(200, rng);
+                a = a.multiply(c);
+                b = b.multiply(c);
+            }
+            if (i%5 == 0)
+                b = a.add(BigInteger.ONE);
+            if (i%7 == 0)
+                b = a.multiply(BigInteger.valueOf(3));
+            if (rng.nextBoolean())
+                a = a.negate();
+            if (rng.nextBoolean())
+                b = b.negate();
+            
+            BigIntEuclidean expected = BigIntEuclidean.calculateClassical(a, b);
+            BigIntEuclidean r = BigIntEuclidean.calculate(a, b);
+            assertEquals(expected.x, r.x);
+            assertEquals(expected.y, r.y);
+            assertEquals(expected.gcd, r.gcd);
+            assertEquals(r.gcd, r.x.multiply(a).add(r.y.multiply(b)));
+        }
+    }
 }
\ No newline at end of file
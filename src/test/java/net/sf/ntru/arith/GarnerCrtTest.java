@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.arith;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GarnerCrtTest {
+    
+    @Test
+    public void testReconstruct() {
+        Random rng = new Random();
+        GarnerCrt crt = new GarnerCrt();
+        BigInteger P = BigInteger.ONE;
+        BigInteger p = BigInteger.valueOf(Integer.MAX_VALUE);
+        for (int i=0; i<40; i++) {
+            crt.addPrime(p.intValue());
+            P = P.multiply(p);
+            p = BigInteger.valueOf(p.intValue() - 2);
+            while (!p.isProbablePrime(100))
+                p = BigInteger.valueOf(p.intValue() - 2);
+        }
+        int n = crt.getNumPrimes();
+        assertEquals(40, n);
+        
+        for (int i=0; i<100; i++) {
+            BigInteger x = new BigInteger(P.bitLength()-1, rng);
+            if (i%2 == 1)
+                x = x.negate();
+            if (i == 98)
+                x = P.shiftRight(1);   // largest positive value
+            if (i == 99)
+                x = P.shiftRight(1).negate();   // equivalent to P/2+1 which is negative
+            
+            int[] digits = new int[n];
+            for (int j=0; j<n; j++) {
+                int residue = x.mod(BigInteger.valueOf(crt.getPrime(j))).intValue();
+                digits[j] = crt.digit(j, residue, digits);
+            }
+            assertEquals(x.mod(P), crt.toBigInteger(digits, n));
+            assertEquals(x, crt.toCenteredBigInteger(digits, n));
+            assertEquals(x.signum() < 0, crt.isNegative(digits, n));
+        }
+    }
+    
+    @Test
+    public void testSmallPrimes() {
+        GarnerCrt crt = new GarnerCrt();
+        crt.addPrime(3);
+        crt.addPrime(5);
+        crt.addPrime(7);
+        
+        // 52 = 1 + 2*3 + 3*15
+        int[] digits = new int[3];
+        digits[0] = crt.digit(0, 52%3, digits);
+        digits[1] = crt.digit(1, 52%5, digits);
+        digits[2] = crt.digit(2, 52%7, digits);
+        assertEquals(1, digits[0]);
+        assertEquals(2, digits[1]);
+        assertEquals(3, digits[2]);
+        assertEquals(BigInteger.valueOf(52), crt.toBigInteger(digits, 3));
+        assertEquals(BigInteger.valueOf(52), crt.toCenteredBigInteger(digits, 3));
+        assertEquals(BigInteger.valueOf(7), crt.toCenteredBigInteger(digits, 2));   // 52 mod 15
+        digits[1] = 3;
+        assertEquals(BigInteger.valueOf(-5), crt.toCenteredBigInteger(digits, 2));   // 1+3*3 = 10 mod 15
+        assertEquals(BigInteger.ONE, crt.toCenteredBigInteger(digits, 1));
+    }
+}
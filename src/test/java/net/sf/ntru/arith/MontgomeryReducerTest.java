@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.arith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import net.sf.ntru.exception.NtruException;
+
+import org.junit.Test;
+
+public class MontgomeryReducerTest {
+    
+    @Test
+    public void testMultiply() {
+        Random rng = new Random();
+        for (int modulus: new int[] {3, 4507, 46337, 2147483587, Integer.MAX_VALUE}) {
+            MontgomeryReducer mont = new MontgomeryReducer(modulus);
+            BigInteger modulusBig = BigInteger.valueOf(modulus);
+            for (int i=0; i<1000; i++) {
+                int a = rng.nextInt(modulus);
+                if (rng.nextBoolean())
+                    a = -a;
+                int b = rng.nextInt(modulus);
+                int expected = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).mod(modulusBig).intValue();
+                assertEquals(expected, mont.multiply(a, mont.toMontgomery(b)));
+            }
+        }
+    }
+    
+    @Test
+    public void testPow() {
+        Random rng = new Random();
+        for (int modulus: new int[] {3, 4507, 2147483587, Integer.MAX_VALUE}) {
+            MontgomeryReducer mont = new MontgomeryReducer(modulus);
+            BigInteger modulusBig = BigInteger.valueOf(modulus);
+            assertEquals(1, mont.pow(rng.nextInt(), 0));
+            for (int i=0; i<100; i++) {
+                int a = rng.nextInt();
+                int b = rng.nextInt(2000);
+                int expected = BigInteger.valueOf(a).modPow(BigInteger.valueOf(b), modulusBig).intValue();
+                assertEquals(expected, mont.pow(a, b));
+            }
+        }
+    }
+    
+    @Test
+    public void testInverse() {
+        Random rng = new Random();
+        for (int modulus: new int[] {3, 5, 4507, 2147483587, Integer.MAX_VALUE}) {
+            MontgomeryReducer mont = new MontgomeryReducer(modulus);
+            BigInteger modulusBig = BigInteger.valueOf(modulus);
+            assertEquals(1, mont.inverse(1));
+            assertEquals(modulus-1, mont.inverse(-1));
+            for (int i=0; i<1000; i++) {
+                int a = rng.nextInt();
+                if (a%modulus == 0)
+                    continue;
+                int expected = BigInteger.valueOf(a).modInverse(modulusBig).intValue();
+                assertEquals(expected, mont.inverse(a));
+            }
+        }
+        
+        // composite modulus
+        MontgomeryReducer mont = new MontgomeryReducer(15);
+        assertEquals(13, mont.inverse(7));
+        try {
+            mont.inverse(6);
+            fail();
+        } catch (NtruException e) {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.encrypt;
+
+import static net.sf.ntru.encrypt.EncryptionParameters.APR2011_439_FAST;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.sf.ntru.exception.NtruException;
+import net.sf.ntru.util.RandomSource;
+
+import org.junit.Test;
+
+public class KeyPairReservoirTest {
+    
+    @Test
+    public void testTake() throws InterruptedException {
+        NtruEncrypt ntru = new NtruEncrypt(APR2011_439_FAST);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        KeyPairReservoir reservoir = new KeyPairReservoir(ntru, 5, 2, executor);
+        waitForRefill(reservoir);
+        assertEquals(5, reservoir.size());
+        assertEquals(1, reservoir.getNumRefills());
+        assertTrue(reservoir.getLastRefillLag() > 0);
+        
+        // every key pair should be valid and should only be handed out once
+        byte[] plainText = "secret encrypted text".getBytes();
+        Set<EncryptionKeyPair> keyPairs = new HashSet<EncryptionKeyPair>();
+        for (int i=0; i<20; i++) {
+            EncryptionKeyPair kp = reservoir.take();
+            assertTrue(keyPairs.add(kp));
+            byte[] encrypted = ntru.encrypt(plainText, kp.getPublic());
+            assertArrayEquals(plainText, ntru.decrypt(encrypted, kp));
+        }
+        assertEquals(20, reservoir.getHits() + reservoir.getMisses());
+        assertTrue(reservoir.getHits() >= 3);
+        
+        waitForRefill(reservoir);
+        assertTrue(reservoir.size() > 2);
+        assertTrue(reservoir.getNumRefills() > 1);
+        assertTrue(reservoir.getMaxRefillLag() >= reservoir.getLastRefillLag());
+        
+        reservoir.shutdown();
+        assertEquals(0, reservoir.size());
+        assertTrue(reservoir.take().isValid());
+        executor.shutdown();
+    }
+    
+    // a rejected refill must not block future refills, and take() must still work
+    @Test
+    public void testRejectedRefill() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        KeyPairReservoir reservoir = new KeyPairReservoir(new NtruEncrypt(APR2011_439_FAST), 5, 2, executor);
+        assertFalse(reservoir.isRefilling());
+        assertEquals(1, reservoir.getNumFailedRefills());
+        assertTrue(reservoir.getLastRefillFailure() instanceof RejectedExecutionException);
+        
+        assertTrue(reservoir.take().isValid());
+        assertEquals(1, reservoir.getMisses());
+        assertEquals(2, reservoir.getNumFailedRefills());
+    }
+    
+    // exceptions thrown by a refill task are recorded
+    @Test
+    public void testFailedRefill() throws InterruptedException {
+        RandomSource source = new RandomSource() {
+            @Override
+            public Random getRandom() {
+                throw new IllegalStateException("no randomness");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        KeyPairReservoir reservoir = new KeyPairReservoir(new NtruEncrypt(APR2011_439_FAST, source), 5, 2, executor);
+        waitForRefill(reservoir);
+        executor.shutdown();
+        assertEquals(0, reservoir.size());
+        assertEquals(0, reservoir.getNumRefills());
+        assertEquals(1, reservoir.getNumFailedRefills());
+        assertEquals("no randomness", reservoir.getLastRefillFailure().getMessage());
+    }
+    
+    @Test(expected=NtruException.class)
+    public void testInvalidLowWaterMark() {
+        new KeyPairReservoir(new NtruEncrypt(APR2011_439_FAST), 5, 5);
+    }
+    
+    private void waitForRefill(KeyPairReservoir reservoir) throws InterruptedException {
+        for (int i=0; i<1000 && reservoir.isRefilling(); i++)
+            Thread.sleep(10);
+        assertFalse(reservoir.isRefilling());
+    }
+}
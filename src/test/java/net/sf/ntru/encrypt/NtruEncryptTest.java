@@ -37,10 +37,29 @@ import static net.sf.ntru.encrypt.EncryptionParameters.EES1499EP1;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import net.sf.ntru.encrypt.EncryptionParameters.TernaryPolynomialType;
+import net.sf.ntru.encrypt.NtruEncrypt.PassphraseDerivation;
 import net.sf.ntru.exception.NtruException;
 import net.sf.ntru.polynomial.IntegerPolynomial;
+import net.sf.ntru.util.HashDrbg;
+import net.sf.ntru.util.KeyGenerationMonitor;
+import net.sf.ntru.util.RandomSource;
 
 import org.junit.Test;
 
@@ -85,6 +104,7 @@ public class NtruEncryptTest {
                 testText(ntru, kp, params);
                 params.sparse = !params.sparse;
                 
+                testPrepared(ntru, kp, params);
                 testEmpty(ntru, kp, params);
                 testMaxLength(ntru, kp, params);
                 testTooLong(ntru, kp, params);
@@ -100,6 +120,20 @@ public class NtruEncryptTest {
         assertArrayEquals(plainText, decrypted);
     }
     
+    // encrypts text with a prepared public key and decrypts it with and without a prepared key pair
+    private void testPrepared(NtruEncrypt ntru, EncryptionKeyPair kp, EncryptionParameters params) {
+        PreparedEncryptionPublicKey pub = ntru.prepare(kp.pub);
+        PreparedEncryptionKeyPair preparedKp = ntru.prepare(kp);
+        for (int i=0; i<3; i++) {
+            byte[] plainText = ("text to encrypt " + i).getBytes();
+            byte[] encrypted = ntru.encrypt(plainText, pub);
+            byte[] decrypted = ntru.decrypt(encrypted, kp);
+            assertArrayEquals(plainText, decrypted);
+            decrypted = ntru.decrypt(encrypted, preparedKp);
+            assertArrayEquals(plainText, decrypted);
+        }
+    }
+    
     // tests an empty message
     private void testEmpty(NtruEncrypt ntru, EncryptionKeyPair kp, EncryptionParameters params) {
         byte[] plainText = "".getBytes();
@@ -148,6 +182,116 @@ public class NtruEncryptTest {
         }
     }
     
+    @Test
+    public void testBatch() {
+        EncryptionParameters params = APR2011_439_FAST;
+        NtruEncrypt ntru = new NtruEncrypt(params);
+        EncryptionKeyPair kp = ntru.generateKeyPair();
+        
+        // 20 messages, one of which is too long
+        List<byte[]> plainTexts = new ArrayList<byte[]>();
+        for (int i=0; i<20; i++)
+            plainTexts.add(("message " + i).getBytes());
+        plainTexts.set(7, new byte[params.maxMsgLenBytes+1]);
+        
+        BatchResult encrypted = ntru.encryptBatch(plainTexts, kp.getPublic());
+        assertEquals(20, encrypted.size());
+        assertFalse(encrypted.isAllSuccess());
+        for (int i=0; i<20; i++)
+            if (i == 7) {
+                assertFalse(encrypted.isSuccess(i));
+                assertNull(encrypted.getResult(i));
+                assertEquals("Message too long: " + (params.maxMsgLenBytes+1) + ">" + params.maxMsgLenBytes, encrypted.getError(i).getMessage());
+            }
+            else {
+                assertTrue(encrypted.isSuccess(i));
+                assertArrayEquals(plainTexts.get(i), ntru.decrypt(encrypted.getResult(i), kp));
+            }
+        
+        // decrypt as an array, corrupting message 3
+        byte[][] encryptedArr = new byte[20][];
+        for (int i=0; i<20; i++)
+            encryptedArr[i] = i==7 ? encrypted.getResult(6) : encrypted.getResult(i);
+        encryptedArr[3] = encryptedArr[3].clone();
+        encryptedArr[3][5] ^= 1;
+        BatchResult decrypted = ntru.decryptBatch(encryptedArr, kp);
+        for (int i=0; i<20; i++)
+            if (i == 3)
+                assertFalse(decrypted.isSuccess(i));
+            else
+                assertArrayEquals(plainTexts.get(i==7 ? 6 : i), decrypted.getResult(i));
+        
+        // ByteBuffers with a caller-supplied executor; buffer positions must not change
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap(plainTexts.get(0)), ByteBuffer.wrap(plainTexts.get(1))};
+        encrypted = ntru.encryptBatch(buffers, kp.getPublic());
+        assertTrue(encrypted.isAllSuccess());
+        assertEquals(0, buffers[0].position());
+        List<byte[]> encryptedList = new ArrayList<byte[]>();
+        encryptedList.add(encrypted.getResult(0));
+        encryptedList.add(encrypted.getResult(1));
+        decrypted = ntru.decryptBatch(encryptedList, ntru.prepare(kp), executor);
+        executor.shutdown();
+        assertArrayEquals(plainTexts.get(0), decrypted.getResult(0));
+        assertArrayEquals(plainTexts.get(1), decrypted.getResult(1));
+        
+        // empty batch
+        assertEquals(0, ntru.encryptBatch(new byte[0][], kp.getPublic()).size());
+    }
+    
+    /** tests that malformed, empty, and null entries fail individually without affecting the rest of the batch */
+    @Test
+    public void testBatchInvalidInputs() {
+        EncryptionParameters params = APR2011_439_FAST;
+        NtruEncrypt ntru = new NtruEncrypt(params);
+        EncryptionKeyPair kp = ntru.generateKeyPair();
+    
+        List<byte[]> plainTexts = new ArrayList<byte[]>();
+        for (int i=0; i<10; i++)
+            plainTexts.add(("message " + i).getBytes());
+        plainTexts.set(4, null);
+        BatchResult encrypted = ntru.encryptBatch(plainTexts, kp.getPublic());
+        for (int i=0; i<10; i++)
+            if (i == 4) {
+                assertFalse(encrypted.isSuccess(i));
+                assertNotNull(encrypted.getError(i));
+            }
+            else
+                assertArrayEquals(plainTexts.get(i), ntru.decrypt(encrypted.getResult(i), kp));
+    
+        List<byte[]> encryptedList = new ArrayList<byte[]>();
+        for (int i=0; i<10; i++)
+            encryptedList.add(encrypted.getResult(i));   // null at index 4
+        encryptedList.set(2, new byte[5]);
+        encryptedList.set(7, new byte[0]);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        BatchResult decrypted = ntru.decryptBatch(encryptedList, ntru.prepare(kp), executor);
+        executor.shutdown();
+        assertFalse(decrypted.isAllSuccess());
+        for (int i=0; i<10; i++)
+            if (i==2 || i==4 || i==7) {
+                assertFalse(decrypted.isSuccess(i));
+                assertNull(decrypted.getResult(i));
+                assertNotNull(decrypted.getError(i));
+            }
+            else
+                assertArrayEquals(plainTexts.get(i), decrypted.getResult(i));
+        
+        // null buffers fail individually, too
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        buffers[0] = ByteBuffer.wrap(plainTexts.get(0));
+        buffers[2] = ByteBuffer.wrap(plainTexts.get(2));
+        encrypted = ntru.encryptBatch(buffers, kp.getPublic());
+        assertFalse(encrypted.isSuccess(1));
+        assertNotNull(encrypted.getError(1));
+        ByteBuffer[] encryptedBuffers = new ByteBuffer[] {null, ByteBuffer.wrap(encrypted.getResult(0)), ByteBuffer.wrap(encrypted.getResult(2))};
+        decrypted = ntru.decryptBatch(encryptedBuffers, kp);
+        assertFalse(decrypted.isSuccess(0));
+        assertNotNull(decrypted.getError(0));
+        assertArrayEquals(plainTexts.get(0), decrypted.getResult(1));
+        assertArrayEquals(plainTexts.get(2), decrypted.getResult(2));
+    }
+    
     // encrypts and decrypts text using an encoded key pair (fastFp=false, simple ternary polynomials)
     @Test
     public void testEncodedKeysSlow() {
@@ -199,12 +343,158 @@ public class NtruEncryptTest {
         EncryptionKeyPair kp1 = ntru.generateKeyPair(passphrase, salt);
         EncryptionKeyPair kp2 = ntru.generateKeyPair(passphrase, salt);
         assertEquals(kp1, kp2);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        assertEquals(kp1, ntru.generateKeyPair(passphrase, salt, executor));
+        assertEquals(ntru.generateKeyPairSingleThread(passphrase, salt), ntru.generateKeyPairSingleThread(passphrase, salt));
+        
+        // with BRANCH_TREE, the result should not depend on the number of threads
+        EncryptionKeyPair kpTree = ntru.generateKeyPair(passphrase, salt, PassphraseDerivation.BRANCH_TREE);
+        assertEquals(kpTree, ntru.generateKeyPair(passphrase, salt, PassphraseDerivation.BRANCH_TREE, executor));
+        assertFalse(kp1.equals(kpTree));
+        executor.shutdown();
         
         salt = ntru.generateSalt();
         EncryptionKeyPair kp3 = ntru.generateKeyPair(passphrase, salt);
         assertFalse(kp1.equals(kp3));
     }
     
+    // tests that key pairs derived from a passphrase with the default derivation are the same as in earlier versions
+    @Test
+    public void testGenerateKeyPairKnownAnswer() {
+        char[] passphrase = "password123".toCharArray();
+        byte[] salt = new byte[] {-37, 103, 50, -91, 2, -43, -106, 65};
+        
+        NtruEncrypt ntru = new NtruEncrypt(APR2011_439);   // simple, fastFp=false
+        verifyKeyPair(ntru.generateKeyPair(passphrase, salt), 973367404, 1695276234, new int[] {90, 1152, 162, 167, 1473});
+        verifyKeyPair(ntru.generateKeyPairSingleThread(passphrase, salt), -513470762, 1236191012, new int[] {824, 1865, 1110, 510, 1699});
+        
+        ntru = new NtruEncrypt(APR2011_439_FAST);   // product form, fastFp=true
+        verifyKeyPair(ntru.generateKeyPair(passphrase, salt), 131447652, 2104230413, new int[] {889, 1873, 1703, 1188, 37});
+        verifyKeyPair(ntru.generateKeyPairSingleThread(passphrase, salt), -299963270, 884332913, new int[] {775, 1100, 1848, 161, 1310});
+        
+        // f candidates that are invertible mod 3 but were rejected by earlier versions must be skipped
+        ntru = new NtruEncrypt(APR2011_439);
+        verifyKeyPair(ntru.generateKeyPairSingleThread("pw0".toCharArray(), new byte[] {1, 2, 3, 0}), 2138664644, -164801154, new int[] {1170, 820, 74, 1386, 631});
+        verifyKeyPair(ntru.generateKeyPairSingleThread("pw6".toCharArray(), new byte[] {1, 2, 3, 6}), -1637674648, 384241128, new int[] {1669, 1294, 1012, 902, 1464});
+        verifyKeyPair(ntru.generateKeyPairSingleThread("pw10".toCharArray(), new byte[] {1, 2, 3, 10}), 306966384, 475748144, new int[] {2021, 1879, 1324, 1146, 1296});
+        verifyKeyPair(ntru.generateKeyPair("pw11".toCharArray(), new byte[] {1, 2, 3, 11}), -1749597860, -384989904, new int[] {1893, 1204, 807, 141, 1734});
+        ntru = new NtruEncrypt(EES1087EP2);
+        verifyKeyPair(ntru.generateKeyPair("pw3".toCharArray(), new byte[] {1, 2, 3, 3}), -1197692192, 1944931070, new int[] {1006, 469, 764, 641, 1517});
+        verifyKeyPair(ntru.generateKeyPairSingleThread("pw3".toCharArray(), new byte[] {1, 2, 3, 3}), 1902259354, 254151676, new int[] {1887, 220, 1008, 283, 328});
+    }
+    
+    /** compares hash codes of <code>h</code> and <code>t</code>, and the first coefficients of <code>h</code>, to the expected values */
+    private void verifyKeyPair(EncryptionKeyPair kp, int hHash, int tHash, int[] hStart) {
+        assertArrayEquals(hStart, Arrays.copyOf(kp.pub.h.coeffs, hStart.length));
+        assertEquals(hHash, Arrays.hashCode(kp.pub.h.coeffs));
+        assertEquals(tHash, Arrays.hashCode(kp.priv.t.toIntegerPolynomial().coeffs));
+    }
+    
+    @Test
+    public void testGenerateKeyPairs() {
+        byte[] plainText = "secret encrypted text".getBytes();
+        for (EncryptionParameters params: new EncryptionParameters[] {APR2011_439, APR2011_439_FAST}) {
+            NtruEncrypt ntru = new NtruEncrypt(params);
+            List<EncryptionKeyPair> keyPairs = ntru.generateKeyPairs(5);
+            assertEquals(5, keyPairs.size());
+            for (EncryptionKeyPair kp: keyPairs) {
+                assertTrue(kp.isValid());
+                byte[] encrypted = ntru.encrypt(plainText, kp.getPublic());
+                assertArrayEquals(plainText, ntru.decrypt(encrypted, kp));
+            }
+            assertFalse(keyPairs.get(0).equals(keyPairs.get(1)));
+        }
+        
+        assertEquals(0, new NtruEncrypt(APR2011_439_FAST).generateKeyPairs(0).size());
+    }
+    
+    @Test
+    public void testGenerateKeyPairExecutor() {
+        byte[] plainText = "secret encrypted text".getBytes();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (EncryptionParameters params: new EncryptionParameters[] {APR2011_439, APR2011_439_FAST, EES1087EP2_FAST}) {
+            NtruEncrypt ntru = new NtruEncrypt(params);
+            EncryptionKeyPair kp1 = ntru.generateKeyPair(executor);
+            EncryptionKeyPair kp2 = ntru.generateKeyPair(executor);
+            assertTrue(kp1.isValid());
+            assertFalse(kp1.equals(kp2));
+            byte[] encrypted = ntru.encrypt(plainText, kp1.getPublic());
+            assertArrayEquals(plainText, ntru.decrypt(encrypted, kp1));
+            
+            // an explicit number of threads; numThreads=2 means no speculative f candidates
+            for (int numThreads: new int[] {1, 2, 5}) {
+                KeyGenerationMonitor monitor = new KeyGenerationMonitor();
+                EncryptionKeyPair kp3 = ntru.generateKeyPair(executor, numThreads, monitor);
+                assertTrue(kp3.isValid());
+                assertTrue(monitor.getFAttempts() >= 1);
+                encrypted = ntru.encrypt(plainText, kp3.getPublic());
+                assertArrayEquals(plainText, ntru.decrypt(encrypted, kp3));
+            }
+        }
+        executor.shutdown();
+        
+        try {
+            new NtruEncrypt(APR2011_439).generateKeyPair(null, 0, new KeyGenerationMonitor());
+            fail("An exception should have been thrown!");
+        }
+        catch (NtruException ex) {
+            assertEquals("numThreads must be at least 1: 0", ex.getMessage());
+        }
+    }
+    
+    @Test
+    public void testGenerateKeyPairMonitor() {
+        NtruEncrypt ntru = new NtruEncrypt(APR2011_439);
+        KeyGenerationMonitor monitor = new KeyGenerationMonitor(1, TimeUnit.MINUTES);
+        assertTrue(ntru.generateKeyPair(monitor).isValid());
+        assertTrue(monitor.getFAttempts() >= 1);
+        assertTrue(monitor.getGAttempts() >= 1);
+        
+        monitor = new KeyGenerationMonitor();
+        monitor.cancel();
+        assertAborted(ntru, monitor, CancellationException.class);
+        
+        assertAborted(ntru, new KeyGenerationMonitor(0, TimeUnit.SECONDS), TimeoutException.class);
+        
+        Thread.currentThread().interrupt();
+        assertAborted(ntru, new KeyGenerationMonitor(), InterruptedException.class);
+        assertTrue(Thread.interrupted());
+    }
+    
+    private void assertAborted(NtruEncrypt ntru, KeyGenerationMonitor monitor, Class<? extends Exception> cause) {
+        for (boolean singleThread: new boolean[] {true, false})
+            try {
+                if (singleThread)
+                    ntru.generateKeyPairSingleThread(monitor);
+                else
+                    ntru.generateKeyPair(monitor);
+                fail();
+            } catch (NtruException e) {
+                assertTrue(cause.isInstance(e.getCause()));
+                assertTrue(monitor.isAborted());
+            }
+    }
+    
+    // key generation and encryption should only draw random numbers from the RandomSource
+    @Test
+    public void testRandomSource() {
+        RandomSource source = new RandomSource() {
+            @Override
+            public Random getRandom() {
+                return new HashDrbg(new byte[32], new byte[16], null);
+            }
+        };
+        NtruEncrypt ntru = new NtruEncrypt(APR2011_439_FAST, source);
+        EncryptionKeyPair kp = ntru.generateKeyPairSingleThread();
+        assertEquals(kp, ntru.generateKeyPairSingleThread());
+        assertArrayEquals(ntru.generateSalt(), ntru.generateSalt());
+        
+        byte[] plainText = "secret encrypted text".getBytes();
+        byte[] encrypted = ntru.encrypt(plainText, kp.getPublic());
+        assertArrayEquals(encrypted, ntru.encrypt(plainText, kp.getPublic()));
+        assertArrayEquals(plainText, ntru.decrypt(encrypted, kp));
+    }
+    
     @Test
     public void testGetOutputLength() {
         EncryptionParameters[] paramSets = new EncryptionParameters[] {APR2011_439, APR2011_439_FAST, APR2011_743, APR2011_743_FAST, EES1087EP2, EES1171EP1, EES1499EP1};
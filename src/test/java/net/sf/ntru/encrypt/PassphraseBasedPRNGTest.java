@@ -27,8 +27,14 @@
 package net.sf.ntru.encrypt;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 public class PassphraseBasedPRNGTest {
@@ -46,6 +52,29 @@ public class PassphraseBasedPRNGTest {
         assertTrue(rng.next(31) >= 0);
     }
     
+    // the output must not change between versions because key pairs are derived from it
+    @Test
+    public void testKnownAnswer() {
+        PassphraseBasedPRNG rng = new PassphraseBasedPRNG("my secret passphrase".toCharArray(), new byte[] {-37, 103, 50, -91, 2, -43, -106, 65});
+        byte[] bytes = new byte[10];
+        rng.nextBytes(bytes);
+        assertArrayEquals(new byte[] {-41, -74, -88, 95, 14, -107, -11, -112, -92, -85}, bytes);
+        assertEquals(127, rng.nextInt(1000));
+    }
+    
+    // nextBytesUnsynchronized() returns the stream in order, four bytes per next(32) call
+    @Test
+    public void testNextBytesUnsynchronized() {
+        PassphraseBasedPRNG rng1 = createRng();
+        PassphraseBasedPRNG rng2 = createRng();
+        byte[] bytes = new byte[200];
+        rng1.nextBytesUnsynchronized(bytes);
+        for (int i=0; i<bytes.length; i+=4) {
+            int expected = ((bytes[i]&0xFF)<<24) | ((bytes[i+1]&0xFF)<<16) | ((bytes[i+2]&0xFF)<<8) | (bytes[i+3]&0xFF);
+            assertEquals(expected, rng2.next(32));
+        }
+    }
+    
     @Test
     public void testCreateBranch() {
         PassphraseBasedPRNG rng1 = createRng();
@@ -62,6 +91,27 @@ public class PassphraseBasedPRNGTest {
         assertArrayEquals(data1, data2);
     }
     
+    @Test
+    public void testCreateIndexedBranch() {
+        PassphraseBasedPRNG rng = createRng();
+        byte[] data1 = new byte[32];
+        rng.createBranch(5).nextBytes(data1);
+        byte[] data2 = new byte[32];
+        createRng().createBranch(5).nextBytes(data2);
+        assertArrayEquals(data1, data2);
+        
+        // other branches, branches of branches, and the parent should all produce different output
+        List<byte[]> outputs = new ArrayList<byte[]>();
+        outputs.add(data1);
+        for (PassphraseBasedPRNG branch: new PassphraseBasedPRNG[] {rng.createBranch(0), rng.createBranch(6), rng.createBranch(5).createBranch(5), rng}) {
+            byte[] data = new byte[32];
+            branch.nextBytes(data);
+            for (byte[] other: outputs)
+                assertFalse(Arrays.equals(other, data));
+            outputs.add(data);
+        }
+    }
+    
     private PassphraseBasedPRNG createRng() {
         return new PassphraseBasedPRNG("my secret passphrase".toCharArray(), new byte[] {-37, 103, 50, -91, 2, -43, -106, 65});
     }
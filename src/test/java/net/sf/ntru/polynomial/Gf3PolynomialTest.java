@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class Gf3PolynomialTest {
+    
+    @Test
+    public void testInvert() {
+        // include lengths at and around multiples of 64
+        for (int N: new int[] {2, 11, 63, 64, 65, 127, 128, 439, 1087}) {
+            int numInvertible = 0;
+            while (numInvertible < 3) {
+                IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(N);
+                IntegerPolynomial b = Gf3Polynomial.invert(a.coeffs);
+                if (b == null)
+                    continue;
+                numInvertible++;
+                
+                // a*b=1 mod 3
+                IntegerPolynomial c = a.mult(b);
+                c.modPositive(3);
+                assertEquals(1, c.coeffs[0]);
+                for (int i=1; i<N; i++)
+                    assertEquals(0, c.coeffs[i]);
+                
+                // the inverse of b is a
+                IntegerPolynomial a2 = Gf3Polynomial.invert(b.coeffs);
+                assertNotNull(a2);
+                a.modPositive(3);
+                assertArrayEquals(a.coeffs, a2.coeffs);
+            }
+        }
+        
+        // x-1 divides x^N-1, so it has no inverse
+        assertNull(Gf3Polynomial.invert(new int[] {-1, 1, 0, 0, 0}));
+    }
+    
+    // the legacy rule only rejects more polynomials, it never changes the inverse
+    @Test
+    public void testInvertLegacy() {
+        int numRejected = 0;
+        for (int i=0; i<100; i++) {
+            IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(107);
+            IntegerPolynomial b = Gf3Polynomial.invert(a.coeffs);
+            IntegerPolynomial bLegacy = Gf3Polynomial.invert(a.coeffs, true);
+            if (bLegacy != null)
+                assertArrayEquals(b.coeffs, bLegacy.coeffs);
+            else if (b != null)
+                numRejected++;
+        }
+        assertTrue(numRejected < 100);
+        
+        assertNull(Gf3Polynomial.invert(new int[] {-1, 1, 0, 0, 0}, true));
+    }
+    
+    @Test
+    public void testMultCyclic() {
+        for (int N: new int[] {1, 2, 11, 63, 64, 65, 439, 1087}) {
+            IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(N, 10);
+            IntegerPolynomial b = PolynomialGeneratorForTesting.generateRandom(N, 10);
+            IntegerPolynomial c = a.mult(b);
+            c.modPositive(3);
+            assertArrayEquals(c.coeffs, Gf3Polynomial.multCyclic(a.coeffs, b.coeffs));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.sf.ntru.polynomial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import net.sf.ntru.arith.MontgomeryReducer;
+
+import org.junit.Test;
+
+public class HalfGcdTest {
+    
+    /** Compares the half-GCD algorithm with the classical Euclidean algorithm in IntegerPolynomial */
+    @Test
+    public void testResultant() {
+        for (int p: new int[] {Integer.MAX_VALUE, 2147483629, 4507})
+            for (int N: new int[] {11, 157, 439, 743, 1087}) {
+                verifyResultant(PolynomialGeneratorForTesting.generateRandom(N), p);
+                verifyResultant(PolynomialGeneratorForTesting.generateRandom(N, 2048), p);
+            }
+    }
+    
+    private void verifyResultant(IntegerPolynomial a, int p) {
+        int N = a.coeffs.length;
+        ModularResultant expected = a.resultant(p);
+        
+        IntegerPolynomial aModP = a.clone();
+        aModP.modPositive(p);
+        int[] residues = new HalfGcd(new MontgomeryReducer(p)).resultant(aModP.coeffs);
+        if (expected.res.signum() == 0) {
+            assertNull(residues);
+            return;
+        }
+        
+        assertEquals(expected.res.intValue(), residues[N]);
+        int[] rho = new int[N];
+        for (int i=0; i<N; i++)
+            rho[i] = expected.rho.coeffs[i].intValue();
+        assertArrayEquals(rho, Arrays.copyOf(residues, N));
+    }
+    
+    @Test
+    public void testZeroResultant() {
+        // a multiple of x-1 has a common root with x^n-1
+        IntegerPolynomial g = PolynomialGeneratorForTesting.generateRandom(439);
+        IntegerPolynomial a = new IntegerPolynomial(439);
+        for (int i=0; i<439; i++)
+            a.coeffs[i] = g.coeffs[(i+438)%439] - g.coeffs[i];
+        a.modPositive(Integer.MAX_VALUE);
+        assertNull(new HalfGcd(new MontgomeryReducer(Integer.MAX_VALUE)).resultant(a.coeffs));
+    }
+}
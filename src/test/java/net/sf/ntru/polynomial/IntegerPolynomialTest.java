@@ -35,6 +35,8 @@ import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import net.sf.ntru.encrypt.EncryptionParameters;
 import net.sf.ntru.sign.SignatureParameters;
@@ -78,6 +80,110 @@ public class IntegerPolynomialTest {
         assertArrayEquals(c.coeffs, d.coeffs);
     }
     
+    /** tests mult(IntegerPolynomial) for polynomials large enough to use Toom-Cook */
+    @Test
+    public void testMultLarge() {
+        Random rng = new Random();
+        for (int N: new int[] {31, 32, 33, 100, 439, 1087, 1499}) {
+            // arbitrary ints to make sure overflow behaves like int arithmetic
+            int[] a = new int[N];
+            int[] b = new int[N];
+            for (int i=0; i<N; i++) {
+                a[i] = rng.nextInt();
+                b[i] = rng.nextInt();
+            }
+            
+            int[] expected = new int[N];
+            for (int i=0; i<N; i++)
+                for (int j=0; j<N; j++)
+                    expected[(i+j)%N] += a[i] * b[j];
+            
+            IntegerPolynomial c = new IntegerPolynomial(a).mult(new IntegerPolynomial(b));
+            assertArrayEquals(expected, c.coeffs);
+            
+            // q=2048 and q=256
+            IntegerPolynomial p1 = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+            IntegerPolynomial p2 = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+            for (int q: new int[] {2048, 256}) {
+                IntegerPolynomial d = p1.mult(p2, q);
+                d.modPositive(q);
+                IntegerPolynomial e = new IntegerPolynomial(N);
+                for (int i=0; i<N; i++)
+                    for (int j=0; j<N; j++)
+                        e.coeffs[(i+j)%N] += p1.coeffs[i] * p2.coeffs[j];
+                e.modPositive(q);
+                assertArrayEquals(e.coeffs, d.coeffs);
+            }
+        }
+    }
+    
+    /** tests that <code>mult(poly, modulus)</code> agrees with <code>mult(poly)</code> for packed and unpacked moduli */
+    @Test
+    public void testMultModulus() {
+        for (int q: new int[] {3, 32, 256, 2047, 2048, 4096})
+            for (int N: new int[] {1, 2, 107, 439}) {
+                IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(N, 2*q);
+                IntegerPolynomial b = PolynomialGeneratorForTesting.generateRandom(N, 2*q);
+                IntegerPolynomial c1 = a.mult(b);
+                c1.modPositive(q);
+                // no need to reduce c2, it should be between 0 and q-1 already
+                IntegerPolynomial c2 = a.mult(b, q);
+                assertArrayEquals(c1.coeffs, c2.coeffs);
+            }
+    }
+    
+    /** checks that multiplication allocates little more than the result once the scratch space exists */
+    @Test
+    public void testMultAllocation() {
+        for (int N: new int[] {11, 743}) {
+            IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+            IntegerPolynomial b = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+            for (int i=0; i<100; i++)
+                a.mult(b, 2048);
+            
+            long bytes1 = AllocationCounterForTesting.getAllocatedBytes();
+            if (bytes1 < 0)
+                return;
+            int iterations = 100;
+            for (int i=0; i<iterations; i++)
+                a.mult(b, 2048);
+            long bytes2 = AllocationCounterForTesting.getAllocatedBytes();
+            
+            // the result is N ints; allow the same again for object headers and measurement overhead
+            long bytesPerMult = (bytes2-bytes1) / iterations;
+            assertTrue("Allocated " + bytesPerMult + " bytes per multiplication", bytesPerMult < 2*4*N + 256);
+        }
+    }
+    
+    /** tests the NTT-based multiplication with small and large coefficients */
+    @Test
+    public void testMultNtt() {
+        Random rng = new Random();
+        for (int N: new int[] {2, 107, 439, 1499}) {
+            for (int bits: new int[] {11, 31}) {
+                int[] a = new int[N];
+                int[] b = new int[N];
+                for (int i=0; i<N; i++) {
+                    a[i] = bits==31 ? rng.nextInt() : rng.nextInt(2048)-1024;
+                    b[i] = bits==31 ? rng.nextInt() : rng.nextInt(2048);
+                }
+                
+                int[] expected = new int[N];
+                for (int i=0; i<N; i++)
+                    for (int j=0; j<N; j++)
+                        expected[(i+j)%N] += a[i] * b[j];
+                
+                assertArrayEquals(expected, NttConvolution.multCyclic(a, b));
+            }
+        }
+        
+        // large enough for mult() to use the NTT
+        int N = 12007;
+        IntegerPolynomial a = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+        IntegerPolynomial b = PolynomialGeneratorForTesting.generateRandom(N, 2048);
+        assertArrayEquals(ToomCook.multCyclic(a.coeffs, b.coeffs), a.mult(b).coeffs);
+    }
+    
     void assertEqualsMod(int[] arr1, int[] arr2, int m) {
         assertEquals(arr1.length, arr2.length);
         for (int i=0; i<arr1.length; i++)
@@ -128,6 +234,17 @@ public class IntegerPolynomialTest {
         a = new IntegerPolynomial(new int[] {-1, 0, 1, 1, 0, 0, -1, 0, -1, 0, 1});
         b = a.invertFq(32);
         assertNull(b);
+        
+        // moduli that are too large for LongPolynomial2, and a polynomial that is large enough for the NTT
+        for (int[] Nq: new int[][] {{11, 1<<16}, {853, 1<<13}, {4099, 2048}})
+            while (true) {
+                a = PolynomialGeneratorForTesting.generateRandom(Nq[0]);
+                b = a.invertFq(Nq[1]);
+                if (b != null) {
+                    verifyInverse(a, b, Nq[1]);
+                    break;
+                }
+            }
     }
     
     @Test
@@ -144,6 +261,30 @@ public class IntegerPolynomialTest {
     }
     
     // tests if a*b=1 (mod modulus)
+    @Test
+    public void testInvertFqBatch() {
+        // 6 invertible polynomials and 2 non-invertible ones
+        IntegerPolynomial[] a = new IntegerPolynomial[8];
+        for (int i=0; i<a.length; i++)
+            do {
+                a[i] = PolynomialGeneratorForTesting.generateRandom(439);
+            } while (a[i].invertFq(2048) == null);
+        a[2] = new IntegerPolynomial(new int[439]);
+        a[2].coeffs[0] = 1;
+        a[2].coeffs[1] = 1;
+        a[5] = a[2].clone();
+        
+        IntegerPolynomial[] b = IntegerPolynomial.invertFq(a, 2048);
+        assertEquals(a.length, b.length);
+        for (int i=0; i<a.length; i++)
+            if (i==2 || i==5)
+                assertNull(b[i]);
+            else
+                verifyInverse(a[i], b[i], 2048);
+        
+        assertEquals(0, IntegerPolynomial.invertFq(new IntegerPolynomial[0], 2048).length);
+    }
+    
     private void verifyInverse(IntegerPolynomial a, IntegerPolynomial b, int modulus) {
         IntegerPolynomial c = a.mult(b, modulus);
         for (int i=1; i<c.coeffs.length; i++)
@@ -199,7 +340,15 @@ public class IntegerPolynomialTest {
     public void testResultant() {
         SignatureParameters params = SignatureParameters.APR2011_439;
         IntegerPolynomial a = DenseTernaryPolynomial.generateRandom(params.N, params.d, params.d, new SecureRandom());
-        verifyResultant(a, a.resultant());
+        Resultant r = a.resultant();
+        verifyResultant(a, r);
+        
+        // the result should not depend on the thread pool
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Resultant r2 = a.resultant(executor);
+        executor.shutdown();
+        assertEquals(r.res, r2.res);
+        assertArrayEquals(r.rho.coeffs, r2.rho.coeffs);
         
         a = new IntegerPolynomial(new int[] {0, 0, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0, 0, 0, 0, 0, 1, -1, 0, 0, -1, 0, 0, 0, 1, 0, 0, 0, -1, -1, 0, -1, 1, -1, 0, -1, 0, -1, -1, -1, 0, 0, 0, 1, 1, -1, -1, -1, 0, -1, -1, 0, 0, 1, 0, 0, 0, 0, 0, -1, 0, 0, 1, 0, 0, 1, 1, -1, 0, 1, -1, 0, 1, 0, 1, 0, -1, -1, 0, 1, 0, -1, 1, 1, 1, 1, 0, 0, -1, -1, 1, 0, 0, -1, -1, 0, -1, 0, 0, 0, 1, 0, 1, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 0, 0, -1, 0, 0, 0, 1, 0, 1, 0, 1, -1, 0, 0, 1, 1, 1, 0, 0, 0, -1, 0, 0, 0, 0, 1, 0, 1, 0, -1, -1, 0, -1, -1, -1, 0, -1, -1, 0, 0, 0, 1, 1, 0, 0, 0, 1, 0, 0, 1, -1, 0, 1, 0, -1, 0, 0, 0, 0, 0, 0, -1, -1, 0, -1, -1, 1, 1, 0, 0, -1, 1, 0, 0, 0, -1, 1, -1, 0, -1, 0, 0, 0, -1, 0, 0, 0, 0, 0, -1, 1, 1, 0, 0, -1, 1, 0, 0, 1, 0, 0, 0, 1, 0, 1, 0, 0, 0, 0, 0, 0, 1, -1, 0, 1, 0, -1, -1, 0, 0, 0, 0, 0, 1, -1, 0, 0, 0, 1, -1, 1, -1, -1, 1, -1, 0, 1, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0, -1, 0, 1, -1, 0, 0, 1, 1, 0, 0, 1, 1, 0, -1, 0, -1, 1, -1, -1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 1, -1, 1, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, -1, 1, 0, -1, -1, 0, 0, -1, 0, 1, 1, -1, 1, -1, 0, 0, 0, 1});
         verifyResultant(a, a.resultant());
@@ -220,15 +369,33 @@ public class IntegerPolynomialTest {
 
     @Test
     public void testResultantMod() {
-        int p = 46337;   // prime; must be less than sqrt(2^31) or integer overflows will occur
+        int p = 46337;
         
         IntegerPolynomial a = new IntegerPolynomial(new int[] {0, 0, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0, 0, 0, 0, 0, 1, -1, 0, 0, -1, 0, 0, 0, 1, 0, 0, 0, -1, -1, 0, -1, 1, -1, 0, -1, 0, -1, -1, -1, 0, 0, 0, 1, 1, -1, -1, -1, 0, -1, -1, 0, 0, 1, 0, 0, 0, 0, 0, -1, 0, 0, 1, 0, 0, 1, 1, -1, 0, 1, -1, 0, 1, 0, 1, 0, -1, -1, 0, 1, 0, -1, 1, 1, 1, 1, 0, 0, -1, -1, 1, 0, 0, -1, -1, 0, -1, 0, 0, 0, 1, 0, 1, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 0, 0, -1, 0, 0, 0, 1, 0, 1, 0, 1, -1, 0, 0, 1, 1, 1, 0, 0, 0, -1, 0, 0, 0, 0, 1, 0, 1, 0, -1, -1, 0, -1, -1, -1, 0, -1, -1, 0, 0, 0, 1, 1, 0, 0, 0, 1, 0, 0, 1, -1, 0, 1, 0, -1, 0, 0, 0, 0, 0, 0, -1, -1, 0, -1, -1, 1, 1, 0, 0, -1, 1, 0, 0, 0, -1, 1, -1, 0, -1, 0, 0, 0, -1, 0, 0, 0, 0, 0, -1, 1, 1, 0, 0, -1, 1, 0, 0, 1, 0, 0, 0, 1, 0, 1, 0, 0, 0, 0, 0, 0, 1, -1, 0, 1, 0, -1, -1, 0, 0, 0, 0, 0, 1, -1, 0, 0, 0, 1, -1, 1, -1, -1, 1, -1, 0, 1, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0, -1, 0, 1, -1, 0, 0, 1, 1, 0, 0, 1, 1, 0, -1, 0, -1, 1, -1, -1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 1, -1, 0, 0, 1, -1, 1, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, -1, 1, 0, -1, -1, 0, 0, -1, 0, 1, 1, -1, 1, -1, 0, 0, 0, 1});
         verifyResultant(a, a.resultant(p), p);
         
         for (int i=0; i<10; i++) {
+            a = PolynomialGeneratorForTesting.generateRandom(853);
+            ModularResultant r = a.resultant(p);
+            verifyResultant(a, r, p);
+            
+            // rho and res are between 0 and p-1
+            BigInteger pBig = BigInteger.valueOf(p);
+            for (BigInteger c: r.rho.coeffs)
+                assertTrue(c.signum()>=0 && c.compareTo(pBig)<0);
+            assertTrue(r.res.signum()>=0 && r.res.compareTo(pBig)<0);
+        }
+        
+        // the largest prime that fits in an int
+        p = Integer.MAX_VALUE;
+        for (int i=0; i<3; i++) {
             a = PolynomialGeneratorForTesting.generateRandom(853);
             verifyResultant(a, a.resultant(p), p);
         }
+        
+        // large enough for the half-GCD algorithm
+        a = PolynomialGeneratorForTesting.generateRandom(2503);
+        verifyResultant(a, a.resultant(p), p);
     }
     
     // verifies that res=rho*a mod x^n-1 mod p
@@ -27,6 +27,7 @@
 package net.sf.ntru.polynomial;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Random;
 
@@ -62,6 +63,45 @@ public class LongPolynomial2Test {
         }
     }
     
+    /** tests moduli other than 2048, and coefficients outside <code>[0..q-1]</code> */
+    @Test
+    public void testMultModulus() {
+        Random rng = new Random();
+        for (int q: new int[] {2, 4, 32, 256, 1024}) {
+            int N = 2 + rng.nextInt(1000);
+            IntegerPolynomial i1 = PolynomialGeneratorForTesting.generateRandom(N, 4096);
+            IntegerPolynomial i2 = PolynomialGeneratorForTesting.generateRandom(N, 4096);
+            LongPolynomial2 a = new LongPolynomial2(i1, q);
+            LongPolynomial2 b = new LongPolynomial2(i2, q);
+            IntegerPolynomial c1 = i1.mult(i2);
+            c1.modPositive(q);
+            IntegerPolynomial c2 = a.mult(b).toIntegerPolynomial();
+            assertArrayEquals(c1.coeffs, c2.coeffs);
+        }
+    }
+    
+    /** checks that multiplication allocates little more than the result once the scratch space exists */
+    @Test
+    public void testMultAllocation() {
+        int N = 743;
+        LongPolynomial2 a = new LongPolynomial2(PolynomialGeneratorForTesting.generateRandomPositive(N, 2048));
+        LongPolynomial2 b = new LongPolynomial2(PolynomialGeneratorForTesting.generateRandomPositive(N, 2048));
+        for (int i=0; i<100; i++)
+            a.mult(b);
+        
+        long bytes1 = AllocationCounterForTesting.getAllocatedBytes();
+        if (bytes1 < 0)
+            return;
+        int iterations = 100;
+        for (int i=0; i<iterations; i++)
+            a.mult(b);
+        long bytes2 = AllocationCounterForTesting.getAllocatedBytes();
+        
+        // the result is (N+1)/2 longs; allow the same again for object headers and measurement overhead
+        long bytesPerMult = (bytes2-bytes1) / iterations;
+        assertTrue("Allocated " + bytesPerMult + " bytes per multiplication", bytesPerMult < 2*8*(N+1)/2);
+    }
+    
     @Test
     public void testSubAnd() {
         IntegerPolynomial i1 = new IntegerPolynomial(new int[] {1368, 2047, 672, 871, 1662, 1352, 1099, 1608});
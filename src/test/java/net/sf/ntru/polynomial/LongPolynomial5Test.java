@@ -59,6 +59,41 @@ public class LongPolynomial5Test {
         }
     }
     
+    /** tests multiplying a product of two polynomials by a third polynomial, and adding */
+    @Test
+    public void testMultChained() {
+        for (int N: new int[] {7, 10, 439, 1000}) {
+            IntegerPolynomial i1 = PolynomialGeneratorForTesting.generateRandomPositive(N, 2048);
+            DenseTernaryPolynomial t1 = PolynomialGeneratorForTesting.generateRandom(N);
+            DenseTernaryPolynomial t2 = PolynomialGeneratorForTesting.generateRandom(N);
+            
+            LongPolynomial5 a = new LongPolynomial5(i1);
+            LongPolynomial5 b = a.mult(t1).mult(t2);
+            b.add(a);
+            IntegerPolynomial c = i1.mult(t1).mult(t2);
+            c.add(i1);
+            c.modPositive(2048);
+            assertEqualsMod(c.coeffs, b.toIntegerPolynomial().coeffs, 2048);
+        }
+    }
+    
+    /** tests moduli other than 2048 */
+    @Test
+    public void testMultModulus() {
+        for (int q: new int[] {2, 4, 32, 256, 512, 1024, 1<<16, 1<<30})
+            for (int N: new int[] {1, 6, 7, 11, 439}) {
+                IntegerPolynomial i1 = PolynomialGeneratorForTesting.generateRandomPositive(N, q);
+                DenseTernaryPolynomial t1 = PolynomialGeneratorForTesting.generateRandom(N);
+                DenseTernaryPolynomial t2 = PolynomialGeneratorForTesting.generateRandom(N);
+                
+                LongPolynomial5 a = new LongPolynomial5(i1, q);
+                LongPolynomial5 b = a.mult(t1).mult(t2);
+                IntegerPolynomial c = i1.mult(t1).mult(t2);
+                c.modPositive(q);
+                assertArrayEquals(c.coeffs, b.toIntegerPolynomial().coeffs);
+            }
+    }
+    
     private void testMult(int[] coeffs1, int[] coeffs2) {
         IntegerPolynomial i1 = new IntegerPolynomial(coeffs1);
         IntegerPolynomial i2 = new IntegerPolynomial(coeffs2);
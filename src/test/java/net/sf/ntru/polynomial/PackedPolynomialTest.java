@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedPolynomialTest {
+    
+    /** compares the result of <code>mult</code> to <code>Polynomial.mult(IntegerPolynomial, int)</code> */
+    @Test
+    public void testMult() {
+        Random rng = new Random();
+        for (int q: new int[] {2048, 256, 2047})
+            for (int N: new int[] {11, 439, 743}) {
+                IntegerPolynomial p = PolynomialGeneratorForTesting.generateRandom(N, q);
+                PackedPolynomial packed = new PackedPolynomial(p, q);
+                
+                Polynomial[] rs = new Polynomial[] {
+                        DenseTernaryPolynomial.generateRandom(N, N/3, N/3, rng),
+                        SparseTernaryPolynomial.generateRandom(N, N/3, N/3, rng),
+                        ProductFormPolynomial.generateRandom(N, 3, 3, 4, 4, rng),
+                        PolynomialGeneratorForTesting.generateRandom(N, q)
+                };
+                for (Polynomial r: rs) {
+                    IntegerPolynomial expected = r.mult(p, q);
+                    expected.modPositive(q);
+                    assertArrayEquals(expected.coeffs, packed.mult(r).coeffs);
+                }
+            }
+    }
+}
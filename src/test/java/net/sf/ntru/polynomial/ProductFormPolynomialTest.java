@@ -71,5 +71,10 @@ public class ProductFormPolynomialTest {
         IntegerPolynomial p3 = p1.mult(p2);
         IntegerPolynomial p4 = p1.toIntegerPolynomial().mult(p2);
         assertEquals(p3, p4);
+        
+        // mod q
+        p3 = p1.mult(p2, q);
+        p4.modPositive(q);
+        assertEquals(p4, p3);
     }
 }
\ No newline at end of file
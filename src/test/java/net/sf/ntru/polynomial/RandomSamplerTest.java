@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.polynomial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RandomSamplerTest {
+    
+    @Test
+    public void testNextInt() {
+        RandomSampler sampler = new RandomSampler(new Random(), 100);
+        int n = 7;
+        int[] counts = new int[n];
+        for (int i=0; i<70000; i++) {
+            int r = sampler.nextInt(n);
+            assertTrue(r>=0 && r<n);
+            counts[r]++;
+        }
+        // each count should be 10000 give or take a few standard deviations (about 92)
+        for (int count: counts)
+            assertTrue(Math.abs(count-10000) < 600);
+        
+        for (int i=0; i<1000; i++)
+            assertEquals(0, sampler.nextInt(1));
+        for (int i=0; i<1000; i++)
+            assertTrue(sampler.nextInt(Integer.MAX_VALUE) >= 0);
+    }
+    
+    @Test
+    public void testSample() {
+        Random rng = new Random();
+        RandomSampler sampler = new RandomSampler(rng, 10);
+        int[] hits = new int[20];
+        for (int i=0; i<10000; i++) {
+            int N = i<5000 ? 20 : rng.nextInt(50)+1;
+            int k = rng.nextInt(N+1);
+            int[] indices = sampler.sample(N, k);
+            
+            // the result should always be a permutation of 0..N-1
+            int[] sorted = indices.clone();
+            Arrays.sort(sorted);
+            for (int j=0; j<N; j++)
+                assertEquals(j, sorted[j]);
+            
+            if (N == 20)
+                for (int j=0; j<k; j++)
+                    hits[indices[j]]++;
+        }
+        
+        // every index should be picked about equally often
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int h: hits) {
+            min = Math.min(min, h);
+            max = Math.max(max, h);
+        }
+        assertTrue(max < min*1.3);
+    }
+    
+    @Test
+    public void testGenerateRandom() {
+        Random rng = new Random();
+        for (int i=0; i<10; i++) {
+            int N = rng.nextInt(2000) + 10;
+            int numOnes = rng.nextInt(N);
+            int numNegOnes = rng.nextInt(N-numOnes);
+            
+            DenseTernaryPolynomial dense = DenseTernaryPolynomial.generateRandom(N, numOnes, numNegOnes, rng);
+            int[] counts = new int[3];
+            for (int c: dense.coeffs)
+                counts[c+1]++;
+            assertEquals(numNegOnes, counts[0]);
+            assertEquals(numOnes, counts[2]);
+            
+            SparseTernaryPolynomial sparse = SparseTernaryPolynomial.generateRandom(N, numOnes, numNegOnes, rng);
+            assertEquals(numOnes, sparse.getOnes().length);
+            assertEquals(numNegOnes, sparse.getNegOnes().length);
+            assertTrue(sparse.toIntegerPolynomial().isTernary());
+        }
+    }
+}
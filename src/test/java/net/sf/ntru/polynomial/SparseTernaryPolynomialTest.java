@@ -50,6 +50,14 @@ public class SparseTernaryPolynomialTest {
         IntegerPolynomial prod2 = p1.mult(p2);
         assertEquals(prod1, prod2);
         
+        // mod 2048 (packed) and mod 2047 (not packed) should both give coefficients between 0 and q-1
+        for (int q: new int[] {2048, 2047}) {
+            prod2 = p1.mult(p2, q);
+            IntegerPolynomial prodMod = prod1.clone();
+            prodMod.modPositive(q);
+            assertEquals(prodMod, prod2);
+        }
+        
         BigIntPolynomial p3 = new BigIntPolynomial(p2);
         BigIntPolynomial prod3 = p1.mult(p3);
         assertEquals(new BigIntPolynomial(prod1), prod3);
@@ -32,15 +32,21 @@ import static net.sf.ntru.sign.SignatureParameters.TEST157_PROD;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
+import net.sf.ntru.exception.NtruException;
 import net.sf.ntru.polynomial.IntegerPolynomial;
 import net.sf.ntru.polynomial.Polynomial;
 import net.sf.ntru.sign.NtruSign.FGBasis;
 import net.sf.ntru.sign.SignatureParameters.KeyGenAlg;
+import net.sf.ntru.util.KeyGenerationMonitor;
 
 import org.junit.Test;
 
@@ -54,16 +60,34 @@ public class NtruSignTest {
     
     private void testCreateBasis(SignatureParameters params) {
         NtruSign ntru = new NtruSign(params);
-        FGBasis basis = (FGBasis)ntru.generateBoundedBasis();
+        FGBasis basis = (FGBasis)ntru.generateBoundedBasis(new KeyGenerationMonitor());
         assertTrue(equalsQ(basis.f, basis.fPrime, basis.F, basis.G, params.q, params.N));
         
         // test KeyGenAlg.FLOAT (default=RESULTANT)
         params.keyGenAlg = KeyGenAlg.FLOAT;
         ntru = new NtruSign(params);
-        basis = (FGBasis)ntru.generateBoundedBasis();
+        basis = (FGBasis)ntru.generateBoundedBasis(new KeyGenerationMonitor());
         assertTrue(equalsQ(basis.f, basis.fPrime, basis.F, basis.G, params.q, params.N));
     }
     
+    @Test
+    public void testGenerateKeyPairMonitor() {
+        NtruSign ntru = new NtruSign(TEST157);
+        KeyGenerationMonitor monitor = new KeyGenerationMonitor(1, TimeUnit.MINUTES);
+        assertNotNull(ntru.generateKeyPairSingleThread(monitor));
+        assertTrue(monitor.getFAttempts() >= TEST157.B+1);
+        assertTrue(monitor.getGAttempts() >= TEST157.B+1);
+        
+        monitor = new KeyGenerationMonitor();
+        monitor.cancel();
+        try {
+            ntru.generateKeyPair(monitor);
+            fail();
+        } catch (NtruException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+    }
+    
     // verifies that f*G-g*F=q
     private boolean equalsQ(Polynomial f, Polynomial g, IntegerPolynomial F, IntegerPolynomial G, int q, int N) {
         IntegerPolynomial x = f.mult(G);
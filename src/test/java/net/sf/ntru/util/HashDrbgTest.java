@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2011, Tim Buktu
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.sf.ntru.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class HashDrbgTest {
+    
+    @Test
+    public void testKnownAnswer() {
+        HashDrbg drbg = createDrbg();
+        byte[] output = new byte[16];
+        drbg.nextBytes(output);
+        // computed with an independent implementation of SP 800-90A Hash_DRBG using SHA-512
+        byte[] expected = new byte[] {-103, -104, -19, -45, -7, 57, -124, -127, 89, -109, 12, 1, -104, -24, 50, -114};
+        assertArrayEquals(expected, output);
+    }
+    
+    // nextBytes() and next() should consume the same output stream
+    @Test
+    public void testNextBytesMatchesNextInt() {
+        HashDrbg drbg1 = createDrbg();
+        HashDrbg drbg2 = createDrbg();
+        for (int i=0; i<2*HashDrbg.BLOCK_SIZE/4; i++) {
+            byte[] bytes = new byte[4];
+            drbg1.nextBytes(bytes);
+            int expected = ((bytes[0]&0xFF)<<24) | ((bytes[1]&0xFF)<<16) | ((bytes[2]&0xFF)<<8) | (bytes[3]&0xFF);
+            assertEquals(expected, drbg2.nextInt());
+        }
+    }
+    
+    @Test
+    public void testReseed() {
+        HashDrbg drbg1 = createDrbg();
+        HashDrbg drbg2 = createDrbg();
+        drbg2.setSeed(0);
+        assertFalse(drbg1.nextLong() == drbg2.nextLong());
+        
+        // two unseeded instances should differ
+        assertFalse(new HashDrbg().nextLong() == new HashDrbg().nextLong());
+    
+        // buffered output must not survive a reseed
+        drbg1 = createDrbg();
+        drbg2 = createDrbg();
+        assertEquals(drbg1.nextInt(), drbg2.nextInt());
+        drbg2.reseed(null);
+        assertFalse(drbg1.nextLong() == drbg2.nextLong());
+    }
+    
+    // large requests bypass the buffer but start with the same bytes as a buffered request
+    @Test
+    public void testLargeRequest() {
+        byte[] small = new byte[16];
+        createDrbg().nextBytes(small);
+        byte[] large = new byte[3*HashDrbg.BLOCK_SIZE+5];
+        HashDrbg drbg = createDrbg();
+        drbg.nextBytes(large);
+        assertArrayEquals(small, Arrays.copyOf(large, 16));
+    
+        // the next request uses the updated state
+        byte[] next = new byte[16];
+        drbg.nextBytes(next);
+        assertFalse(Arrays.equals(small, next));
+    }
+    
+    @Test
+    public void testThreadLocalRandomSource() throws Exception {
+        final RandomSource source = ThreadLocalRandomSource.getDefault();
+        Random rng = source.getRandom();
+        assertSame(rng, source.getRandom());
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Random rng2 = executor.submit(new Callable<Random>() {
+            @Override
+            public Random call() {
+                return source.getRandom();
+            }
+        }).get();
+        executor.shutdown();
+        assertNotSame(rng, rng2);
+    }
+    
+    private HashDrbg createDrbg() {
+        byte[] entropy = new byte[32];
+        for (int i=0; i<entropy.length; i++)
+            entropy[i] = (byte)i;
+        byte[] nonce = new byte[16];
+        for (int i=0; i<nonce.length; i++)
+            nonce[i] = (byte)(100+i);
+        return new HashDrbg(entropy, nonce, "abc".getBytes());
+    }
+}